@@ -0,0 +1,310 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Runs the {@link TraceBenchmarks} on synthetic traces of several sizes and saves the results as JSON, so that the
+ * speed of loading, querying, editing and displaying traces can be compared between revisions.
+ * <p>
+ * Benchmarks are measured the way JMH measures them in average time mode: each benchmark runs a number of warmup
+ * iterations, whose results are thrown away, followed by measurement iterations that each run the benchmark as many
+ * times as they can in a fixed time. The score is the mean time per operation, with a 99.9% confidence interval. The
+ * options and the results file use JMH's names and format, so results can also be viewed with tools made for JMH.
+ * Every benchmark runs in this one JVM, so they should be compared against results from the same machine.
+ */
+public class Benchmarks {
+
+    private static final String USAGE = String.join(System.lineSeparator(),
+            "Usage: java Benchmarks [options] [regex]",
+            "       java Benchmarks -compare <baseline json> <results json>",
+            "",
+            "Runs the benchmarks whose names match the regex (or every benchmark) and saves the results as JSON.",
+            "",
+            "Options:",
+            "  -p size=<n>,<n>...    trace sizes in lines (default 10000,100000)",
+            "  -wi <count>           warmup iterations (default 3)",
+            "  -i <count>            measurement iterations (default 5)",
+            "  -r <seconds>          time to spend on each iteration (default 1)",
+            "  -rff <file>           file to save the results to (default jmh-result.json)",
+            "  -compare <a> <b>      print the change in each score from results file a to results file b");
+
+    // Student's t distribution's 99.95th percentile for 1 to 30 degrees of freedom, as used by JMH for its 99.9%
+    // confidence intervals
+    private static final double[] T_QUANTILES = {
+            636.619, 31.599, 12.924, 8.610, 6.869, 5.959, 5.408, 5.041, 4.781, 4.587, 4.437, 4.318, 4.221, 4.140,
+            4.073, 4.015, 3.965, 3.922, 3.883, 3.850, 3.819, 3.792, 3.768, 3.745, 3.725, 3.707, 3.690, 3.674, 3.659,
+            3.646};
+    private static final double LARGE_T_QUANTILE = 3.291;
+
+    // Results of every operation are folded into this so that none of them can be optimised away
+    private static volatile int sink;
+
+    private int[] sizes = {10_000, 100_000};
+    private int warmupIterations = 3, measurementIterations = 5;
+    private long iterationNanos = 1_000_000_000L;
+    private File resultFile = new File("jmh-result.json");
+    private Pattern filter = Pattern.compile(".*");
+
+    /**
+     * Runs the benchmarks and exits. The exit status is 0 if every benchmark ran, 1 if any failed, or 2 if the
+     * arguments were invalid.
+     *
+     * @param args the command line arguments, see {@link #USAGE}
+     */
+    public static void main(String[] args) {
+        // Tables are painted into images, so no display is needed
+        System.setProperty("java.awt.headless", "true");
+
+        if (args.length > 0 && args[0].equals("-compare")) {
+            if (args.length != 3) {
+                System.err.println(USAGE);
+                System.exit(2);
+            }
+            try {
+                compare(new File(args[1]), new File(args[2]));
+            } catch (IOException | IllegalArgumentException e) {
+                System.err.println(e);
+                System.exit(1);
+            }
+            System.exit(0);
+        }
+
+        Benchmarks benchmarks = new Benchmarks();
+        try {
+            benchmarks.parseArguments(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+        System.exit(benchmarks.run() ? 0 : 1);
+    }
+
+    private void parseArguments(String[] args) throws IllegalArgumentException {
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            try {
+                switch (arg) {
+                    case "-h":
+                    case "--help":
+                        System.out.println(USAGE);
+                        System.exit(0);
+                        break;
+                    case "-p":
+                        String param = getValue(args, ++i, arg);
+                        if (!param.startsWith("size=")) {
+                            throw new IllegalArgumentException("Unknown parameter: " + param);
+                        }
+                        sizes = Arrays.stream(param.substring("size=".length()).split(","))
+                                .mapToInt(Integer::parseInt).toArray();
+                        break;
+                    case "-wi":
+                        warmupIterations = Integer.parseInt(getValue(args, ++i, arg));
+                        break;
+                    case "-i":
+                        measurementIterations = Integer.parseInt(getValue(args, ++i, arg));
+                        break;
+                    case "-r":
+                        iterationNanos = (long) (Double.parseDouble(getValue(args, ++i, arg)) * 1e9);
+                        break;
+                    case "-rff":
+                        resultFile = new File(getValue(args, ++i, arg));
+                        break;
+                    default:
+                        if (arg.startsWith("-")) {
+                            throw new IllegalArgumentException("Unknown option: " + arg);
+                        }
+                        filter = Pattern.compile(arg);
+                        break;
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(arg + " needs a number, not " + args[i]);
+            }
+        }
+        if (measurementIterations < 1) {
+            throw new IllegalArgumentException("At least one measurement iteration is needed");
+        }
+    }
+
+    private static String getValue(String[] args, int index, String option) throws IllegalArgumentException {
+        if (index >= args.length) {
+            throw new IllegalArgumentException(option + " needs a value");
+        }
+        return args[index];
+    }
+
+    /**
+     * @return true if every benchmark ran
+     */
+    private boolean run() {
+        List<TraceBenchmarks.Benchmark> benchmarks = new ArrayList<>();
+        for (TraceBenchmarks.Benchmark benchmark : TraceBenchmarks.create()) {
+            if (filter.matcher(benchmark.name).find()) {
+                benchmarks.add(benchmark);
+            }
+        }
+
+        List<String> results = new ArrayList<>();
+        boolean isComplete = true;
+        for (int size : sizes) {
+            TraceBenchmarks.Trace trace;
+            try {
+                trace = new TraceBenchmarks.Trace(size);
+            } catch (IOException e) {
+                System.err.println(e);
+                return false;
+            }
+
+            for (TraceBenchmarks.Benchmark benchmark : benchmarks) {
+                try {
+                    results.add(measure(benchmark, trace));
+                } catch (Exception e) {
+                    // Keep going so that one broken benchmark doesn't lose the results of the others
+                    System.err.println(benchmark.name + " failed: " + e);
+                    isComplete = false;
+                } finally {
+                    benchmark.tearDown();
+                }
+            }
+            trace.delete();
+        }
+
+        try {
+            Files.write(resultFile.toPath(), Collections.singletonList("[" + String.join(",", results) + "\n]"),
+                    StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            System.err.println(e);
+            return false;
+        }
+        System.out.println("Results saved to " + resultFile);
+        return isComplete;
+    }
+
+    /**
+     * Runs a benchmark's iterations and prints its score.
+     *
+     * @return the benchmark's result as a JMH JSON object
+     */
+    private String measure(TraceBenchmarks.Benchmark benchmark, TraceBenchmarks.Trace trace) throws Exception {
+        benchmark.setUp(trace);
+        for (int i = 0; i < warmupIterations; i++) {
+            runIteration(benchmark, trace);
+        }
+        double[] scores = new double[measurementIterations];
+        for (int i = 0; i < measurementIterations; i++) {
+            scores[i] = runIteration(benchmark, trace);
+        }
+
+        double mean = Arrays.stream(scores).average().orElse(0);
+        double error = Double.NaN;
+        if (scores.length > 1) {
+            double variance = Arrays.stream(scores).map(score -> (score - mean) * (score - mean)).sum()
+                    / (scores.length - 1);
+            int degrees = scores.length - 1;
+            double t = degrees <= T_QUANTILES.length ? T_QUANTILES[degrees - 1] : LARGE_T_QUANTILE;
+            error = t * Math.sqrt(variance / scores.length);
+        }
+        System.out.println(String.format(Locale.ROOT, "%-24s size=%-9d %14.3f +- %9.3f us/op",
+                benchmark.name, trace.size, mean, error));
+
+        StringBuilder json = new StringBuilder();
+        json.append(String.format(Locale.ROOT, "%n  {%n    \"benchmark\" : \"TraceBenchmarks.%s\",%n", benchmark.name));
+        json.append(String.format(Locale.ROOT, "    \"mode\" : \"avgt\",%n    \"threads\" : 1,%n    \"forks\" : 0,%n"));
+        json.append(String.format(Locale.ROOT, "    \"jvm\" : \"%s\",%n    \"jdkVersion\" : \"%s\",%n",
+                escape(System.getProperty("java.home")), escape(System.getProperty("java.version"))));
+        json.append(String.format(Locale.ROOT, "    \"warmupIterations\" : %d,%n    \"warmupTime\" : \"%s s\",%n",
+                warmupIterations, iterationNanos / 1e9));
+        json.append(String.format(Locale.ROOT, "    \"measurementIterations\" : %d,%n    \"measurementTime\" : "
+                + "\"%s s\",%n", measurementIterations, iterationNanos / 1e9));
+        json.append(String.format(Locale.ROOT, "    \"params\" : {%n      \"size\" : \"%d\"%n    },%n", trace.size));
+        json.append(String.format(Locale.ROOT, "    \"primaryMetric\" : {%n      \"score\" : %s,%n", number(mean)));
+        json.append(String.format(Locale.ROOT, "      \"scoreError\" : %s,%n", number(error)));
+        json.append(String.format(Locale.ROOT, "      \"scoreConfidence\" : [%n        %s,%n        %s%n      ],%n",
+                number(mean - error), number(mean + error)));
+        json.append(String.format(Locale.ROOT, "      \"scoreUnit\" : \"us/op\",%n      \"rawData\" : [%n        [%n"));
+        for (int i = 0; i < scores.length; i++) {
+            json.append(String.format(Locale.ROOT, "          %s%s%n", number(scores[i]),
+                    i < scores.length - 1 ? "," : ""));
+        }
+        json.append(String.format(Locale.ROOT, "        ]%n      ]%n    },%n    \"secondaryMetrics\" : {%n    }%n  }"));
+        return json.toString();
+    }
+
+    /**
+     * Runs a benchmark repeatedly for the length of an iteration, and at least once.
+     *
+     * @return the mean time per operation in microseconds
+     */
+    private double runIteration(TraceBenchmarks.Benchmark benchmark, TraceBenchmarks.Trace trace)
+            throws Exception {
+        long operations = 0;
+        long start = System.nanoTime(), elapsed;
+        do {
+            sink ^= System.identityHashCode(benchmark.run(trace));
+            operations++;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < iterationNanos);
+        return elapsed / 1e3 / operations;
+    }
+
+    private static String number(double value) {
+        // JSON has no NaN, so JMH writes it as a string
+        return Double.isNaN(value) ? "\"NaN\"" : String.format(Locale.ROOT, "%.3f", value);
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    /**
+     * Prints the change in the score of each benchmark and size found in both results files. Only the fields this
+     * needs are read, so results files written by JMH itself can be compared too.
+     */
+    private static void compare(File baselineFile, File resultsFile) throws IOException, IllegalArgumentException {
+        Map<String, double[]> baseline = readScores(baselineFile);
+        Map<String, double[]> results = readScores(resultsFile);
+        System.out.println(String.format(Locale.ROOT, "%-40s %14s %14s %9s", "Benchmark", "Baseline us/op",
+                "us/op", "Change"));
+        for (Map.Entry<String, double[]> entry : results.entrySet()) {
+            double[] before = baseline.get(entry.getKey());
+            double[] after = entry.getValue();
+            if (before == null) {
+                continue;
+            }
+            double change = (after[0] - before[0]) / before[0] * 100;
+            // Changes within the confidence intervals of both scores may just be noise
+            boolean isSignificant = Math.abs(after[0] - before[0]) > after[1] + before[1];
+            System.out.println(String.format(Locale.ROOT, "%-40s %14.3f %14.3f %+8.1f%%%s", entry.getKey(),
+                    before[0], after[0], change, isSignificant ? "" : " (within error)"));
+        }
+    }
+
+    /**
+     * @return the score and score error of each benchmark and size in a results file, keyed by name and size
+     */
+    private static Map<String, double[]> readScores(File file) throws IOException, IllegalArgumentException {
+        String json = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+        Pattern resultPattern = Pattern.compile("\"benchmark\"\\s*:\\s*\"([^\"]*)\".*?\"size\"\\s*:\\s*\"([^\"]*)\""
+                + ".*?\"score\"\\s*:\\s*([^,\\s]+)\\s*,\\s*\"scoreError\"\\s*:\\s*([^,\\s]+)", Pattern.DOTALL);
+        Map<String, double[]> scores = new LinkedHashMap<>();
+        Matcher matcher = resultPattern.matcher(json);
+        while (matcher.find()) {
+            String name = matcher.group(1).substring(matcher.group(1).lastIndexOf('.') + 1);
+            scores.put(name + " size=" + matcher.group(2), new double[]{
+                    parseNumber(matcher.group(3)), parseNumber(matcher.group(4))});
+        }
+        if (scores.isEmpty()) {
+            throw new IllegalArgumentException("No benchmark results with a size parameter in " + file);
+        }
+        return scores;
+    }
+
+    private static double parseNumber(String value) {
+        String number = value.replace("\"", "");
+        return number.equals("NaN") ? 0 : Double.parseDouble(number);
+    }
+
+}
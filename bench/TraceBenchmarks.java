@@ -0,0 +1,209 @@
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The benchmarks run by {@link Benchmarks}, covering the hot paths of loading, querying, editing and displaying a
+ * trace. Each benchmark is set up once for each trace size, and then measures a single operation.
+ */
+public class TraceBenchmarks {
+
+    /**
+     * @return every benchmark, in the order they're run
+     */
+    public static List<Benchmark> create() {
+        return Arrays.asList(
+                // Parsing a single line, cycling through every line of the trace
+                new Benchmark("parsePacket") {
+                    private int next;
+
+                    @Override
+                    Object run(Trace trace) {
+                        return new Packet(trace.lines.get(next++ % trace.lines.size()));
+                    }
+                },
+                // Loading the whole trace file, as a Simulator does when a file is opened
+                new Benchmark("loadSimulator") {
+                    @Override
+                    Object run(Trace trace) {
+                        return new Simulator(trace.file);
+                    }
+                },
+                // Finding the packets sent from a host, cycling through every source ip
+                new Benchmark("getTableData") {
+                    private int next;
+
+                    @Override
+                    Object run(Trace trace) {
+                        return trace.simulator.getTableData(trace.srcIPs[next++ % trace.srcIPs.length], true);
+                    }
+                },
+                // Finding the packets sent between two hosts, cycling through the pairs in the trace
+                new Benchmark("getPacketFlowTableData") {
+                    private int next;
+
+                    @Override
+                    Object run(Trace trace) {
+                        List<Packet> packets = trace.simulator.getValidIPPackets();
+                        Packet packet = packets.get(next++ % packets.size());
+                        return trace.simulator.getPacketFlowTableData(packet.getSourceHostIP(),
+                                packet.getDestinationHostIP());
+                    }
+                },
+                // Listing the unique source ips, as the combo boxes do whenever a file is opened
+                new Benchmark("getUniqueSortedHostIPs") {
+                    @Override
+                    Object run(Trace trace) {
+                        return trace.simulator.getUniqueSortedSourceHostIPs();
+                    }
+                },
+                // Editing a packet size in a table of every packet, which updates the table's sum and mean
+                new Benchmark("editCell") {
+                    private PacketTableModel model;
+                    private int next;
+
+                    @Override
+                    void setUp(Trace trace) {
+                        model = new PacketTableModel(trace.simulator.getValidIPPackets().toArray(new Packet[0]), true);
+                    }
+
+                    @Override
+                    Object run(Trace trace) {
+                        int row = next++ % (model.getRowCount() - 2);
+                        int size = (Integer) model.getValueAt(row, PacketTableConstants.SIZE_COL);
+                        model.setValueAt(String.valueOf(size ^ 1), row, PacketTableConstants.SIZE_COL);
+                        return model;
+                    }
+                },
+                // Editing a packet and waiting until the edit has been written back to the file
+                new Benchmark("saveEdit") {
+                    private ExecutorService writer;
+                    private File copy;
+                    private Dataset dataset;
+                    private int next;
+
+                    @Override
+                    void setUp(Trace trace) throws IOException {
+                        // Edits are saved to a copy so that the other benchmarks always read the same trace
+                        copy = File.createTempFile("bench-edit", ".txt");
+                        copy.deleteOnExit();
+                        Files.copy(trace.file.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                        writer = Executors.newSingleThreadExecutor();
+                        dataset = new Dataset(copy, writer);
+                    }
+
+                    @Override
+                    Object run(Trace trace) throws Exception {
+                        List<Packet> packets = dataset.getSimulator().getValidIPPackets();
+                        Packet packet = packets.get(next++ % packets.size());
+                        Integer previousSize = packet.getIpPacketSize();
+                        packet.setIpPacketSize(previousSize ^ 1);
+                        dataset.updatePacket(packet, previousSize, null);
+                        // The writer runs tasks in order, so this waits until the edit has been saved
+                        writer.submit(() -> {
+                        }).get();
+                        return packet;
+                    }
+
+                    @Override
+                    void tearDown() {
+                        if (writer != null) {
+                            writer.shutdown();
+                            copy.delete();
+                        }
+                    }
+                },
+                // Painting a screenful of a table of every packet
+                new Benchmark("renderTable") {
+                    private PacketTable table;
+                    private BufferedImage image;
+                    private int top;
+
+                    @Override
+                    void setUp(Trace trace) {
+                        table = new PacketTable();
+                        table.setModel(new PacketTableModel(trace.simulator.getValidIPPackets().toArray(new Packet[0]),
+                                true));
+                        table.setSize(1200, table.getRowHeight() * table.getRowCount());
+                        table.doLayout();
+                        image = new BufferedImage(1200, 800, BufferedImage.TYPE_INT_RGB);
+                    }
+
+                    @Override
+                    Object run(Trace trace) {
+                        // Scroll through the table so that every row is painted in turn
+                        top = (top + 800) % Math.max(1, table.getHeight() - 800);
+                        Graphics2D graphics = image.createGraphics();
+                        graphics.translate(0, -top);
+                        graphics.setClip(0, top, 1200, 800);
+                        table.paint(graphics);
+                        graphics.dispose();
+                        return image;
+                    }
+                });
+    }
+
+    /**
+     * A benchmarked operation.
+     */
+    public abstract static class Benchmark {
+        final String name;
+
+        Benchmark(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Prepares to run the operation on a trace, which isn't measured.
+         */
+        void setUp(Trace trace) throws Exception {
+        }
+
+        /**
+         * Runs the operation once.
+         *
+         * @return the result of the operation, so that it can't be optimised away
+         */
+        abstract Object run(Trace trace) throws Exception;
+
+        /**
+         * Frees anything made by {@link #setUp(Trace)}.
+         */
+        void tearDown() {
+        }
+    }
+
+    /**
+     * A trace file of a given number of lines written by {@link TraceGenerator} with its default shape. The same size
+     * always gives the same trace, so results can be compared between revisions.
+     */
+    public static class Trace {
+        final int size;
+        final File file;
+        final List<String> lines;
+        final Simulator simulator;
+        final String[] srcIPs;
+
+        Trace(int size) throws IOException {
+            this.size = size;
+            file = File.createTempFile("bench-trace-" + size + "-", ".txt");
+            file.deleteOnExit();
+            new TraceGenerator().write(file, size);
+            lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+            simulator = new Simulator(file);
+            srcIPs = simulator.getUniqueSortedSourceHostIPs();
+        }
+
+        void delete() {
+            file.delete();
+        }
+    }
+
+}
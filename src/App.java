@@ -14,6 +14,8 @@ import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
 
 public class App extends JFrame implements PacketTableConstants {
 
@@ -32,6 +34,9 @@ public class App extends JFrame implements PacketTableConstants {
         }
     };
     private JFileChooser chooser = new JFileChooser();
+    private LoadScheduler loadScheduler = new LoadScheduler();
+    private DatasetRegistry datasetRegistry = new DatasetRegistry(loadScheduler);
+    private MemoryBudget memoryBudget = new MemoryBudget();
 
     /**
      * Creates a new App with it's related GUI elements
@@ -47,11 +52,14 @@ public class App extends JFrame implements PacketTableConstants {
             System.out.println("Failed to load icon file 'close_icon.gif', using default tab close button text");
         }
 
+        // Let the application's performance be watched from JConsole or VisualVM
+        PerformanceMetrics.register();
+
 
         setLayout(new BoxLayout(getContentPane(), BoxLayout.PAGE_AXIS));
 
         // Setup file chooser
-        chooser.setFileFilter(new FileNameExtensionFilter("txt files", "txt"));
+        chooser.setFileFilter(new FileNameExtensionFilter("Trace files (txt, gz, pcap)", "txt", "gz", "pcap"));
         chooser.setDialogTitle("Select a file...");
 
         // Setup menu bar
@@ -73,8 +81,24 @@ public class App extends JFrame implements PacketTableConstants {
         openNewTabMenuItem.setAccelerator(KeyStroke.getKeyStroke("ctrl shift O"));
         fileMenu.add(openNewTabMenuItem);
 
+        JMenuItem mergeMenuItem = new JMenuItem("Merge into new tab...");
+        mergeMenuItem.setToolTipText("Merge several trace files into a single trace ordered by timestamp");
+        mergeMenuItem.addActionListener(e -> mergeFiles());
+        fileMenu.add(mergeMenuItem);
+
         fileMenu.add(new JSeparator());
 
+        JMenuItem exportMenuItem = new JMenuItem("Export matching lines...");
+        exportMenuItem.setToolTipText("Save the lines of the packets shown in the table to a new trace file");
+        exportMenuItem.addActionListener(e -> {
+            PacketPanel packetPanel = (PacketPanel) tabbedPane.getSelectedComponent();
+            if (packetPanel != null) {
+                packetPanel.exportMatchingLines();
+            }
+        });
+        exportMenuItem.setEnabled(false);
+        fileMenu.add(exportMenuItem);
+
         JMenuItem printTableMenuItem = new JMenuItem("Print");
         printTableMenuItem.addActionListener(e -> printTable());
         printTableMenuItem.setAccelerator(KeyStroke.getKeyStroke("ctrl P"));
@@ -227,15 +251,49 @@ public class App extends JFrame implements PacketTableConstants {
         ipPacketSizeMenuItem.addItemListener(viewMenuItemListener);
         viewMenu.add(ipPacketSizeMenuItem);
 
+        // Setup a menu item to list the busiest hosts in the current tab
+        viewMenu.addSeparator();
+        JMenuItem topTalkersMenuItem = new JMenuItem("Top talkers...");
+        topTalkersMenuItem.addActionListener(e -> {
+            PacketPanel packetPanel = (PacketPanel) tabbedPane.getSelectedComponent();
+            if (packetPanel != null) {
+                packetPanel.showTopTalkers();
+            }
+        });
+        viewMenu.add(topTalkersMenuItem);
+
+        // Setup a menu item to show which lines of the current tab's file were dropped, and why
+        JMenuItem rejectedLinesMenuItem = new JMenuItem("Rejected lines...");
+        rejectedLinesMenuItem.addActionListener(e -> {
+            PacketPanel packetPanel = (PacketPanel) tabbedPane.getSelectedComponent();
+            if (packetPanel != null) {
+                packetPanel.showRejectedLines();
+            }
+        });
+        viewMenu.add(rejectedLinesMenuItem);
+
+        // Setup a menu item to watch how long loading and querying traces takes
+        JMenuItem diagnosticsMenuItem = new JMenuItem("Diagnostics...");
+        diagnosticsMenuItem.addActionListener(e -> new DiagnosticsDialog(this).setVisible(true));
+        viewMenu.add(diagnosticsMenuItem);
+
         // Update appropriate values whenever the selected tab changes
         tabbedPane.addChangeListener(e -> {
+            // Files for the visible tab are loaded before those of any other tabs
+            for (int i = 0; i < tabbedPane.getTabCount(); i++) {
+                ((PacketPanel) tabbedPane.getComponentAt(i)).setLoadPriority(i == tabbedPane.getSelectedIndex());
+            }
+
             PacketPanel packetPanel = ((PacketPanel) tabbedPane.getSelectedComponent());
             if (packetPanel == null) {
                 printTableMenuItem.setEnabled(false);
+                exportMenuItem.setEnabled(false);
                 setTitle(APP_NAME);
                 return;
             }
             printTableMenuItem.setEnabled(true);
+            exportMenuItem.setEnabled(true);
+            packetPanel.ensureLoaded();
             packetTable = packetPanel.getPacketTable();
             packetTable.updateColumnVisibility();
             updateCopyPasteActions();
@@ -249,6 +307,12 @@ public class App extends JFrame implements PacketTableConstants {
         setVisible(true);
     }
 
+    @Override
+    public void dispose() {
+        datasetRegistry.shutdown();
+        super.dispose();
+    }
+
     private boolean isEditableCellSelected() {
         int[] rows = packetTable.getSelectedRows();
         int[] cols = packetTable.getSelectedColumns();
@@ -271,52 +335,138 @@ public class App extends JFrame implements PacketTableConstants {
 
     private void openFile(boolean openInNewTab) {
         if (chooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION) {
+            openFile(chooser.getSelectedFile(), openInNewTab);
+        } else {
+            setTitle("Packet Browser");
+        }
+    }
 
-            File file = chooser.getSelectedFile();
-            PacketPanel packetPanel;
-            String filename;
+    private void openFile(File file, boolean openInNewTab) {
+        PacketPanel packetPanel;
+        String filename;
 
-            if (openInNewTab || tabbedPane.getSelectedComponent() == null) {
-                packetPanel = new PacketPanel(file);
-                packetTable = packetPanel.getPacketTable();
+        if (openInNewTab || tabbedPane.getSelectedComponent() == null) {
+            packetPanel = new PacketPanel(file, datasetRegistry, memoryBudget);
+            packetTable = packetPanel.getPacketTable();
 
-                // Setup shortcuts for copy and paste actions
-                packetTable.getInputMap().put(copyKeyStroke, "copyAction");
-                packetTable.getActionMap().put("copyAction", copyAction);
-                packetTable.getInputMap().put(pasteKeyStroke, "pasteAction");
-                packetTable.getActionMap().put("pasteAction", pasteAction);
-                packetTable.setComponentPopupMenu(popupMenu);
+            // Setup shortcuts for copy and paste actions
+            packetTable.getInputMap().put(copyKeyStroke, "copyAction");
+            packetTable.getActionMap().put("copyAction", copyAction);
+            packetTable.getInputMap().put(pasteKeyStroke, "pasteAction");
+            packetTable.getActionMap().put("pasteAction", pasteAction);
+            packetTable.setComponentPopupMenu(popupMenu);
 
-                tabbedPane.addTab(null, packetPanel);
-                tabbedPane.setSelectedComponent(packetPanel);
-            } else {
-                packetPanel = (PacketPanel) tabbedPane.getSelectedComponent();
-                packetTable = packetPanel.getPacketTable();
-                packetPanel.openFile(file);
+            tabbedPane.addTab(null, packetPanel);
+            tabbedPane.setSelectedComponent(packetPanel);
+        } else {
+            packetPanel = (PacketPanel) tabbedPane.getSelectedComponent();
+            packetTable = packetPanel.getPacketTable();
+            packetPanel.openFile(file);
+        }
+
+        // Setup listeners to enable or disable copy paste menu items based on what's selected
+        PropertyChangeListener fileLoaded = new PropertyChangeListener() {
+            @Override
+            public void propertyChange(PropertyChangeEvent e) {
+                // It's possible that multiple PacketPanels could be loading at once, so we need to get the
+                // packetTable attached to the packetPanel that finished loading
+                PacketTable table = ((PacketPanel) e.getSource()).getPacketTable();
+
+                table.getSelectionModel().addListSelectionListener(copyPasteListener);
+                table.getColumnModel().getSelectionModel().addListSelectionListener(copyPasteListener);
+                packetPanel.removePropertyChangeListener(this);
             }
+        };
+        packetPanel.addPropertyChangeListener("packetTable", fileLoaded);
 
-            // Setup listeners to enable or disable copy paste menu items based on what's selected
-            PropertyChangeListener fileLoaded = new PropertyChangeListener() {
-                @Override
-                public void propertyChange(PropertyChangeEvent e) {
-                    // It's possible that multiple PacketPanels could be loading at once, so we need to get the
-                    // packetTable attached to the packetPanel that finished loading
-                    PacketTable table = ((PacketPanel) e.getSource()).getPacketTable();
-
-                    table.getSelectionModel().addListSelectionListener(copyPasteListener);
-                    table.getColumnModel().getSelectionModel().addListSelectionListener(copyPasteListener);
-                    packetPanel.removePropertyChangeListener(this);
-                }
-            };
-            packetPanel.addPropertyChangeListener("packetTable", fileLoaded);
+        packetTable.updateColumnVisibility();
 
-            packetTable.updateColumnVisibility();
+        filename = packetPanel.getName();
+        tabbedPane.setTabComponentAt(tabbedPane.getSelectedIndex(), new PacketTab(filename, packetPanel));
+        setTitle(filename);
+    }
 
-            filename = packetPanel.getName();
-            tabbedPane.setTabComponentAt(tabbedPane.getSelectedIndex(), new PacketTab(filename, packetPanel));
-            setTitle(filename);
-        } else {
-            setTitle("Packet Browser");
+    private void mergeFiles() {
+        chooser.setMultiSelectionEnabled(true);
+        chooser.setDialogTitle("Select the files to merge...");
+        int result = chooser.showOpenDialog(this);
+        chooser.setMultiSelectionEnabled(false);
+        chooser.setDialogTitle("Select a file...");
+        File[] files = chooser.getSelectedFiles();
+        if (result != JFileChooser.APPROVE_OPTION || files.length == 0) {
+            return;
+        }
+
+        JFileChooser outputChooser = new JFileChooser(files[0].getParentFile());
+        outputChooser.setDialogTitle("Save the merged trace as...");
+        outputChooser.setSelectedFile(new File(files[0].getParentFile(), "merged.txt"));
+        if (outputChooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        File output = outputChooser.getSelectedFile();
+        if (Arrays.stream(files).anyMatch(file -> isSameFile(file, output))) {
+            JOptionPane.showMessageDialog(this, "The merged trace can't replace one of the files being merged.",
+                    APP_NAME, JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        if (output.exists() && JOptionPane.showConfirmDialog(this, output.getName() + " already exists. Replace it?",
+                APP_NAME, JOptionPane.YES_NO_OPTION) != JOptionPane.YES_OPTION) {
+            return;
+        }
+
+        // Merging streams every file at once, so it's run with the file loads rather than on the Event Dispatch
+        // Thread, at normal priority so that it doesn't hold up the tab being viewed. The merged trace is then opened
+        // like any other file.
+        JDialog progressDialog = new JDialog(this, APP_NAME, false);
+        JButton cancelButton = new JButton("Cancel");
+        JPanel progressPanel = new JPanel(new BorderLayout(0, 8));
+        progressPanel.setBorder(BorderFactory.createEmptyBorder(8, 8, 8, 8));
+        progressPanel.add(new JLabel("Merging " + files.length + " files into " + output.getName() + "..."),
+                BorderLayout.CENTER);
+        progressPanel.add(cancelButton, BorderLayout.SOUTH);
+        progressDialog.add(progressPanel);
+        progressDialog.pack();
+        progressDialog.setLocationRelativeTo(this);
+        progressDialog.setDefaultCloseOperation(WindowConstants.DO_NOTHING_ON_CLOSE);
+
+        setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+        LoadScheduler.Task<Long> task = loadScheduler.submit(() -> {
+            try {
+                return TraceMerger.merge(Arrays.asList(files), output);
+            } catch (CancellationException e) {
+                // Don't leave half a trace behind
+                output.delete();
+                throw e;
+            }
+        }, count -> {
+            setCursor(null);
+            progressDialog.dispose();
+            openFile(output, true);
+        }, error -> {
+            // Failed to read a file or write the merged trace, including unchecked failures such as a corrupt file
+            setCursor(null);
+            progressDialog.dispose();
+            String message = error.getMessage() != null ? error.getMessage() : error.toString();
+            JOptionPane.showMessageDialog(this, "The files couldn't be merged: " + message, APP_NAME,
+                    JOptionPane.ERROR_MESSAGE);
+        }, false);
+
+        cancelButton.addActionListener(e -> {
+            task.cancel();
+            setCursor(null);
+            progressDialog.dispose();
+        });
+        progressDialog.setVisible(true);
+    }
+
+    /**
+     * @return true if both files are the same file, even if they're given by different paths (e.g. through a link)
+     */
+    private static boolean isSameFile(File file, File other) {
+        try {
+            return file.getCanonicalFile().equals(other.getCanonicalFile());
+        } catch (IOException e) {
+            return file.getAbsoluteFile().equals(other.getAbsoluteFile());
         }
     }
 
@@ -332,10 +482,10 @@ public class App extends JFrame implements PacketTableConstants {
 
     private class PacketTab extends JPanel {
 
-        Component component;
+        PacketPanel packetPanel;
 
-        PacketTab(String name, Component component) {
-            this.component = component;
+        PacketTab(String name, PacketPanel packetPanel) {
+            this.packetPanel = packetPanel;
 
             setLayout(PACKET_TAB_LAYOUT);
             setOpaque(false);
@@ -351,7 +501,11 @@ public class App extends JFrame implements PacketTableConstants {
             closeButton.setContentAreaFilled(false);
             closeButton.setFocusPainted(false);
             closeButton.setOpaque(false);
-            closeButton.addActionListener(e -> tabbedPane.remove(component));
+            closeButton.addActionListener(e -> {
+                // Stop loading the tab's file (if it's still loading) and free its packet data
+                packetPanel.close();
+                tabbedPane.remove(packetPanel);
+            });
             add(closeButton);
         }
     }
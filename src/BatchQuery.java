@@ -0,0 +1,379 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Runs queries over trace files from the command line, without a GUI.
+ * <p>
+ * Files are streamed one packet at a time and matching packets are written out as soon as they're read, so files of
+ * any size can be processed in a fixed amount of memory. Aggregations only keep running totals, so their memory use
+ * grows with the number of groups rather than the number of packets. Distinct hosts and ports are counted exactly
+ * until there are more than a few hundred, and estimated with a {@link HyperLogLog} after that.
+ * Nothing in this class touches AWT or Swing.
+ */
+public class BatchQuery {
+
+    private static final String USAGE = String.join(System.lineSeparator(),
+            "Usage: java RunApp [options] <trace file>...",
+            "",
+            "Prints the packets in the given trace files (plain text, gzip compressed or pcap) that match every",
+            "filter. When more than one file is given, each packet is prefixed with the name of its file.",
+            "Files are read one after another unless --merge is given.",
+            "",
+            "Filters:",
+            "  --src-ip <ip>         packets sent from the given ip",
+            "  --dest-ip <ip>        packets sent to the given ip",
+            "  --src-port <port>     packets sent from the given port",
+            "  --dest-port <port>    packets sent to the given port",
+            "",
+            "Aggregations (print totals of the matching packets instead of the packets themselves):",
+            "  --summary             packet count, total and mean size, and number of distinct hosts and ports",
+            "                        (estimated to within about 1% once there are more than "
+                    + DistinctCounter.EXACT_LIMIT + ")",
+            "  --group-by <key>      packet count and total size for each src-ip, dest-ip, src-port, dest-port,",
+            "                        ip-flow or port-flow",
+            "",
+            "Merging:",
+            "  --merge               read every file at once as a single timeline ordered by timestamp, e.g. to",
+            "                        combine captures from several taps. Each file must already be in time order.",
+            "",
+            "Output:",
+            "  --output <file>       write results to the given file instead of standard output",
+            "  --help                print this message");
+
+    private final List<File> files = new ArrayList<>();
+    private final List<Predicate<Packet>> filters = new ArrayList<>();
+    private boolean isSummary, isMerged;
+    private GroupBy groupBy;
+    private File outputFile;
+
+    private final Simulator simulator = new Simulator();
+    private PrintStream out;
+    private final Summary summary = new Summary();
+    private Map<Object, Summary> groups;
+
+    /**
+     * Runs a batch query and exits. The exit status is 0 if every file was read, 1 if any couldn't be read, or 2 if
+     * the arguments were invalid.
+     *
+     * @param args the command line arguments, see {@link #USAGE}
+     */
+    public static void main(String[] args) {
+        BatchQuery query = new BatchQuery();
+        try {
+            query.parseArguments(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+        System.exit(query.run() ? 0 : 1);
+    }
+
+    private void parseArguments(String[] args) throws IllegalArgumentException {
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            switch (arg) {
+                case "--help":
+                case "-h":
+                    System.out.println(USAGE);
+                    System.exit(0);
+                    break;
+                case "--src-ip":
+                    String srcIP = getValue(args, ++i, arg);
+                    filters.add(packet -> packet.getSourceHostIP().equals(srcIP));
+                    break;
+                case "--dest-ip":
+                    String destIP = getValue(args, ++i, arg);
+                    filters.add(packet -> packet.getDestinationHostIP().equals(destIP));
+                    break;
+                case "--src-port":
+                    Integer srcPort = getPortValue(args, ++i, arg);
+                    filters.add(packet -> srcPort.equals(packet.getSourceHostPort()));
+                    break;
+                case "--dest-port":
+                    Integer destPort = getPortValue(args, ++i, arg);
+                    filters.add(packet -> destPort.equals(packet.getDestinationHostPort()));
+                    break;
+                case "--summary":
+                    isSummary = true;
+                    break;
+                case "--merge":
+                    isMerged = true;
+                    break;
+                case "--group-by":
+                    String key = getValue(args, ++i, arg);
+                    groupBy = Arrays.stream(GroupBy.values()).filter(value -> value.name.equals(key)).findFirst()
+                            .orElseThrow(() -> new IllegalArgumentException("Unknown group-by key: " + key));
+                    break;
+                case "--output":
+                case "-o":
+                    outputFile = new File(getValue(args, ++i, arg));
+                    break;
+                default:
+                    if (arg.startsWith("-")) {
+                        throw new IllegalArgumentException("Unknown option: " + arg);
+                    }
+                    files.add(new File(arg));
+                    break;
+            }
+        }
+
+        if (files.isEmpty()) {
+            throw new IllegalArgumentException("No trace files given");
+        }
+        if (isSummary && groupBy != null) {
+            throw new IllegalArgumentException("--summary and --group-by can't be used together");
+        }
+    }
+
+    private static String getValue(String[] args, int index, String option) throws IllegalArgumentException {
+        if (index >= args.length) {
+            throw new IllegalArgumentException(option + " needs a value");
+        }
+        return args[index];
+    }
+
+    private static Integer getPortValue(String[] args, int index, String option) throws IllegalArgumentException {
+        String value = getValue(args, index, option);
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(option + " needs a port number, not " + value);
+        }
+    }
+
+    /**
+     * @return true if every file was read
+     */
+    private boolean run() {
+        // Results go to the real standard output, while the messages printed about invalid lines and unreadable files
+        // are moved to standard error so that they can't be mistaken for results
+        PrintStream stdout = System.out;
+        System.setOut(System.err);
+
+        try {
+            if (outputFile != null) {
+                out = new PrintStream(new BufferedOutputStream(new FileOutputStream(outputFile), 64 * 1024), false,
+                        StandardCharsets.UTF_8.name());
+            } else {
+                out = new PrintStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 64 * 1024),
+                        false, StandardCharsets.UTF_8.name());
+            }
+        } catch (IOException e) {
+            System.err.println(e);
+            return false;
+        }
+
+        groups = groupBy != null ? new TreeMap<>(groupBy.comparator) : null;
+        boolean isComplete = true;
+
+        if (isMerged) {
+            List<Consumer<Packet>> consumers = new ArrayList<>();
+            files.forEach(file -> consumers.add(createConsumer(file)));
+            try (TraceMerger merger = new TraceMerger(files)) {
+                Packet packet;
+                while ((packet = merger.next()) != null) {
+                    accept(packet, consumers.get(merger.getSourceIndex()));
+                }
+            } catch (IOException e) {
+                // A timeline with a file missing would be misleading, so every file has to be read
+                System.err.println(e);
+                isComplete = false;
+            }
+        } else {
+            for (File file : files) {
+                try {
+                    readPackets(file, createConsumer(file));
+                } catch (IOException e) {
+                    // Keep going so that one bad file doesn't lose the results of the others
+                    System.err.println(e);
+                    isComplete = false;
+                }
+            }
+        }
+
+        if (isSummary) {
+            summary.print(out);
+        } else if (groupBy != null) {
+            out.println(groupBy.header + "\tpackets\ttotal size");
+            groups.forEach((key, group) -> out.println(key + "\t" + group.count + "\t" + group.totalSize));
+        }
+
+        out.close();
+        System.setOut(stdout);
+        return isComplete && !out.checkError();
+    }
+
+    /**
+     * @return a consumer that adds the packets of the given file to the results
+     */
+    private Consumer<Packet> createConsumer(File file) {
+        if (isSummary) {
+            return packet -> {
+                summary.add(packet);
+                summary.addHosts(packet);
+            };
+        } else if (groupBy != null) {
+            return packet -> {
+                Object key = groupBy.getKey.apply(packet);
+                if (key != null) {
+                    groups.computeIfAbsent(key, k -> new Summary()).add(packet);
+                }
+            };
+        } else if (files.size() > 1) {
+            String prefix = file.getName() + "\t";
+            return packet -> out.println(prefix + packet.getTabDelimitedData());
+        }
+        return packet -> out.println(packet.getTabDelimitedData());
+    }
+
+    private void readPackets(File file, Consumer<Packet> consumer) throws IOException {
+        if (PcapReader.isPcap(file)) {
+            try (PcapReader reader = new PcapReader(file)) {
+                Packet packet;
+                while ((packet = reader.readPacket()) != null) {
+                    accept(packet, consumer);
+                }
+            }
+        } else {
+            try (TraceLineReader reader = TraceLineReader.open(file)) {
+                String line;
+                for (int i = 0; (line = reader.readLine()) != null; i++) {
+                    // Packets aren't kept, so their hosts aren't shared through the simulator's host dictionary, which
+                    // would keep every distinct host of every file until the query finishes
+                    Packet packet = Simulator.parseLine(line, i, null, simulator.getRejectedLines());
+                    if (simulator.validate(packet)) {
+                        accept(packet, consumer);
+                    }
+                }
+            }
+        }
+    }
+
+    private void accept(Packet packet, Consumer<Packet> consumer) {
+        for (Predicate<Packet> filter : filters) {
+            if (!filter.test(packet)) {
+                return;
+            }
+        }
+        consumer.accept(packet);
+    }
+
+    /**
+     * The keys packets can be grouped by. Port keys only group packets with both a source and destination port, as the
+     * port views in the GUI do.
+     */
+    private enum GroupBy {
+        SRC_IP("src-ip", "src ip", Packet::getSourceHostIP, Comparator.comparing(key -> new Host((String) key))),
+        DEST_IP("dest-ip", "dest ip", Packet::getDestinationHostIP,
+                Comparator.comparing(key -> new Host((String) key))),
+        SRC_PORT("src-port", "src port",
+                packet -> Simulator.hasValidPortData(packet) ? packet.getSourceHostPort() : null,
+                Comparator.comparing(key -> (Integer) key)),
+        DEST_PORT("dest-port", "dest port",
+                packet -> Simulator.hasValidPortData(packet) ? packet.getDestinationHostPort() : null,
+                Comparator.comparing(key -> (Integer) key)),
+        IP_FLOW("ip-flow", "src ip\tdest ip", packet -> packet.getSourceHostIP() + "\t" + packet.getDestinationHostIP(),
+                Comparator.comparing((Object key) -> new Host(((String) key).split("\t")[0]))
+                        .thenComparing(key -> new Host(((String) key).split("\t")[1]))),
+        PORT_FLOW("port-flow", "src port\tdest port", packet -> Simulator.hasValidPortData(packet)
+                ? packet.getSourceHostPort() + "\t" + packet.getDestinationHostPort() : null,
+                Comparator.comparing((Object key) -> Integer.valueOf(((String) key).split("\t")[0]))
+                        .thenComparing(key -> Integer.valueOf(((String) key).split("\t")[1])));
+
+        private final String name, header;
+        private final Function<Packet, Object> getKey;
+        private final Comparator<Object> comparator;
+
+        GroupBy(String name, String header, Function<Packet, Object> getKey, Comparator<Object> comparator) {
+            this.name = name;
+            this.header = header;
+            this.getKey = getKey;
+            this.comparator = comparator;
+        }
+    }
+
+    /**
+     * Running totals for a set of packets. Distinct hosts and ports are only counted for the summary of every packet,
+     * so groups don't hold counters.
+     */
+    private static class Summary {
+        private long count, totalSize;
+        private DistinctCounter srcIPs, destIPs, srcPorts, destPorts;
+
+        private void add(Packet packet) {
+            count++;
+            if (packet.getIpPacketSize() != null) {
+                totalSize += packet.getIpPacketSize();
+            }
+        }
+
+        private void addHosts(Packet packet) {
+            if (srcIPs == null) {
+                srcIPs = new DistinctCounter();
+                destIPs = new DistinctCounter();
+                srcPorts = new DistinctCounter();
+                destPorts = new DistinctCounter();
+            }
+            srcIPs.add(Host.packIP(packet.getSourceHostIP()));
+            destIPs.add(Host.packIP(packet.getDestinationHostIP()));
+            if (Simulator.hasValidPortData(packet)) {
+                srcPorts.add(packet.getSourceHostPort());
+                destPorts.add(packet.getDestinationHostPort());
+            }
+        }
+
+        private void print(PrintStream out) {
+            out.println("packets\t" + count);
+            out.println("total size\t" + totalSize);
+            out.println(String.format(Locale.ROOT, "mean size\t%.2f", count > 0 ? (double) totalSize / count : 0.0));
+            if (srcIPs != null) {
+                srcIPs.print(out, "src ips");
+                destIPs.print(out, "dest ips");
+                srcPorts.print(out, "src ports");
+                destPorts.print(out, "dest ports");
+            }
+        }
+    }
+
+    /**
+     * Counts distinct values exactly while there are few of them, then estimates them in a fixed amount of memory.
+     */
+    private static class DistinctCounter {
+        private static final int EXACT_LIMIT = 256;
+        // About 0.8% error, using 16 KB, as only the summary of every packet has counters
+        private static final int PRECISION = 14;
+
+        // Null once there are too many values to count exactly
+        private Set<Long> values = new HashSet<>();
+        private HyperLogLog estimate;
+
+        private void add(long value) {
+            if (values == null) {
+                estimate.add(value);
+            } else if (values.add(value) && values.size() > EXACT_LIMIT) {
+                estimate = new HyperLogLog(PRECISION);
+                for (long exactValue : values) {
+                    estimate.add(exactValue);
+                }
+                values = null;
+            }
+        }
+
+        /**
+         * Prints the count, labelling it as an estimate if it is one
+         */
+        private void print(PrintStream out, String name) {
+            if (values != null) {
+                out.println(name + "\t" + values.size());
+            } else {
+                out.println(name + " (estimated)\t" + estimate.estimate());
+            }
+        }
+    }
+
+}
@@ -0,0 +1,905 @@
+import javax.swing.*;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * The parsed contents of a trace file, which may be shared by any number of PacketPanels.
+ * <p>
+ * Edits to the dataset's packets are written back to the file by a single writer thread, and every panel viewing the
+ * dataset is notified of them so that all views of the file stay consistent. The same thread is used to read data
+ * appended to the file while it's being followed, during which time the dataset can't be edited. Gzip compressed
+ * files are decompressed as they're read, and pcap capture files are decoded without building any text. Neither can be
+ * edited or followed.
+ * <p>
+ * Datasets can hold their packets and lines in a {@link ScratchFile} rather than on the heap, so that traces larger
+ * than the heap can be opened and the garbage collector doesn't have to trace them. Those datasets must be closed once
+ * they're no longer used.
+ */
+public class Dataset {
+
+    // Estimated fixed cost of a Packet and its boxed fields. Its line is the one held in lines, and its hosts are
+    // shared with other packets, so they're counted by the host dictionary.
+    private static final long PACKET_OVERHEAD_BYTES = 100;
+    // Estimated fixed cost of each line's String (excluding characters)
+    private static final long LINE_OVERHEAD_BYTES = 40;
+    // Traces estimated to have more distinct source or destination ips than this only list their values once they're
+    // needed, which can be overridden with -Dpacketbrowser.exactValueLimit=<count>
+    private static final long EXACT_VALUE_LIMIT = Long.getLong("packetbrowser.exactValueLimit", 100_000);
+    // The total number of packets in each dataset's cached query results, which can be overridden with
+    // -Dpacketbrowser.queryCacheSize=<count>
+    private static final int QUERY_CACHE_SIZE = Integer.getInteger("packetbrowser.queryCacheSize", 2_000_000);
+    // Estimated cost of each packet in a cached query result, i.e. a reference to it
+    private static final long QUERY_RESULT_BYTES = 4;
+    // Packets and lines are held in a scratch file outside of the heap if this is enabled with
+    // -Dpacketbrowser.offHeap=true
+    private static final boolean OFF_HEAP = Boolean.getBoolean("packetbrowser.offHeap");
+    // Queries and searches for every dataset run one at a time, as any that's superseded before it finishes is
+    // cancelled
+    // The number of packets a search scans between checks for whether it's been cancelled
+    private static final int SEARCH_CANCELLATION_INTERVAL = 1 << 16;
+    private static final ExecutorService QUERY_EXECUTOR = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "packet-query");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final File file;
+    private final boolean isCompressed, isPcap;
+    // Null unless this dataset is held off heap
+    private final ScratchFile scratch;
+    private final Simulator simulator;
+    // The unique values of each dimension of the packets, indexed by the ordinal of their TopTalkers.Dimension
+    private HostValues[] hostValues;
+
+    // Only changed by the writer thread once the dataset has been loaded
+    private final List<String> lines;
+    private long readOffset;
+    // The offset in the file of the start of each line, so that lines can be copied out of the file without decoding
+    // them. They're only kept for plain text files, and are no longer current once an edit has been saved, as saving
+    // rewrites the file with the platform's line separator. They're held in the scratch file if there is one.
+    private long[] lineOffsets = new long[0];
+    private final ScratchFile.Column lineOffsetColumn;
+    private boolean areLineOffsetsCurrent;
+    private volatile boolean isClosed;
+
+    // Used to estimate memory usage
+    private volatile long lineCount, linesLength;
+
+    // An index of the text of each valid ip packet, built in the background by the indexer thread once the file has
+    // been loaded, and published on the Event Dispatch Thread when it's complete. After that it's only used by
+    // searches, which all run on the query executor and bring it up to date with appended packets. The indexer is
+    // stopped when the dataset is no longer used, so that it doesn't keep the packets from being collected. Packets
+    // that have been edited since they were indexed are always checked against the search term, as their text may no
+    // longer match the index.
+    private NGramIndex searchIndex;
+    private volatile long searchIndexBytes;
+    private Thread indexer;
+    // Packets held off heap are views that are only equal to other views of the same packet, and other packets are
+    // only equal to themselves
+    private final Set<Packet> editedPackets = new HashSet<>();
+
+    // The results of recent queries, and a copy of the valid ip packets for queries to run on in the background. Both
+    // are only accessed on the Event Dispatch Thread. Packets are only added on that thread, so the copy is extended
+    // with any that were appended since it was last used. It only ever grows, and its array is replaced (doubling in
+    // length) when it's full, so a running query keeps seeing the packets that had been added when it started. Edits
+    // only change packet sizes, which queries don't look at, so only appended packets make cached results out of date.
+    // Packets held off heap are only ever appended, so rather than a copy, queries run on a view of those that had
+    // been added when they started.
+    private final QueryCache queryCache = new QueryCache(QUERY_CACHE_SIZE);
+    private Packet[] queryPackets = new Packet[0];
+    private int queryPacketCount;
+
+    // The number of (decompressed) bytes read while loading the file, and the time it took
+    private long loadedBytes, loadTimeNanos;
+
+    // The size and modification time of the file when it was last read or written by this dataset
+    private volatile long fileSize, fileLastModified;
+
+    private final ExecutorService writer;
+    private final AtomicInteger pendingWrites = new AtomicInteger();
+    private final AtomicBoolean isReadPending = new AtomicBoolean();
+    private final List<DatasetListener> listeners = new CopyOnWriteArrayList<>();
+    private FileTailer tailer;
+    private int followers;
+
+    /**
+     * Reads and parses the given file. This may take a long time for large files, so it should not be called on the
+     * Event Dispatch Thread.
+     *
+     * @param file   a file containing tab delimited lines of packet data (optionally gzip compressed), or a pcap file
+     * @param writer the single threaded executor used to write edits back to the file
+     * @throws IOException           the file could not be read, or held in the scratch file
+     * @throws CancellationException the thread creating this Dataset was interrupted before the file was read
+     */
+    public Dataset(File file, ExecutorService writer) throws IOException, CancellationException {
+        this.file = file;
+        this.writer = writer;
+
+        fileLastModified = file.lastModified();
+
+        scratch = OFF_HEAP ? createScratchFile() : null;
+        if (scratch != null) {
+            lines = new LineStore(scratch);
+            lineOffsetColumn = scratch.addColumn(8);
+            simulator = new Simulator(new PacketStore(scratch, lines));
+        } else {
+            lines = new ArrayList<>();
+            lineOffsetColumn = null;
+            simulator = new Simulator();
+        }
+
+        long startTime = System.nanoTime();
+        PerformanceMetrics.PhaseTimer timer = new PerformanceMetrics.PhaseTimer();
+        boolean isPcap = false, isCompressed = false, isRead = false;
+        try {
+            isPcap = PcapReader.isPcap(file);
+            isCompressed = !isPcap && TraceLineReader.isCompressed(file);
+            if (isPcap) {
+                readPcapFile(timer);
+            } else {
+                readTraceFile(!isCompressed, timer);
+            }
+            // Reading may have stopped because the thread was interrupted while waiting for decompressed data
+            if (Thread.currentThread().isInterrupted()) {
+                throw new CancellationException("Loading of " + file + " was cancelled");
+            }
+            isRead = true;
+        } catch (UncheckedIOException e) {
+            // Failed to hold the file in the scratch file, which is reported like failing to read it
+            throw e.getCause();
+        } finally {
+            // Nothing else will close a dataset that failed to load or was cancelled, so its scratch file is closed
+            // here however the read ended
+            if (!isRead && scratch != null) {
+                scratch.close();
+            }
+        }
+        this.isPcap = isPcap;
+        this.isCompressed = isCompressed;
+        loadTimeNanos = System.nanoTime() - startTime;
+        fileSize = isCompressed || isPcap ? file.length() : readOffset;
+
+        // Listing every value of a trace with a huge number of them (e.g. from scanning traffic) is the largest
+        // allocation of the load, so it's put off until the lists are asked for
+        DistinctCounts distinctCounts = simulator.getDistinctCounts();
+        if (distinctCounts.getEstimate(TopTalkers.Dimension.SRC_IP) <= EXACT_VALUE_LIMIT
+                && distinctCounts.getEstimate(TopTalkers.Dimension.DEST_IP) <= EXACT_VALUE_LIMIT) {
+            loadValueLists();
+        }
+        int packetCount = simulator.getValidIPPackets().size();
+        PerformanceMetrics.getInstance().recordLoad(timer, isPcap ? packetCount : lineCount, packetCount, loadedBytes,
+                getMemoryUsage());
+
+        startSearchIndex();
+    }
+
+    private static ScratchFile createScratchFile() {
+        try {
+            return new ScratchFile();
+        } catch (IOException e) {
+            // Failed to create the scratch file, so the dataset is held on the heap instead
+            System.out.println(e);
+            return null;
+        }
+    }
+
+    private void readTraceFile(boolean keepLineOffsets, PerformanceMetrics.PhaseTimer timer)
+            throws IOException, UncheckedIOException, CancellationException {
+        long length = 0;
+        try (TraceLineReader reader = TraceLineReader.open(file)) {
+            String line;
+            Packet packet;
+            for (int i = 0; (line = reader.readLine()) != null; i++) {
+                // Stop early if the load has been cancelled so that the data read so far can be collected
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new CancellationException("Loading of " + file + " was cancelled");
+                }
+                if (keepLineOffsets) {
+                    addLineOffset(i, reader.getLineOffset());
+                }
+                lines.add(line);
+                length += line.length();
+                timer.lap(PerformanceMetrics.Phase.READ);
+                packet = Simulator.parseLine(line, i, simulator.getHostDictionary(), simulator.getRejectedLines());
+                timer.lap(PerformanceMetrics.Phase.PARSE);
+                if (simulator.validate(packet)) {
+                    timer.lap(PerformanceMetrics.Phase.VALIDATE);
+                    simulator.addPacket(packet);
+                    timer.lap(PerformanceMetrics.Phase.INDEX);
+                } else {
+                    timer.lap(PerformanceMetrics.Phase.VALIDATE);
+                }
+            }
+            readOffset = reader.getOffset();
+        }
+        areLineOffsetsCurrent = keepLineOffsets;
+        loadedBytes = readOffset;
+        lineCount = lines.size();
+        linesLength = length;
+    }
+
+    private void addLineOffset(int lineIndex, long offset) {
+        if (lineOffsetColumn != null) {
+            lineOffsetColumn.putLong(lineIndex, offset);
+            return;
+        }
+        if (lineIndex == lineOffsets.length) {
+            lineOffsets = Arrays.copyOf(lineOffsets, Math.max(1024, lineOffsets.length * 2));
+        }
+        lineOffsets[lineIndex] = offset;
+    }
+
+    private long getLineOffset(int lineIndex) {
+        return lineOffsetColumn != null ? lineOffsetColumn.getLong(lineIndex) : lineOffsets[lineIndex];
+    }
+
+    private void readPcapFile(PerformanceMetrics.PhaseTimer timer)
+            throws IOException, UncheckedIOException, CancellationException {
+        // Packets are decoded straight from the capture, so there are no lines to keep
+        try (PcapReader reader = new PcapReader(file, simulator.getHostDictionary())) {
+            Packet packet;
+            while ((packet = reader.readPacket()) != null) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new CancellationException("Loading of " + file + " was cancelled");
+                }
+                // Records are read and decoded together, so both count as parsing
+                timer.lap(PerformanceMetrics.Phase.PARSE);
+                simulator.addPacket(packet);
+                timer.lap(PerformanceMetrics.Phase.INDEX);
+            }
+        }
+        loadedBytes = file.length();
+    }
+
+    /**
+     * Starts building the search index in the background, unless it's already been built or is being built. Searching
+     * falls back to scanning every packet until the index is ready, so it doesn't delay the load. Traces held off heap
+     * are always scanned, as their index would be held on the heap. This is called when the dataset is loaded, and
+     * should be called on the Event Dispatch Thread when it's used again after {@link #stopSearchIndex()}.
+     */
+    public void startSearchIndex() {
+        if (scratch != null || searchIndex != null || indexer != null) {
+            return;
+        }
+        // The indexer shares the packets that queries run on rather than copying them again
+        List<Packet> packets = getQueryPackets(simulator.getValidIPPackets());
+        Thread thread = new Thread(() -> buildSearchIndex(packets), "search-indexer-" + file.getName());
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        indexer = thread;
+        thread.start();
+    }
+
+    /**
+     * Stops building the search index if it's still being built, dropping what's been indexed so far, e.g. because
+     * the dataset is no longer used. This should be called on the Event Dispatch Thread.
+     */
+    public void stopSearchIndex() {
+        if (indexer != null) {
+            indexer.interrupt();
+            indexer = null;
+        }
+    }
+
+    private void buildSearchIndex(List<Packet> packets) {
+        long startTime = System.nanoTime();
+        NGramIndex index = new NGramIndex();
+        for (Packet packet : packets) {
+            if (Thread.currentThread().isInterrupted()) {
+                return;
+            }
+            index.add(packet.getTabDelimitedData());
+        }
+        index.trimToSize();
+        PerformanceMetrics.getInstance().recordPhase(PerformanceMetrics.Phase.SEARCH_INDEX,
+                System.nanoTime() - startTime);
+        Thread thread = Thread.currentThread();
+        SwingUtilities.invokeLater(() -> {
+            // Indexing may have been stopped after the index was finished, in which case it's no longer wanted
+            if (indexer == thread) {
+                indexer = null;
+                searchIndex = index;
+                searchIndexBytes = index.getMemoryUsage();
+            }
+        });
+    }
+
+    /**
+     * @return the file this dataset was read from
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return true if this dataset's file is gzip compressed
+     */
+    public boolean isCompressed() {
+        return isCompressed;
+    }
+
+    /**
+     * @return true if this dataset was read from a pcap capture file rather than a trace file
+     */
+    public boolean isPcap() {
+        return isPcap;
+    }
+
+    /**
+     * @return the number of bytes read while loading this dataset, after decompression
+     */
+    public long getLoadedBytes() {
+        return loadedBytes;
+    }
+
+    /**
+     * @return the time in nanoseconds it took to read and parse this dataset's file
+     */
+    public long getLoadTimeNanos() {
+        return loadTimeNanos;
+    }
+
+    /**
+     * @return this dataset's Simulator
+     */
+    public Simulator getSimulator() {
+        return simulator;
+    }
+
+    /**
+     * @return true if the lists of unique hosts and ports have been built, which is only put off for traces with a
+     * huge number of distinct ips
+     * @see #loadValueLists()
+     */
+    public boolean hasValueLists() {
+        return hostValues != null;
+    }
+
+    /**
+     * Builds the lists of unique hosts and ports if they haven't been built yet. This may take a long time for traces
+     * with a huge number of distinct ips.
+     */
+    public void loadValueLists() {
+        if (hostValues == null) {
+            long startTime = System.nanoTime();
+            TopTalkers.Dimension[] dimensions = {TopTalkers.Dimension.SRC_IP, TopTalkers.Dimension.DEST_IP,
+                    TopTalkers.Dimension.SRC_PORT, TopTalkers.Dimension.DEST_PORT};
+            HostValues[] values = new HostValues[dimensions.length];
+            for (TopTalkers.Dimension dimension : dimensions) {
+                values[dimension.ordinal()] = new HostValues(dimension);
+                values[dimension.ordinal()].add(simulator.getValidIPPackets());
+            }
+            hostValues = values;
+            PerformanceMetrics.getInstance().recordPhase(PerformanceMetrics.Phase.VALUE_LISTS,
+                    System.nanoTime() - startTime);
+        }
+    }
+
+    /**
+     * Returns the unique values of one dimension of this dataset's packets, with the number of packets for each. The
+     * values are kept up to date as packets are appended, before listeners are told of them.
+     *
+     * @param dimension a single ip or port dimension, i.e. not a pair
+     * @return the unique values of the dimension sorted by address
+     * @throws IllegalArgumentException the dimension is a pair
+     */
+    public HostValues getHostValues(TopTalkers.Dimension dimension) throws IllegalArgumentException {
+        if (dimension.isPair()) {
+            throw new IllegalArgumentException("Pairs of hosts aren't listed: " + dimension);
+        }
+        loadValueLists();
+        return hostValues[dimension.ordinal()];
+    }
+
+    /**
+     * Finds the valid ip packets whose line contains a term in the background, ignoring the case of ASCII letters. Once
+     * the search index has been built only the packets containing every trigram of the term are checked, so a search
+     * takes milliseconds rather than a scan of every line. Terms shorter than three characters, and searches made
+     * before the index is ready, scan every packet instead. This should be called on the Event Dispatch Thread.
+     *
+     * @param term   the text to search for
+     * @param onDone called on the Event Dispatch Thread with the matching packets (in the order they were read) unless
+     *               the search is cancelled first
+     * @return the running search, which can be cancelled if its results are no longer needed
+     */
+    public Future<Packet[]> search(String term, Consumer<Packet[]> onDone) {
+        List<Packet> validIPPackets = simulator.getValidIPPackets();
+        List<Packet> packets = scratch != null ? validIPPackets.subList(0, validIPPackets.size())
+                : getQueryPackets(validIPPackets);
+        NGramIndex index = searchIndex;
+        List<Packet> edited = new ArrayList<>(editedPackets);
+        return runInBackground(() -> search(term, packets, index, edited), validIPPackets, packets.size(),
+                packet -> NGramIndex.contains(packet.getTabDelimitedData(), term), onDone);
+    }
+
+    private Packet[] search(String term, List<Packet> packets, NGramIndex index, Collection<Packet> edited)
+            throws CancellationException {
+        List<Packet> matches = new ArrayList<>();
+        if (index == null || term.length() < 3) {
+            for (int i = 0; i < packets.size(); i++) {
+                if ((i & SEARCH_CANCELLATION_INTERVAL - 1) == 0 && Thread.currentThread().isInterrupted()) {
+                    throw new CancellationException("Search for " + term + " was cancelled");
+                }
+                Packet packet = packets.get(i);
+                if (NGramIndex.contains(packet.getTabDelimitedData(), term)) {
+                    matches.add(packet);
+                }
+            }
+            return matches.toArray(new Packet[0]);
+        }
+
+        // Only searches change the index once it's been built, and they run one at a time
+        if (index.size() < packets.size()) {
+            while (index.size() < packets.size()) {
+                index.add(packets.get(index.size()).getTabDelimitedData());
+            }
+            searchIndexBytes = index.getMemoryUsage();
+        }
+        Set<Packet> editedSet = new HashSet<>(edited);
+        for (int candidate : index.getCandidates(term)) {
+            Packet packet = packets.get(candidate);
+            if (!editedSet.contains(packet) && NGramIndex.contains(packet.getTabDelimitedData(), term)) {
+                matches.add(packet);
+            }
+        }
+        if (!edited.isEmpty()) {
+            for (Packet packet : edited) {
+                if (NGramIndex.contains(packet.getTabDelimitedData(), term)) {
+                    matches.add(packet);
+                }
+            }
+            matches.sort(Comparator.comparingInt(Packet::getLineIndex));
+        }
+        return matches.toArray(new Packet[0]);
+    }
+
+    /**
+     * Finds the packets matching a query in the background, unless its results are cached. This should be called on
+     * the Event Dispatch Thread.
+     *
+     * @param query  the query to run
+     * @param onDone called on the Event Dispatch Thread with the matching packets (in the order they were read) unless
+     *               the query is cancelled first. It's called before this method returns if the results were cached.
+     * @return the running query, which can be cancelled if its results are no longer needed
+     */
+    public Future<Packet[]> query(PacketQuery query, Consumer<Packet[]> onDone) {
+        Packet[] cached = queryCache.get(query);
+        if (cached != null) {
+            onDone.accept(cached);
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        List<Packet> validIPPackets = simulator.getValidIPPackets();
+        List<Packet> packets = scratch != null ? validIPPackets.subList(0, validIPPackets.size())
+                : getQueryPackets(validIPPackets);
+        return runInBackground(() -> query.run(packets), validIPPackets, packets.size(), query::matches, matches -> {
+            queryCache.put(query, matches);
+            onDone.accept(matches);
+        });
+    }
+
+    /**
+     * Runs a query or search on the query executor, and delivers its results on the Event Dispatch Thread with any
+     * matching packets that were appended while it ran
+     *
+     * @param run            finds the matching packets of those that had been added when it started
+     * @param validIPPackets the simulator's valid ip packets
+     * @param packetCount    the number of packets it searches
+     * @param matches        checks a packet that was appended while it ran
+     * @param onDone         called with the matching packets unless the task is cancelled first
+     * @return the running task
+     */
+    private static Future<Packet[]> runInBackground(Callable<Packet[]> run, List<Packet> validIPPackets,
+                                                    int packetCount, Predicate<Packet> matches,
+                                                    Consumer<Packet[]> onDone) {
+        FutureTask<Packet[]> task = new FutureTask<Packet[]>(run) {
+            @Override
+            protected void done() {
+                SwingUtilities.invokeLater(() -> {
+                    // Tasks are cancelled on the Event Dispatch Thread, so the results of one are never delivered
+                    if (isCancelled()) {
+                        return;
+                    }
+                    Packet[] found;
+                    try {
+                        found = get();
+                    } catch (InterruptedException | ExecutionException e) {
+                        // Failed to run the query
+                        System.out.println(e);
+                        return;
+                    }
+                    // Packets may have been appended while the task ran, which aren't in the packets it searched
+                    if (validIPPackets.size() > packetCount) {
+                        List<Packet> allMatches = new ArrayList<>(Arrays.asList(found));
+                        for (Packet packet : validIPPackets.subList(packetCount, validIPPackets.size())) {
+                            if (matches.test(packet)) {
+                                allMatches.add(packet);
+                            }
+                        }
+                        found = allMatches.toArray(new Packet[0]);
+                    }
+                    onDone.accept(found);
+                });
+            }
+        };
+        QUERY_EXECUTOR.execute(task);
+        return task;
+    }
+
+    /**
+     * Adds any packets that were appended since the last query to the copy of the packets that queries run on, which
+     * costs nothing unless packets were appended
+     *
+     * @param validIPPackets the simulator's valid ip packets
+     * @return the packets a query should run on, which aren't changed by later appends
+     */
+    private List<Packet> getQueryPackets(List<Packet> validIPPackets) {
+        int size = validIPPackets.size();
+        if (size > queryPackets.length) {
+            queryPackets = Arrays.copyOf(queryPackets, Math.max(size, queryPackets.length * 2));
+        }
+        for (; queryPacketCount < size; queryPacketCount++) {
+            queryPackets[queryPacketCount] = validIPPackets.get(queryPacketCount);
+        }
+        return Arrays.asList(queryPackets).subList(0, queryPacketCount);
+    }
+
+    /**
+     * @return true if the search index has been built
+     * @see #search(String, Consumer)
+     */
+    public boolean isSearchIndexed() {
+        return searchIndex != null;
+    }
+
+    /**
+     * Estimates the number of bytes of heap used by this dataset. Each line is held as a String, which its packet
+     * shares, and each packet is made up of a few small objects (the packet itself and its boxed values). Hosts are
+     * shared through the simulator's host dictionary. Packets and lines held off heap aren't counted.
+     *
+     * @return the estimated number of bytes of heap used by this dataset
+     * @see #getOffHeapUsage()
+     */
+    public long getMemoryUsage() {
+        long packetBytes = scratch != null ? 0 : simulator.getValidIPPackets().size() * PACKET_OVERHEAD_BYTES
+                + lineCount * LINE_OVERHEAD_BYTES + 2 * linesLength + QUERY_RESULT_BYTES * queryPackets.length;
+        return packetBytes + 8L * lineOffsets.length + simulator.getSummaryMemoryUsage()
+                + simulator.getDistinctCounts().getMemoryUsage()
+                + simulator.getHostDictionary().getMemoryUsage()
+                + searchIndexBytes
+                + QUERY_RESULT_BYTES * queryCache.getPacketCount()
+                + (hostValues != null ? Arrays.stream(hostValues).mapToLong(HostValues::getMemoryUsage).sum() : 0);
+    }
+
+    /**
+     * @return true if this dataset's packets and lines are held in a scratch file rather than on the heap
+     */
+    public boolean isOffHeap() {
+        return scratch != null;
+    }
+
+    /**
+     * @return the number of bytes of this dataset's scratch file that are mapped into memory, or 0 if it's held on the
+     * heap
+     */
+    public long getOffHeapUsage() {
+        return scratch != null ? scratch.getLength() : 0;
+    }
+
+    /**
+     * Frees the scratch file holding this dataset's packets and lines, once any pending edits have been saved. This
+     * should be called on the Event Dispatch Thread once the dataset is no longer used, and has no effect if the
+     * dataset is held on the heap. A query that's still running on the dataset fails rather than returning results.
+     */
+    public void close() {
+        if (scratch != null && !isClosed) {
+            isClosed = true;
+            writer.execute(scratch::close);
+        }
+    }
+
+    /**
+     * Returns true if the given file is the same size and was last modified at the same time as this dataset's file
+     * was when it was last read or written by this dataset, i.e. this dataset is still an accurate copy of it.
+     *
+     * @param file the file to compare against
+     * @return true if this dataset is up to date with the given file
+     */
+    public boolean isCurrent(File file) {
+        return file.length() == fileSize && file.lastModified() == fileLastModified;
+    }
+
+    /**
+     * Adds a listener to be notified of changes to this dataset.
+     *
+     * @param listener the listener to add
+     */
+    public void addDatasetListener(DatasetListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * @param listener the listener to remove
+     */
+    public void removeDatasetListener(DatasetListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * @return true if this dataset's packets can be edited
+     */
+    public boolean isEditable() {
+        return !isCompressed && !isPcap && followers == 0;
+    }
+
+    /**
+     * @return true if this dataset's file can be followed
+     * @see #startFollowing()
+     */
+    public boolean isFollowable() {
+        return !isCompressed && !isPcap;
+    }
+
+    /**
+     * Writes the given packet's data back to this dataset's file in the background and notifies every listener
+     * except the editor that the packet has changed. This should be called on the Event Dispatch Thread.
+     *
+     * @param packet       the packet that was edited
+     * @param previousSize the packet's ip packet size before the edit, or null if it had none
+     * @param editor       the listener belonging to the view the edit was made in, or null
+     */
+    public void updatePacket(Packet packet, Integer previousSize, DatasetListener editor) {
+        int lineIndex = packet.getLineIndex();
+        String line = packet.getTabDelimitedData();
+        simulator.invalidateSummaries();
+        editedPackets.add(packet);
+
+        pendingWrites.incrementAndGet();
+        writer.execute(() -> {
+            lines.set(lineIndex, line);
+
+            // Only write the file once every queued edit has been applied, so a burst of edits (e.g. a paste into
+            // many cells) is saved with a single write
+            if (pendingWrites.decrementAndGet() == 0) {
+                long startTime = System.nanoTime();
+                try {
+                    Files.write(file.toPath(), lines, StandardCharsets.UTF_8);
+                } catch (IOException e) {
+                    // Failed to write lines
+                    System.out.println(e);
+                }
+                PerformanceMetrics.getInstance().recordLatency(PerformanceMetrics.Operation.SAVE,
+                        System.nanoTime() - startTime);
+                readOffset = file.length();
+                fileSize = readOffset;
+                fileLastModified = file.lastModified();
+                areLineOffsetsCurrent = false;
+            }
+        });
+
+        for (DatasetListener listener : listeners) {
+            if (listener != editor) {
+                listener.packetUpdated(packet, previousSize);
+            }
+        }
+    }
+
+    /**
+     * Writes the lines of the given packets to a new file in the background, in the order they appear in this dataset's
+     * file. Lines of plain text files are copied byte for byte without being decoded, with each run of consecutive
+     * lines copied by a single {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}, so
+     * the copy can be done by the operating system at disk speed. Lines of compressed files and files with saved edits
+     * are written from memory instead, and packets of pcap files are written as tab delimited lines. This should be
+     * called on the Event Dispatch Thread.
+     *
+     * @param packets the packets whose lines should be written
+     * @param output  the file to write the lines to, which must not be this dataset's file
+     * @param onDone  called on the Event Dispatch Thread with the number of lines written, or null if they couldn't be
+     *                written
+     */
+    public void exportLines(List<Packet> packets, File output, Consumer<Long> onDone) {
+        int[] lineIndexes = packets.stream().mapToInt(Packet::getLineIndex).sorted().distinct().toArray();
+        List<Packet> pcapPackets = isPcap ? new ArrayList<>(packets) : null;
+
+        // Lines are only read by the writer thread, which also means the export sees every edit made before it
+        writer.execute(() -> {
+            Long count;
+            try {
+                if (isPcap) {
+                    pcapPackets.sort(Comparator.comparingInt(Packet::getLineIndex));
+                    writeLines(pcapPackets.stream().map(Packet::getTabDelimitedData).iterator(), output);
+                } else if (areLineOffsetsCurrent && file.length() >= readOffset) {
+                    copyLines(lineIndexes, output);
+                } else {
+                    writeLines(Arrays.stream(lineIndexes).mapToObj(lines::get).iterator(), output);
+                }
+                count = (long) lineIndexes.length;
+            } catch (IOException e) {
+                // Failed to read lines or write the export
+                System.out.println(e);
+                count = null;
+            }
+            Long result = count;
+            SwingUtilities.invokeLater(() -> onDone.accept(result));
+        });
+    }
+
+    private void copyLines(int[] lineIndexes, File output) throws IOException {
+        try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(output.toPath(), StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                     StandardOpenOption.TRUNCATE_EXISTING)) {
+            int i = 0;
+            while (i < lineIndexes.length) {
+                int end = i + 1;
+                while (end < lineIndexes.length && lineIndexes[end] == lineIndexes[end - 1] + 1) {
+                    end++;
+                }
+
+                // Each line runs up to the start of the next one, so its terminator is copied along with it
+                int nextLine = lineIndexes[end - 1] + 1;
+                long start = getLineOffset(lineIndexes[i]);
+                long length = (nextLine < lines.size() ? getLineOffset(nextLine) : readOffset) - start;
+                while (length > 0) {
+                    long transferred = in.transferTo(start, length, out);
+                    if (transferred <= 0) {
+                        throw new IOException(file + " was truncated while lines were being copied from it");
+                    }
+                    start += transferred;
+                    length -= transferred;
+                }
+                i = end;
+            }
+        }
+    }
+
+    private static void writeLines(Iterator<String> lines, File output) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(output.toPath(), StandardCharsets.UTF_8)) {
+            while (lines.hasNext()) {
+                writer.write(lines.next());
+                writer.write('\n');
+            }
+        }
+    }
+
+    /**
+     * Starts watching this dataset's file for appended data, which is parsed and added to the dataset as it arrives.
+     * The dataset can't be edited while it's being followed, as saving an edit would overwrite data that hasn't been
+     * read yet. Each call must be matched by a call to {@link #stopFollowing()}. This should be called on the Event
+     * Dispatch Thread, and has no effect if the dataset isn't followable.
+     */
+    public void startFollowing() {
+        if (isFollowable() && followers++ == 0) {
+            tailer = new FileTailer(file, () -> {
+                // Reading is done by the writer thread so that it never overlaps with saving an edit
+                if (isReadPending.compareAndSet(false, true)) {
+                    writer.execute(this::readAppendedLines);
+                }
+            });
+            // Catch up with anything appended since the file was loaded
+            isReadPending.set(true);
+            writer.execute(this::readAppendedLines);
+            for (DatasetListener listener : listeners) {
+                listener.editableChanged(false);
+            }
+        }
+    }
+
+    /**
+     * Stops following this dataset's file. This should be called on the Event Dispatch Thread.
+     *
+     * @see #startFollowing()
+     */
+    public void stopFollowing() {
+        if (followers > 0 && --followers == 0) {
+            tailer.close();
+            tailer = null;
+            for (DatasetListener listener : listeners) {
+                listener.editableChanged(true);
+            }
+        }
+    }
+
+    private void readAppendedLines() {
+        isReadPending.set(false);
+        if (isClosed) {
+            return;
+        }
+
+        long length = file.length();
+        if (length < readOffset) {
+            SwingUtilities.invokeLater(() -> {
+                for (DatasetListener listener : listeners) {
+                    listener.fileReplaced();
+                }
+            });
+            return;
+        } else if (length == readOffset) {
+            return;
+        }
+
+        // Only the appended bytes are read, so the cost of each update is proportional to the amount of new data
+        List<Packet> packets = new ArrayList<>();
+        long appendedLength = 0, startOffset = readOffset;
+        int startLineCount = lines.size();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            channel.position(readOffset);
+            TraceLineReader reader = new TraceLineReader(Channels.newInputStream(channel), readOffset);
+            String line;
+            Packet packet;
+            // Any line without a terminator is still being written, so it's left to be read next time
+            while ((line = reader.readLine()) != null && reader.isLineTerminated()) {
+                packet = simulator.parsePacket(line, lines.size());
+                if (packet != null) {
+                    packets.add(packet);
+                }
+                if (areLineOffsetsCurrent) {
+                    addLineOffset(lines.size(), reader.getLineOffset());
+                }
+                lines.add(line);
+                appendedLength += line.length();
+                readOffset = reader.getOffset();
+            }
+        } catch (IOException | UncheckedIOException e) {
+            // Failed to read file, or to hold it in the scratch file
+            System.out.println(e);
+        }
+
+        lineCount = lines.size();
+        linesLength += appendedLength;
+        fileSize = readOffset;
+        PerformanceMetrics.getInstance().recordRows(lines.size() - startLineCount,
+                lines.size() - startLineCount - packets.size(), readOffset - startOffset);
+        fileLastModified = file.lastModified();
+
+        if (!packets.isEmpty()) {
+            SwingUtilities.invokeLater(() -> appendPackets(packets));
+        }
+    }
+
+    private void appendPackets(List<Packet> parsedPackets) {
+        if (isClosed) {
+            return;
+        }
+        List<Packet> validIPPackets = simulator.getValidIPPackets();
+        int firstIndex = validIPPackets.size();
+        for (Packet packet : parsedPackets) {
+            simulator.addPacket(packet);
+        }
+        // Packets held off heap are copied into the store, so views are only given the stored packets
+        List<Packet> packets = new ArrayList<>(validIPPackets.subList(firstIndex, validIPPackets.size()));
+        queryCache.invalidate(packets);
+
+        // Lists that haven't been built yet will include the new packets when they are
+        if (hasValueLists()) {
+            for (HostValues values : hostValues) {
+                values.add(packets);
+            }
+        }
+
+        for (DatasetListener listener : listeners) {
+            listener.packetsAppended(packets);
+        }
+    }
+
+}
@@ -0,0 +1,41 @@
+import java.util.EventListener;
+import java.util.List;
+
+/**
+ * Receives notifications about changes to a Dataset. All methods are called on the Event Dispatch Thread.
+ */
+public interface DatasetListener extends EventListener {
+
+    /**
+     * Called when a packet in the dataset has been edited.
+     *
+     * @param packet       the packet that was edited
+     * @param previousSize the packet's ip packet size before the edit, or null if it had none
+     */
+    default void packetUpdated(Packet packet, Integer previousSize) {
+    }
+
+    /**
+     * Called when packets have been read from data appended to the dataset's file.
+     *
+     * @param packets the new packets, in the order they appear in the file
+     */
+    default void packetsAppended(List<Packet> packets) {
+    }
+
+    /**
+     * Called when the dataset's packets start or stop being editable.
+     *
+     * @param isEditable true if the dataset's packets can be edited
+     */
+    default void editableChanged(boolean isEditable) {
+    }
+
+    /**
+     * Called when the dataset's file was truncated or replaced while being followed, so the dataset no longer matches
+     * it and the file should be opened again.
+     */
+    default void fileReplaced() {
+    }
+
+}
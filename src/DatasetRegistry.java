@@ -0,0 +1,272 @@
+import javax.swing.*;
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * Loads Datasets and shares them between every PacketPanel that opens the same file, so that each file is only read
+ * and held in memory once.
+ * <p>
+ * Datasets are keyed by the canonical path of their file and are only shared while the file's size and modification
+ * time match those the dataset last saw. Each dataset is reference counted; once no panel is using it the dataset is
+ * kept behind a SoftReference, so reopening the file is instant unless the garbage collector needed the memory.
+ * Datasets held off heap aren't cached, as the garbage collector can't see how much memory they hold, so they're closed
+ * as soon as no panel is using them.
+ * <p>
+ * This class is not thread safe and should only be used from the Event Dispatch Thread.
+ */
+public class DatasetRegistry {
+
+    private final LoadScheduler loadScheduler;
+    private final ExecutorService writer;
+    private final Map<String, Entry> entries = new HashMap<>();
+    // Entries for datasets held off heap that have been replaced while still in use, so they can be closed once
+    // they're released
+    private final Map<Dataset, Entry> retiredEntries = new IdentityHashMap<>();
+
+    /**
+     * Creates a new DatasetRegistry
+     *
+     * @param loadScheduler the scheduler to load files on
+     */
+    public DatasetRegistry(LoadScheduler loadScheduler) {
+        this.loadScheduler = loadScheduler;
+
+        // All edits to all files are written by one thread. It's not a daemon so that pending writes are finished
+        // before the application exits
+        writer = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "trace-writer"));
+    }
+
+    /**
+     * Gets the Dataset for the given file, loading it in the background if it isn't already loaded. Every dataset
+     * delivered must be given back with {@link #release(Dataset)} once it's no longer needed.
+     *
+     * @param file         the file to get the dataset of
+     * @param onLoaded     called on the Event Dispatch Thread with the dataset once it's available
+     * @param onFailed     called on the Event Dispatch Thread with the reason the file couldn't be loaded, instead of
+     *                     onLoaded
+     * @param highPriority true if the file should be loaded before any normal priority loads
+     * @return a Request that can be used to cancel the request or change its priority
+     */
+    public Request acquire(File file, Consumer<Dataset> onLoaded, Consumer<Throwable> onFailed,
+                           boolean highPriority) {
+        String path = getCanonicalPath(file);
+        Entry entry = entries.get(path);
+
+        // Throw away the existing dataset if the file has been changed by something else since it was read
+        if (entry != null && entry.loadTask == null) {
+            Dataset dataset = entry.getDataset();
+            if (dataset == null || !dataset.isCurrent(file)) {
+                entries.remove(path);
+                if (entry.dataset != null && entry.dataset.isOffHeap()) {
+                    retiredEntries.put(entry.dataset, entry);
+                }
+                entry = null;
+            }
+        }
+
+        Request request = new Request(onLoaded, onFailed, highPriority);
+
+        if (entry == null) {
+            Entry newEntry = new Entry(path);
+            entries.put(path, newEntry);
+            newEntry.requests.add(request);
+            newEntry.loadTask = loadScheduler.submit(() -> new Dataset(file, writer), newEntry::loaded,
+                    newEntry::failed, highPriority);
+            entry = newEntry;
+        } else if (entry.loadTask != null) {
+            // Share the load that's already in progress
+            entry.requests.add(request);
+            entry.updatePriority();
+        } else {
+            // Keep the dataset from being collected, then deliver it later rather than immediately so that callers
+            // always receive their dataset the same way
+            Entry loadedEntry = entry;
+            Dataset dataset = loadedEntry.getDataset();
+            loadedEntry.dataset = dataset;
+            loadedEntry.requests.add(request);
+            // Finish the search index if it was stopped when the dataset was last released
+            dataset.startSearchIndex();
+            SwingUtilities.invokeLater(() -> loadedEntry.loaded(dataset));
+        }
+
+        request.entry = entry;
+        return request;
+    }
+
+    /**
+     * Gives back a dataset that was delivered by {@link #acquire(File, Consumer, Consumer, boolean)}.
+     *
+     * @param dataset the dataset that is no longer needed
+     */
+    public void release(Dataset dataset) {
+        String path = getCanonicalPath(dataset.getFile());
+        Entry entry = entries.get(path);
+        if (entry == null || entry.dataset != dataset) {
+            entry = retiredEntries.get(dataset);
+        }
+
+        // If the entry has been replaced then nothing else refers to this dataset and it can simply be collected
+        if (entry != null && entry.dataset == dataset && --entry.refCount == 0) {
+            // A search index that's still being built would keep every packet from being collected
+            dataset.stopSearchIndex();
+            if (dataset.isOffHeap()) {
+                entries.remove(path, entry);
+                retiredEntries.remove(dataset);
+                dataset.close();
+            } else {
+                entry.cachedDataset = new SoftReference<>(dataset);
+            }
+            entry.dataset = null;
+        }
+    }
+
+    /**
+     * Cancels all loads and stops the writer thread once it has finished writing any pending edits.
+     */
+    public void shutdown() {
+        loadScheduler.shutdown();
+        writer.shutdown();
+    }
+
+    private static String getCanonicalPath(File file) {
+        try {
+            return file.getCanonicalPath();
+        } catch (IOException e) {
+            return file.getAbsolutePath();
+        }
+    }
+
+    private class Entry {
+        final String path;
+        final List<Request> requests = new ArrayList<>();
+        LoadScheduler.Task<Dataset> loadTask;
+
+        // The dataset is strongly referenced while it's in use and softly referenced otherwise
+        Dataset dataset;
+        SoftReference<Dataset> cachedDataset;
+        int refCount;
+
+        Entry(String path) {
+            this.path = path;
+        }
+
+        Dataset getDataset() {
+            if (dataset != null) {
+                return dataset;
+            }
+            return cachedDataset != null ? cachedDataset.get() : null;
+        }
+
+        void loaded(Dataset loadedDataset) {
+            loadTask = null;
+
+            List<Request> delivered = new ArrayList<>(requests);
+            requests.clear();
+            refCount += delivered.size();
+            if (refCount > 0) {
+                dataset = loadedDataset;
+                cachedDataset = null;
+            } else {
+                // Every request was cancelled before the dataset could be delivered
+                dataset = null;
+                loadedDataset.stopSearchIndex();
+                if (loadedDataset.isOffHeap()) {
+                    entries.remove(path, this);
+                    loadedDataset.close();
+                } else {
+                    cachedDataset = new SoftReference<>(loadedDataset);
+                }
+            }
+
+            for (Request request : delivered) {
+                request.entry = null;
+                request.onLoaded.accept(loadedDataset);
+            }
+        }
+
+        void failed(Throwable error) {
+            loadTask = null;
+            // Forget the failed load, so that the next request for the file tries to load it again rather than waiting
+            // for this one
+            entries.remove(path, this);
+
+            List<Request> failed = new ArrayList<>(requests);
+            requests.clear();
+            for (Request request : failed) {
+                request.entry = null;
+                request.onFailed.accept(error);
+            }
+        }
+
+        void updatePriority() {
+            boolean highPriority = false;
+            for (Request request : requests) {
+                highPriority |= request.highPriority;
+            }
+            if (loadTask != null) {
+                loadTask.setHighPriority(highPriority);
+            }
+        }
+
+        void cancel(Request request) {
+            requests.remove(request);
+            if (requests.isEmpty() && loadTask != null) {
+                // Nobody is waiting for this file anymore, so stop loading it
+                loadTask.cancel();
+                loadTask = null;
+                entries.remove(path, this);
+            } else {
+                updatePriority();
+            }
+        }
+    }
+
+    /**
+     * A request for a Dataset that hasn't been delivered yet.
+     */
+    public class Request {
+        private final Consumer<Dataset> onLoaded;
+        private final Consumer<Throwable> onFailed;
+        private boolean highPriority;
+        private Entry entry;
+
+        private Request(Consumer<Dataset> onLoaded, Consumer<Throwable> onFailed, boolean highPriority) {
+            this.onLoaded = onLoaded;
+            this.onFailed = onFailed;
+            this.highPriority = highPriority;
+        }
+
+        /**
+         * Changes the priority of this request. This has no effect if the file has already started loading.
+         *
+         * @param highPriority true if the file should be loaded before any normal priority loads
+         */
+        public void setHighPriority(boolean highPriority) {
+            this.highPriority = highPriority;
+            if (entry != null) {
+                entry.updatePriority();
+            }
+        }
+
+        /**
+         * Cancels this request so that its dataset will not be delivered. If no other requests are waiting for the
+         * same file then loading of the file is cancelled.
+         */
+        public void cancel() {
+            if (entry != null) {
+                entry.cancel(this);
+                entry = null;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,234 @@
+import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
+import java.awt.*;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A window showing the application's {@link PerformanceMetrics} and the recent stalls of the user interface seen by
+ * the {@link EdtWatchdog}, refreshed every second while it's open.
+ */
+public class DiagnosticsDialog extends JDialog {
+
+    private static final int REFRESH_MILLIS = 1000;
+
+    private final PerformanceMetrics metrics = PerformanceMetrics.getInstance();
+    private final MetricsTableModel model = new MetricsTableModel();
+    private final StallsTableModel stallsModel = new StallsTableModel();
+    private final JTable stallsTable = new JTable(stallsModel);
+    private final JTextArea stackTraceArea = new JTextArea();
+    private final Timer refreshTimer = new Timer(REFRESH_MILLIS, e -> refresh());
+
+    /**
+     * Creates a new DiagnosticsDialog
+     *
+     * @param owner the window to show this dialog over
+     */
+    public DiagnosticsDialog(Window owner) {
+        super(owner, "Diagnostics");
+
+        JTable table = new JTable(model);
+        table.getColumnModel().getColumn(0).setPreferredWidth(220);
+        table.getColumnModel().getColumn(1).setPreferredWidth(260);
+
+        // Show the stack trace of the selected stall, which can be copied into a bug report
+        stallsTable.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        stallsTable.getColumnModel().getColumn(3).setPreferredWidth(300);
+        stallsTable.getSelectionModel().addListSelectionListener(e -> showSelectedStall());
+        stackTraceArea.setEditable(false);
+        stackTraceArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        JSplitPane stallsPane = new JSplitPane(JSplitPane.VERTICAL_SPLIT, new JScrollPane(stallsTable),
+                new JScrollPane(stackTraceArea));
+        stallsPane.setResizeWeight(0.5);
+
+        JTabbedPane tabbedPane = new JTabbedPane();
+        tabbedPane.addTab("Metrics", new JScrollPane(table));
+        EdtWatchdog watchdog = EdtWatchdog.getInstance();
+        if (watchdog != null) {
+            tabbedPane.addTab("UI stalls", stallsPane);
+            tabbedPane.setToolTipTextAt(1, "Events that took longer than " + watchdog.getThresholdMillis()
+                    + " ms to handle");
+        }
+
+        JButton resetButton = new JButton("Reset");
+        resetButton.addActionListener(e -> {
+            metrics.reset();
+            if (watchdog != null) {
+                watchdog.clear();
+            }
+            refresh();
+        });
+        JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        buttonPanel.add(new JLabel("Also published through JMX as " + PerformanceMetrics.OBJECT_NAME));
+        buttonPanel.add(resetButton);
+
+        add(tabbedPane);
+        add(buttonPanel, BorderLayout.SOUTH);
+
+        refresh();
+        setSize(720, 520);
+        setLocationRelativeTo(owner);
+        refreshTimer.start();
+    }
+
+    @Override
+    public void dispose() {
+        refreshTimer.stop();
+        super.dispose();
+    }
+
+    /**
+     * Reads the metrics again.
+     */
+    public void refresh() {
+        List<String[]> rows = new ArrayList<>();
+        rows.add(row("Files loaded", String.format("%,d", metrics.getFilesLoaded())));
+        rows.add(row("Rows parsed", String.format("%,d", metrics.getRowsParsed())));
+        rows.add(row("Rows rejected", String.format("%,d", metrics.getRowsRejected())));
+        rows.add(row("Bytes read", String.format("%,d", metrics.getBytesRead())));
+        rows.add(row("Heap bytes per packet", String.format("%,.1f", metrics.getHeapBytesPerPacket())));
+        rows.add(row("Heap used", String.format("%,d MB", metrics.getUsedHeapBytes() >> 20)));
+        rows.add(row("UI stalls", String.format("%,d", metrics.getUiStalls())));
+        for (Map.Entry<String, Double> entry : metrics.getPhaseMillis().entrySet()) {
+            rows.add(row(entry.getKey() + " (total)", String.format("%,.1f ms", entry.getValue())));
+        }
+        rows.add(latencyRow("Query latency", metrics.getQueryLatency()));
+        rows.add(latencyRow("Search latency", metrics.getSearchLatency()));
+        rows.add(latencyRow("Save latency", metrics.getSaveLatency()));
+        rows.add(latencyRow("GC pauses", metrics.getGcPauses()));
+        model.setRows(rows);
+
+        EdtWatchdog watchdog = EdtWatchdog.getInstance();
+        if (watchdog != null) {
+            stallsModel.setStalls(watchdog.getStalls());
+        }
+    }
+
+    private void showSelectedStall() {
+        int row = stallsTable.getSelectedRow();
+        if (row < 0) {
+            stackTraceArea.setText("");
+            return;
+        }
+        EdtWatchdog.Stall stall = stallsModel.stalls.get(row);
+        StringBuilder text = new StringBuilder();
+        text.append(stall.getAction()).append(" took ").append(stall.getDurationMillis()).append(" ms\n");
+        StackTraceElement[] stackTrace = stall.getStackTrace();
+        if (stackTrace.length == 0) {
+            text.append("\tThe event finished before its stack could be sampled\n");
+        }
+        for (StackTraceElement element : stackTrace) {
+            text.append("\tat ").append(element).append('\n');
+        }
+        stackTraceArea.setText(text.toString());
+        stackTraceArea.setCaretPosition(0);
+    }
+
+    private static String[] row(String name, String value) {
+        return new String[]{name, value};
+    }
+
+    private static String[] latencyRow(String name, PerformanceMetrics.LatencySummary latency) {
+        if (latency.getCount() == 0) {
+            return row(name, "-");
+        }
+        return row(name, String.format("%,d, p50 %.2f ms, p99 %.2f ms, max %.2f ms", latency.getCount(),
+                latency.getP50Millis(), latency.getP99Millis(), latency.getMaxMillis()));
+    }
+
+    private static class MetricsTableModel extends AbstractTableModel {
+        private List<String[]> rows = new ArrayList<>();
+
+        private void setRows(List<String[]> rows) {
+            // Only the values change between refreshes, so the selection is kept
+            boolean isSameSize = rows.size() == this.rows.size();
+            this.rows = rows;
+            if (isSameSize) {
+                fireTableRowsUpdated(0, rows.size() - 1);
+            } else {
+                fireTableDataChanged();
+            }
+        }
+
+        @Override
+        public int getRowCount() {
+            return rows.size();
+        }
+
+        @Override
+        public int getColumnCount() {
+            return 2;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return column == 0 ? "Metric" : "Value";
+        }
+
+        @Override
+        public Object getValueAt(int rowIndex, int columnIndex) {
+            return rows.get(rowIndex)[columnIndex];
+        }
+    }
+
+    private static class StallsTableModel extends AbstractTableModel {
+        private final SimpleDateFormat timeFormat = new SimpleDateFormat("HH:mm:ss.SSS");
+        private List<EdtWatchdog.Stall> stalls = new ArrayList<>();
+
+        private void setStalls(List<EdtWatchdog.Stall> stalls) {
+            // Replacing the rows clears the selection, so only do it when a stall has been recorded or cleared
+            if (!stalls.equals(this.stalls)) {
+                this.stalls = stalls;
+                fireTableDataChanged();
+            }
+        }
+
+        @Override
+        public int getRowCount() {
+            return stalls.size();
+        }
+
+        @Override
+        public int getColumnCount() {
+            return 4;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            switch (column) {
+                case 0:
+                    return "Time";
+                case 1:
+                    return "Duration (ms)";
+                case 2:
+                    return "Kind";
+                default:
+                    return "Action";
+            }
+        }
+
+        @Override
+        public Class<?> getColumnClass(int columnIndex) {
+            return columnIndex == 1 ? Long.class : String.class;
+        }
+
+        @Override
+        public Object getValueAt(int rowIndex, int columnIndex) {
+            EdtWatchdog.Stall stall = stalls.get(rowIndex);
+            switch (columnIndex) {
+                case 0:
+                    return timeFormat.format(new Date(stall.getTime()));
+                case 1:
+                    return stall.getDurationMillis();
+                case 2:
+                    return stall.isBlocking() ? "Blocked" : "Busy";
+                default:
+                    return stall.getAction();
+            }
+        }
+    }
+
+}
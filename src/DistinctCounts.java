@@ -0,0 +1,156 @@
+import java.util.Arrays;
+
+/**
+ * Estimates of the number of distinct hosts, ports and pairs of them in a trace, over the whole trace and within each
+ * window of time.
+ * <p>
+ * Each estimate is a {@link HyperLogLog}, so the memory used is fixed however many distinct values there are. Time is
+ * split into buckets like a {@link ThroughputSeries}, and the bucket width is doubled (merging neighbouring buckets)
+ * whenever more than {@value #MAX_BUCKETS} buckets would be needed. Packets never need to be removed, as the values
+ * counted can't be edited.
+ */
+public class DistinctCounts {
+
+    // About 0.8% error, using 16 KB per dimension
+    private static final int TOTAL_PRECISION = 14;
+    // About 3.3% error, using 1 KB per dimension and bucket
+    private static final int BUCKET_PRECISION = 10;
+    private static final int MAX_BUCKETS = 256;
+    private static final long INITIAL_BUCKET_WIDTH_NANOS = Timestamps.NANOS_PER_SECOND;
+    private static final TopTalkers.Dimension[] DIMENSIONS = TopTalkers.Dimension.values();
+
+    // Indexed by dimension ordinal
+    private final HyperLogLog[] totals = new HyperLogLog[DIMENSIONS.length];
+
+    // Each bucket's estimates, indexed by bucket and then by dimension ordinal. Buckets with no packets are null.
+    private HyperLogLog[][] buckets = new HyperLogLog[0][];
+    // In nanoseconds, so that packets are put in buckets exactly
+    private long bucketWidthNanos = INITIAL_BUCKET_WIDTH_NANOS;
+    private long firstBucket;
+    private int bucketCount;
+
+    /**
+     * Creates a new DistinctCounts with no packets
+     */
+    public DistinctCounts() {
+        for (int i = 0; i < DIMENSIONS.length; i++) {
+            totals[i] = new HyperLogLog(TOTAL_PRECISION);
+        }
+    }
+
+    /**
+     * Counts the values of a packet with valid ip data.
+     *
+     * @param packet the packet to count
+     */
+    public void add(Packet packet) {
+        boolean hasPorts = Simulator.hasValidPortData(packet);
+        int srcIP = Host.packIP(packet.getSourceHostIP());
+        int destIP = Host.packIP(packet.getDestinationHostIP());
+        int srcPort = hasPorts ? packet.getSourceHostPort() : 0;
+        int destPort = hasPorts ? packet.getDestinationHostPort() : 0;
+        HyperLogLog[] bucket = packet.hasTimeStamp() ? getBucket(packet.getTimeNanos()) : null;
+        for (int i = 0; i < DIMENSIONS.length; i++) {
+            if (hasPorts || !DIMENSIONS[i].isPort()) {
+                long key = DIMENSIONS[i].getKey(srcIP, destIP, srcPort, destPort);
+                totals[i].add(key);
+                if (bucket != null) {
+                    bucket[i].add(key);
+                }
+            }
+        }
+    }
+
+    private HyperLogLog[] getBucket(long timeNanos) {
+        long bucket = Math.floorDiv(timeNanos, bucketWidthNanos);
+        if (bucketCount == 0) {
+            firstBucket = bucket;
+        }
+        while (bucket < firstBucket || bucket >= firstBucket + bucketCount) {
+            long first = Math.min(firstBucket, bucket);
+            long end = Math.max(firstBucket + bucketCount, bucket + 1);
+            if (end - first > MAX_BUCKETS) {
+                doubleBucketWidth();
+                bucket = Math.floorDiv(timeNanos, bucketWidthNanos);
+            } else {
+                HyperLogLog[][] newBuckets = new HyperLogLog[(int) (end - first)][];
+                System.arraycopy(buckets, 0, newBuckets, (int) (firstBucket - first), bucketCount);
+                buckets = newBuckets;
+                firstBucket = first;
+                bucketCount = newBuckets.length;
+            }
+        }
+
+        int index = (int) (bucket - firstBucket);
+        if (buckets[index] == null) {
+            buckets[index] = new HyperLogLog[DIMENSIONS.length];
+            for (int i = 0; i < DIMENSIONS.length; i++) {
+                buckets[index][i] = new HyperLogLog(BUCKET_PRECISION);
+            }
+        }
+        return buckets[index];
+    }
+
+    private void doubleBucketWidth() {
+        long newFirst = Math.floorDiv(firstBucket, 2);
+        long newEnd = Math.floorDiv(firstBucket + bucketCount - 1, 2) + 1;
+        HyperLogLog[][] newBuckets = new HyperLogLog[(int) (newEnd - newFirst)][];
+        for (int i = 0; i < bucketCount; i++) {
+            int index = (int) (Math.floorDiv(firstBucket + i, 2) - newFirst);
+            if (newBuckets[index] == null) {
+                newBuckets[index] = buckets[i];
+            } else if (buckets[i] != null) {
+                for (int j = 0; j < DIMENSIONS.length; j++) {
+                    newBuckets[index][j].merge(buckets[i][j]);
+                }
+            }
+        }
+        buckets = newBuckets;
+        firstBucket = newFirst;
+        bucketCount = newBuckets.length;
+        bucketWidthNanos *= 2;
+    }
+
+    /**
+     * @param dimension the values to count
+     * @return the estimated number of distinct values in the whole trace
+     */
+    public long getEstimate(TopTalkers.Dimension dimension) {
+        return totals[dimension.ordinal()].estimate();
+    }
+
+    /**
+     * Estimates the number of distinct values in the packets within a window of time. As the window is rounded out to
+     * whole buckets, the estimate may include packets from just before or after it.
+     *
+     * @param dimension the values to count
+     * @param startNanos the start of the window in nanoseconds
+     * @param endNanos   the end of the window in nanoseconds
+     * @return the estimated number of distinct values in the window
+     */
+    public long getEstimate(TopTalkers.Dimension dimension, long startNanos, long endNanos) {
+        int first = (int) Math.max(0, Math.floorDiv(startNanos, bucketWidthNanos) - firstBucket);
+        // The window's end is exclusive, so a window ending exactly on a bucket's start doesn't include that bucket
+        int last = (int) Math.min(bucketCount - 1, Math.floorDiv(endNanos - 1, bucketWidthNanos) - firstBucket);
+        HyperLogLog union = new HyperLogLog(BUCKET_PRECISION);
+        for (int i = first; i <= last; i++) {
+            if (buckets[i] != null) {
+                union.merge(buckets[i][dimension.ordinal()]);
+            }
+        }
+        return union.estimate();
+    }
+
+    /**
+     * @return an estimate of the memory used in bytes, which is at most a fixed amount
+     */
+    public long getMemoryUsage() {
+        long bytes = 0;
+        for (HyperLogLog total : totals) {
+            bytes += total.getMemoryUsage();
+        }
+        long bucketBytes = DIMENSIONS.length * (1L << BUCKET_PRECISION);
+        return bytes + Arrays.stream(buckets).filter(bucket -> bucket != null).count() * bucketBytes;
+    }
+
+}
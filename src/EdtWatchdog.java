@@ -0,0 +1,274 @@
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.InvocationEvent;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Watches the Event Dispatch Thread for events that take too long to dispatch, which freeze the user interface, and
+ * keeps the most recent of them so that they can be looked at (and reported) from inside the application.
+ * <p>
+ * The watchdog replaces the system event queue, timing every event it dispatches. A background thread samples the
+ * stack of the Event Dispatch Thread once an event has run for longer than the threshold, so a stall is recorded with
+ * what the thread was doing at the time, and whether it was mostly blocked (e.g. on I/O or a lock) rather than busy.
+ */
+public class EdtWatchdog extends EventQueue {
+
+    /**
+     * System property used to configure how long an event may take to dispatch before it's recorded as a stall
+     */
+    public static final String STALL_MILLIS_PROPERTY = "packetbrowser.stallMillis";
+    /**
+     * System property used to also print each stall to stdout as it's recorded, rather than only keeping it for the
+     * diagnostics dialog
+     */
+    public static final String LOG_STALLS_PROPERTY = "packetbrowser.logStalls";
+    private static final int DEFAULT_STALL_MILLIS = 200;
+    private static final boolean LOG_STALLS = Boolean.getBoolean(LOG_STALLS_PROPERTY);
+    private static final int CAPACITY = 100;
+
+    private static volatile EdtWatchdog instance;
+
+    private final long thresholdNanos;
+    private final Deque<Stall> stalls = new ArrayDeque<>(CAPACITY);
+    // The innermost event being dispatched, or null between events. Only the Event Dispatch Thread changes it.
+    private volatile Dispatch current;
+
+    private EdtWatchdog(long thresholdMillis) {
+        thresholdNanos = thresholdMillis * 1_000_000;
+    }
+
+    /**
+     * Starts watching the Event Dispatch Thread, recording events that take longer than the number of milliseconds
+     * given by the {@value #STALL_MILLIS_PROPERTY} system property, defaulting to {@value #DEFAULT_STALL_MILLIS}. Does
+     * nothing if the watchdog has already been installed.
+     */
+    public static synchronized void install() {
+        if (instance != null) {
+            return;
+        }
+        long thresholdMillis = Math.max(1, Integer.getInteger(STALL_MILLIS_PROPERTY, DEFAULT_STALL_MILLIS));
+        instance = new EdtWatchdog(thresholdMillis);
+        Toolkit.getDefaultToolkit().getSystemEventQueue().push(instance);
+
+        // Sample a few times per threshold so that stacks are taken soon after an event becomes a stall
+        Thread sampler = new Thread(() -> instance.sample(Math.max(10, thresholdMillis / 4)), "edt-watchdog");
+        sampler.setDaemon(true);
+        sampler.start();
+    }
+
+    /**
+     * @return the installed watchdog, or null if the Event Dispatch Thread isn't being watched
+     */
+    public static EdtWatchdog getInstance() {
+        return instance;
+    }
+
+    /**
+     * @return how long an event may take to dispatch before it's recorded as a stall, in milliseconds
+     */
+    public long getThresholdMillis() {
+        return thresholdNanos / 1_000_000;
+    }
+
+    /**
+     * @return the most recent stalls, newest first
+     */
+    public List<Stall> getStalls() {
+        synchronized (stalls) {
+            return new ArrayList<>(stalls);
+        }
+    }
+
+    /**
+     * Forgets every stall recorded so far.
+     */
+    public void clear() {
+        synchronized (stalls) {
+            stalls.clear();
+        }
+    }
+
+    @Override
+    protected void dispatchEvent(AWTEvent event) {
+        Dispatch outer = current;
+        Dispatch dispatch = new Dispatch(event);
+        if (outer != null) {
+            // A modal dialog or similar is pumping events from inside another event, which isn't a stall
+            outer.isNested = true;
+        }
+        current = dispatch;
+        try {
+            super.dispatchEvent(event);
+        } finally {
+            current = outer;
+            long duration = System.nanoTime() - dispatch.startTime;
+            if (duration > thresholdNanos && !dispatch.isNested) {
+                record(new Stall(dispatch, duration));
+            }
+        }
+    }
+
+    private void record(Stall stall) {
+        synchronized (stalls) {
+            if (stalls.size() == CAPACITY) {
+                stalls.removeLast();
+            }
+            stalls.addFirst(stall);
+        }
+        PerformanceMetrics.getInstance().recordStall();
+        if (LOG_STALLS) {
+            System.out.println("The user interface stalled for " + stall.getDurationMillis() + " ms handling "
+                    + stall.getAction());
+        }
+    }
+
+    private void sample(long intervalMillis) {
+        while (true) {
+            try {
+                Thread.sleep(intervalMillis);
+            } catch (InterruptedException e) {
+                return;
+            }
+            Dispatch dispatch = current;
+            if (dispatch == null || dispatch.isNested || System.nanoTime() - dispatch.startTime <= thresholdNanos) {
+                continue;
+            }
+            // The thread may have moved on to another event since it was read, in which case the sample is wasted
+            Thread.State state = dispatch.thread.getState();
+            StackTraceElement[] stack = dispatch.thread.getStackTrace();
+            if (current != dispatch) {
+                continue;
+            }
+            if (dispatch.stackTrace == null) {
+                dispatch.stackTrace = stack;
+            }
+            dispatch.samples++;
+            if (isBlocking(state, stack)) {
+                dispatch.blockingSamples++;
+            }
+        }
+    }
+
+    private static boolean isBlocking(Thread.State state, StackTraceElement[] stack) {
+        if (state != Thread.State.RUNNABLE) {
+            return true;
+        }
+        // Threads doing I/O are runnable as far as the JVM is concerned, so look at what they're running instead
+        if (stack.length == 0) {
+            return false;
+        }
+        String className = stack[0].getClassName();
+        return className.startsWith("java.io.") || className.startsWith("java.nio.")
+                || className.startsWith("sun.nio.") || className.startsWith("java.net.")
+                || className.startsWith("sun.net.");
+    }
+
+    /**
+     * Describes the user action (or other source) of an event, e.g. a mouse release on a menu item.
+     */
+    private static String describe(AWTEvent event, StackTraceElement[] stack) {
+        String id = event.paramString();
+        int comma = id.indexOf(',');
+        if (comma >= 0) {
+            id = id.substring(0, comma);
+        }
+        Object source = event.getSource();
+        if (event instanceof InvocationEvent) {
+            // Runnables passed to invokeLater and Swing timers are named by the frame the invocation called
+            for (int i = stack.length - 1; i > 0; i--) {
+                if (stack[i].getClassName().equals(InvocationEvent.class.getName())
+                        && stack[i].getMethodName().equals("dispatch")) {
+                    // Skip the generated classes of lambdas to get to the methods holding their code
+                    int frame = i - 1;
+                    while (frame > 0 && stack[frame].getClassName().contains("$$Lambda")) {
+                        frame--;
+                    }
+                    return "Invocation of " + stack[frame].getClassName() + "." + stack[frame].getMethodName();
+                }
+            }
+            return "Invocation from " + (source != null ? source.getClass().getSimpleName() : "unknown source");
+        }
+        String sourceName = source != null ? source.getClass().getSimpleName() : "unknown source";
+        if (source instanceof AbstractButton && ((AbstractButton) source).getText() != null) {
+            sourceName += " \"" + ((AbstractButton) source).getText() + "\"";
+        } else if (source instanceof Component && ((Component) source).getName() != null) {
+            sourceName += " \"" + ((Component) source).getName() + "\"";
+        }
+        return id + " on " + sourceName;
+    }
+
+    /**
+     * An event being dispatched, with what the sampler has seen of it.
+     */
+    private static class Dispatch {
+        private final AWTEvent event;
+        private final Thread thread = Thread.currentThread();
+        private final long startTime = System.nanoTime();
+        private final long startTimeMillis = System.currentTimeMillis();
+        private volatile boolean isNested;
+        // Only written by the sampler, and only read by the Event Dispatch Thread once the event has been dispatched
+        private volatile StackTraceElement[] stackTrace;
+        private volatile int samples, blockingSamples;
+
+        private Dispatch(AWTEvent event) {
+            this.event = event;
+        }
+    }
+
+    /**
+     * An event that took longer than the threshold to dispatch.
+     */
+    public static class Stall {
+        private final long time;
+        private final long durationMillis;
+        private final String action;
+        private final StackTraceElement[] stackTrace;
+        private final boolean isBlocking;
+
+        private Stall(Dispatch dispatch, long durationNanos) {
+            time = dispatch.startTimeMillis;
+            durationMillis = durationNanos / 1_000_000;
+            stackTrace = dispatch.stackTrace != null ? dispatch.stackTrace : new StackTraceElement[0];
+            action = describe(dispatch.event, stackTrace);
+            isBlocking = dispatch.samples > 0 && dispatch.blockingSamples * 2 >= dispatch.samples;
+        }
+
+        /**
+         * @return when the event started being dispatched, in milliseconds since the epoch
+         */
+        public long getTime() {
+            return time;
+        }
+
+        public long getDurationMillis() {
+            return durationMillis;
+        }
+
+        /**
+         * @return a description of the event and the component it was for
+         */
+        public String getAction() {
+            return action;
+        }
+
+        /**
+         * @return the stack of the Event Dispatch Thread soon after the event became a stall, or an empty array if the
+         * event finished before it could be sampled
+         */
+        public StackTraceElement[] getStackTrace() {
+            return stackTrace.clone();
+        }
+
+        /**
+         * @return true if the Event Dispatch Thread spent most of the stall blocked, e.g. on I/O or a lock, rather than
+         * busy computing
+         */
+        public boolean isBlocking() {
+            return isBlocking;
+        }
+    }
+
+}
@@ -0,0 +1,94 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches a file and calls a callback whenever it changes.
+ * <p>
+ * Changes are detected with a WatchService on the file's directory where the platform supports one, but as watch
+ * events aren't delivered for every file system (e.g. network shares), the file's size and modification time are also
+ * polled at a fixed interval.
+ */
+public class FileTailer implements Closeable {
+
+    private static final long POLL_INTERVAL_MS = 1000;
+
+    private final File file;
+    private final Runnable onChange;
+    private final Thread thread;
+    private WatchService watchService;
+    private long lastLength, lastModified;
+
+    /**
+     * Creates a new FileTailer and starts watching the given file
+     *
+     * @param file     the file to watch
+     * @param onChange called on a background thread whenever the file changes
+     */
+    public FileTailer(File file, Runnable onChange) {
+        this.file = file;
+        this.onChange = onChange;
+        lastLength = file.length();
+        lastModified = file.lastModified();
+
+        try {
+            Path directory = file.getAbsoluteFile().getParentFile().toPath();
+            watchService = directory.getFileSystem().newWatchService();
+            directory.register(watchService, StandardWatchEventKinds.ENTRY_MODIFY,
+                    StandardWatchEventKinds.ENTRY_CREATE);
+        } catch (IOException | UnsupportedOperationException e) {
+            // Fall back to polling alone
+            watchService = null;
+        }
+
+        thread = new Thread(this::watch, "tail-" + file.getName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void watch() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                if (watchService != null) {
+                    // Wake up as soon as anything in the directory changes, or poll once the interval has passed
+                    WatchKey key = watchService.poll(POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                    if (key != null) {
+                        key.pollEvents();
+                        key.reset();
+                    }
+                } else {
+                    Thread.sleep(POLL_INTERVAL_MS);
+                }
+
+                // Events are for the whole directory, so only report changes to the file itself
+                long length = file.length();
+                long modified = file.lastModified();
+                if (length != lastLength || modified != lastModified) {
+                    lastLength = length;
+                    lastModified = modified;
+                    onChange.run();
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Stopped watching
+        }
+    }
+
+    /**
+     * Stops watching the file.
+     */
+    @Override
+    public void close() {
+        thread.interrupt();
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                System.out.println(e);
+            }
+        }
+    }
+
+}
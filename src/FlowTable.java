@@ -0,0 +1,231 @@
+import java.util.Arrays;
+
+/**
+ * A summary of every flow in a trace, where a flow is all of the packets sent between the same source ip and port and
+ * destination ip and port.
+ * <p>
+ * Flows are found with an open addressing hash table of primitive arrays keyed on the packed ips and ports, so adding a
+ * packet never allocates unless the table has to grow. Each flow's totals are stored in parallel arrays indexed by the
+ * order flows were first seen in.
+ */
+public class FlowTable {
+
+    private static final int INITIAL_CAPACITY = 64;
+    // Ports are stored as -1 when a packet has none
+    private static final int NO_PORT = -1;
+
+    // Each slot holds a flow's index plus one, or 0 if it's empty. The table is kept at most half full.
+    private int[] slots = new int[INITIAL_CAPACITY * 2];
+    private int size;
+
+    private int[] srcIPs = new int[INITIAL_CAPACITY];
+    private int[] destIPs = new int[INITIAL_CAPACITY];
+    private int[] srcPorts = new int[INITIAL_CAPACITY];
+    private int[] destPorts = new int[INITIAL_CAPACITY];
+    private long[] packetCounts = new long[INITIAL_CAPACITY];
+    private long[] byteCounts = new long[INITIAL_CAPACITY];
+    // Times are kept in nanoseconds, as packets hold them, or are Timestamps.INVALID if no packet had one
+    private long[] firstTimes = new long[INITIAL_CAPACITY];
+    private long[] lastTimes = new long[INITIAL_CAPACITY];
+
+    /**
+     * Adds a packet with valid ip data to the totals of its flow.
+     *
+     * @param packet the packet to add
+     */
+    public void add(Packet packet) {
+        int srcIP = Host.packIP(packet.getSourceHostIP());
+        int destIP = Host.packIP(packet.getDestinationHostIP());
+        int srcPort = packet.getSourceHostPort() != null ? packet.getSourceHostPort() : NO_PORT;
+        int destPort = packet.getDestinationHostPort() != null ? packet.getDestinationHostPort() : NO_PORT;
+
+        int mask = slots.length - 1;
+        int slot = hash(srcIP, destIP, srcPort, destPort) & mask;
+        int flow;
+        while (true) {
+            flow = slots[slot] - 1;
+            if (flow < 0) {
+                flow = addFlow(slot, srcIP, destIP, srcPort, destPort);
+                break;
+            }
+            if (srcIPs[flow] == srcIP && destIPs[flow] == destIP && srcPorts[flow] == srcPort
+                    && destPorts[flow] == destPort) {
+                break;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        packetCounts[flow]++;
+        if (packet.getIpPacketSize() != null) {
+            byteCounts[flow] += packet.getIpPacketSize();
+        }
+        if (packet.hasTimeStamp()) {
+            long timeNanos = packet.getTimeNanos();
+            if (firstTimes[flow] == Timestamps.INVALID || timeNanos < firstTimes[flow]) {
+                firstTimes[flow] = timeNanos;
+            }
+            if (lastTimes[flow] == Timestamps.INVALID || timeNanos > lastTimes[flow]) {
+                lastTimes[flow] = timeNanos;
+            }
+        }
+    }
+
+    private int addFlow(int slot, int srcIP, int destIP, int srcPort, int destPort) {
+        int flow = size++;
+        if (flow == srcIPs.length) {
+            int capacity = srcIPs.length * 2;
+            srcIPs = Arrays.copyOf(srcIPs, capacity);
+            destIPs = Arrays.copyOf(destIPs, capacity);
+            srcPorts = Arrays.copyOf(srcPorts, capacity);
+            destPorts = Arrays.copyOf(destPorts, capacity);
+            packetCounts = Arrays.copyOf(packetCounts, capacity);
+            byteCounts = Arrays.copyOf(byteCounts, capacity);
+            firstTimes = Arrays.copyOf(firstTimes, capacity);
+            lastTimes = Arrays.copyOf(lastTimes, capacity);
+        }
+        srcIPs[flow] = srcIP;
+        destIPs[flow] = destIP;
+        srcPorts[flow] = srcPort;
+        destPorts[flow] = destPort;
+        packetCounts[flow] = 0;
+        byteCounts[flow] = 0;
+        firstTimes[flow] = Timestamps.INVALID;
+        lastTimes[flow] = Timestamps.INVALID;
+        slots[slot] = flow + 1;
+
+        if (size * 2 > slots.length) {
+            rehash(slots.length * 2);
+        }
+        return flow;
+    }
+
+    private void rehash(int capacity) {
+        slots = new int[capacity];
+        int mask = capacity - 1;
+        for (int flow = 0; flow < size; flow++) {
+            int slot = hash(srcIPs[flow], destIPs[flow], srcPorts[flow], destPorts[flow]) & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = flow + 1;
+        }
+    }
+
+    private static int hash(int srcIP, int destIP, int srcPort, int destPort) {
+        // Mix all of the bits together, as consecutive ips and ports would otherwise fill neighbouring slots
+        long h = ((long) srcIP << 32 | (destIP & 0xFFFFFFFFL)) * 0x9E3779B97F4A7C15L;
+        h ^= ((long) srcPort << 32 | (destPort & 0xFFFFFFFFL)) * 0xC2B2AE3D27D4EB4FL;
+        h ^= h >>> 29;
+        h *= 0x94D049BB133111EBL;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * Removes every flow, keeping the table's capacity.
+     */
+    public void clear() {
+        Arrays.fill(slots, 0);
+        size = 0;
+    }
+
+    /**
+     * @return the number of flows
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param flow the index of a flow, from 0 to {@link #size()} - 1
+     * @return the flow's source ip
+     */
+    public String getSourceHostIP(int flow) {
+        return Host.formatIP(srcIPs[flow]);
+    }
+
+    /**
+     * @param flow the index of a flow
+     * @return the flow's source port, or null if its packets have none
+     */
+    public Integer getSourceHostPort(int flow) {
+        return srcPorts[flow] != NO_PORT ? srcPorts[flow] : null;
+    }
+
+    /**
+     * @param flow the index of a flow
+     * @return the flow's destination ip
+     */
+    public String getDestinationHostIP(int flow) {
+        return Host.formatIP(destIPs[flow]);
+    }
+
+    /**
+     * @param flow the index of a flow
+     * @return the flow's destination port, or null if its packets have none
+     */
+    public Integer getDestinationHostPort(int flow) {
+        return destPorts[flow] != NO_PORT ? destPorts[flow] : null;
+    }
+
+    /**
+     * @param flow the index of a flow
+     * @return the number of packets in the flow
+     */
+    public long getPacketCount(int flow) {
+        return packetCounts[flow];
+    }
+
+    /**
+     * @param flow the index of a flow
+     * @return the total size of the flow's packets in bytes
+     */
+    public long getByteCount(int flow) {
+        return byteCounts[flow];
+    }
+
+    /**
+     * @param flow the index of a flow
+     * @return the earliest timestamp of the flow's packets, or NaN if none had a timestamp
+     */
+    public double getFirstTimestamp(int flow) {
+        return toSeconds(firstTimes[flow]);
+    }
+
+    /**
+     * @param flow the index of a flow
+     * @return the latest timestamp of the flow's packets, or NaN if none had a timestamp
+     */
+    public double getLastTimestamp(int flow) {
+        return toSeconds(lastTimes[flow]);
+    }
+
+    /**
+     * @param flow the index of a flow
+     * @return the time in seconds between the flow's first and last packets, or NaN if none had a timestamp
+     */
+    public double getDuration(int flow) {
+        // Subtracting the nanoseconds keeps short durations exact, however large the timestamps are
+        return firstTimes[flow] != Timestamps.INVALID ? toSeconds(lastTimes[flow] - firstTimes[flow]) : Double.NaN;
+    }
+
+    /**
+     * @param flow the index of a flow
+     * @return the flow's mean rate in bytes per second, or NaN if all of its packets had the same timestamp
+     */
+    public double getMeanRate(int flow) {
+        double duration = getDuration(flow);
+        return duration > 0 ? byteCounts[flow] / duration : Double.NaN;
+    }
+
+    private static double toSeconds(long timeNanos) {
+        return timeNanos != Timestamps.INVALID ? Timestamps.toSeconds(timeNanos) : Double.NaN;
+    }
+
+    /**
+     * @return an estimate of the memory used by this table in bytes
+     */
+    public long getMemoryUsage() {
+        return 4L * slots.length + (4 * 4 + 8 * 4) * (long) srcIPs.length;
+    }
+
+}
@@ -0,0 +1,137 @@
+import javax.swing.table.AbstractTableModel;
+import java.util.Objects;
+
+/**
+ * A read only table model with a row for each flow in a {@link FlowTable}.
+ */
+public class FlowTableModel extends AbstractTableModel {
+
+    public static final int SRC_COL = 0;
+    public static final int SRC_PORT_COL = 1;
+    public static final int DEST_COL = 2;
+    public static final int DEST_PORT_COL = 3;
+    public static final int PACKETS_COL = 4;
+    public static final int BYTES_COL = 5;
+    public static final int FIRST_COL = 6;
+    public static final int LAST_COL = 7;
+    public static final int DURATION_COL = 8;
+    public static final int RATE_COL = 9;
+
+    private static final String[] COLUMN_NAMES = {"Source IP", "Source Port", "Destination IP", "Destination Port",
+            "Packets", "Bytes", "First Timestamp", "Last Timestamp", "Duration", "Mean Rate (B/s)"};
+    private static final Class<?>[] COLUMN_CLASSES = {String.class, Integer.class, String.class, Integer.class,
+            Long.class, Long.class, Double.class, Double.class, Double.class, Double.class};
+
+    private final Simulator simulator;
+    private FlowTable flowTable;
+    private int rowCount;
+
+    /**
+     * Creates a new FlowTableModel, which is empty until it's first refreshed so that the simulator's flow table isn't
+     * rebuilt unless the flows are shown
+     *
+     * @param simulator the simulator whose flows should be displayed, or null for an empty table
+     */
+    public FlowTableModel(Simulator simulator) {
+        this.simulator = simulator;
+    }
+
+    /**
+     * Redraws every row and adds rows for any flows that were added to the simulator since this was last called. This
+     * rebuilds the simulator's flow table if it's out of date.
+     */
+    public void refresh() {
+        if (simulator == null) {
+            return;
+        }
+
+        // Updating the existing rows rather than the whole table keeps the user's selection
+        int previousRowCount = rowCount;
+        flowTable = simulator.getFlowTable();
+        rowCount = flowTable.size();
+        if (previousRowCount > 0) {
+            fireTableRowsUpdated(0, Math.min(previousRowCount, rowCount) - 1);
+        }
+        if (rowCount > previousRowCount) {
+            fireTableRowsInserted(previousRowCount, rowCount - 1);
+        } else if (rowCount < previousRowCount) {
+            fireTableRowsDeleted(rowCount, previousRowCount - 1);
+        }
+    }
+
+    /**
+     * @param rowIndex the model index of a row
+     * @return the query for the packets belonging to the flow in the given row, e.g. to run with
+     * {@link Dataset#query(PacketQuery, java.util.function.Consumer)}
+     */
+    public PacketQuery getQuery(int rowIndex) {
+        return PacketQuery.forFlow(flowTable.getSourceHostIP(rowIndex), flowTable.getSourceHostPort(rowIndex),
+                flowTable.getDestinationHostIP(rowIndex), flowTable.getDestinationHostPort(rowIndex));
+    }
+
+    /**
+     * @param rowIndex the model index of a row
+     * @param packet   the packet to check
+     * @return true if the packet belongs to the flow in the given row
+     */
+    public boolean isInFlow(int rowIndex, Packet packet) {
+        return packet.getSourceHostIP().equals(flowTable.getSourceHostIP(rowIndex))
+                && packet.getDestinationHostIP().equals(flowTable.getDestinationHostIP(rowIndex))
+                && Objects.equals(packet.getSourceHostPort(), flowTable.getSourceHostPort(rowIndex))
+                && Objects.equals(packet.getDestinationHostPort(), flowTable.getDestinationHostPort(rowIndex));
+    }
+
+    @Override
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMN_NAMES.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMN_NAMES[column];
+    }
+
+    @Override
+    public Class<?> getColumnClass(int columnIndex) {
+        return COLUMN_CLASSES[columnIndex];
+    }
+
+    @Override
+    public Object getValueAt(int rowIndex, int columnIndex) {
+        switch (columnIndex) {
+            case SRC_COL:
+                return flowTable.getSourceHostIP(rowIndex);
+            case SRC_PORT_COL:
+                return flowTable.getSourceHostPort(rowIndex);
+            case DEST_COL:
+                return flowTable.getDestinationHostIP(rowIndex);
+            case DEST_PORT_COL:
+                return flowTable.getDestinationHostPort(rowIndex);
+            case PACKETS_COL:
+                return flowTable.getPacketCount(rowIndex);
+            case BYTES_COL:
+                return flowTable.getByteCount(rowIndex);
+            case FIRST_COL:
+                return toCellValue(flowTable.getFirstTimestamp(rowIndex));
+            case LAST_COL:
+                return toCellValue(flowTable.getLastTimestamp(rowIndex));
+            case DURATION_COL:
+                return toCellValue(flowTable.getDuration(rowIndex));
+            case RATE_COL:
+                return toCellValue(flowTable.getMeanRate(rowIndex));
+            default:
+                return null;
+        }
+    }
+
+    private static Double toCellValue(double value) {
+        // Leave cells empty for flows with no timestamps or a single instant, rather than showing NaN
+        return Double.isNaN(value) ? null : value;
+    }
+
+}
@@ -31,7 +31,8 @@ public class Host implements Comparable<Host> {
     }
 
     /**
-     * Sets this host's ip to the given ip
+     * Sets this host's ip to the given ip. Hosts from a {@link HostDictionary} are shared by many packets, so they
+     * should be replaced rather than changed.
      *
      * @param ip the hosts new ip address
      */
@@ -47,7 +48,8 @@ public class Host implements Comparable<Host> {
     }
 
     /**
-     * Sets this host's port to the given port number
+     * Sets this host's port to the given port number. Hosts from a {@link HostDictionary} are shared by many packets,
+     * so they should be replaced rather than changed.
      *
      * @param port the new port number
      */
@@ -55,6 +57,66 @@ public class Host implements Comparable<Host> {
         this.port = port;
     }
 
+    /**
+     * Packs a dotted IPv4 address into an int, so that it can be stored and compared without a String
+     *
+     * @param ip a valid IPv4 address, e.g. "192.168.0.1"
+     * @return the address's four bytes in network order, e.g. 0xC0A80001
+     */
+    public static int packIP(String ip) {
+        int packed = 0, part = 0;
+        for (int i = 0; i < ip.length(); i++) {
+            char c = ip.charAt(i);
+            if (c == '.') {
+                packed = (packed << 8) | part;
+                part = 0;
+            } else {
+                part = part * 10 + (c - '0');
+            }
+        }
+        return (packed << 8) | part;
+    }
+
+    /**
+     * Checks that an ip is a dotted IPv4 address of four numbers from 0 to 255, written without leading zeros
+     *
+     * @param ip the ip to check
+     * @return true if the ip is a valid IPv4 address, e.g. "192.168.0.1"
+     */
+    public static boolean isValidIP(String ip) {
+        // Read by hand rather than matched with a regex, as every packet's ips are checked while a trace loads
+        int parts = 0, part = 0, digits = 0;
+        for (int i = 0; i <= ip.length(); i++) {
+            char c = i < ip.length() ? ip.charAt(i) : '.';
+            if (c == '.') {
+                if (digits == 0 || ++parts > 4) {
+                    return false;
+                }
+                part = 0;
+                digits = 0;
+            } else if (c >= '0' && c <= '9') {
+                if (digits == 1 && part == 0) {
+                    return false;
+                }
+                part = part * 10 + (c - '0');
+                if (++digits > 3 || part > 255) {
+                    return false;
+                }
+            } else {
+                return false;
+            }
+        }
+        return parts == 4;
+    }
+
+    /**
+     * @param ip an IPv4 address packed by {@link #packIP(String)}
+     * @return the address in dotted form
+     */
+    public static String formatIP(int ip) {
+        return (ip >>> 24) + "." + ((ip >>> 16) & 0xFF) + "." + ((ip >>> 8) & 0xFF) + "." + (ip & 0xFF);
+    }
+
     @Override
     public String toString() {
         return ip;
@@ -0,0 +1,113 @@
+import javax.swing.*;
+import javax.swing.plaf.basic.ComboPopup;
+import java.awt.*;
+
+/**
+ * A combo box for choosing a host's ip or port from a {@link HostComboBoxModel}, however many there are. Each value is
+ * shown with its number of packets, and typing selects the first value that starts with (or else contains) what was
+ * typed.
+ * <p>
+ * JComboBox finds, measures and matches typed keys against items by going through every one of them, which takes
+ * seconds for hundreds of thousands of hosts. This combo box asks its model instead, and gives itself and its popup
+ * a fixed cell size so that only the visible rows are ever rendered.
+ */
+public class HostComboBox extends JComboBox<Object> {
+
+    // Wide enough for any ip and a large packet count
+    private static final String PROTOTYPE_VALUE = "255.255.255.255 (99,999,999)";
+    // Keys typed within this long of each other are treated as one piece of text
+    private static final long TYPE_AHEAD_MILLIS = 1000;
+
+    /**
+     * Creates a new HostComboBox with an empty list of ips
+     */
+    public HostComboBox() {
+        super(new HostComboBoxModel(false));
+        setPrototypeDisplayValue(PROTOTYPE_VALUE);
+        setRenderer(new CountRenderer());
+    }
+
+    // ComboPopup returns a raw JList
+    @Override
+    @SuppressWarnings("unchecked")
+    public void updateUI() {
+        super.updateUI();
+        // The look and feel replaces the key selection manager and popup, so the type ahead and fixed cell size are
+        // set up again whenever it changes
+        setKeySelectionManager(new TypeAheadKeySelectionManager());
+        Object popup = getUI().getAccessibleChild(this, 0);
+        if (popup instanceof ComboPopup) {
+            ((ComboPopup) popup).getList().setPrototypeCellValue(PROTOTYPE_VALUE);
+        }
+    }
+
+    @Override
+    public void setSelectedItem(Object item) {
+        if (!(getModel() instanceof HostComboBoxModel) || item == null) {
+            super.setSelectedItem(item);
+            return;
+        }
+        // As with any combo box that isn't editable, values that aren't listed can't be selected
+        HostComboBoxModel model = (HostComboBoxModel) getModel();
+        if (model.indexOf(item) < 0) {
+            return;
+        }
+        if (item.equals(model.getSelectedItem())) {
+            fireActionEvent();
+        } else {
+            // The combo box fires its item and action events when the model reports the change
+            model.setSelectedItem(item);
+        }
+    }
+
+    @Override
+    public int getSelectedIndex() {
+        if (getModel() instanceof HostComboBoxModel) {
+            HostComboBoxModel model = (HostComboBoxModel) getModel();
+            return model.getSelectedItem() != null ? model.indexOf(model.getSelectedItem()) : -1;
+        }
+        return super.getSelectedIndex();
+    }
+
+    /**
+     * Shows each value with its number of packets, e.g. "10.0.0.1 (1,234)".
+     */
+    private static class CountRenderer extends DefaultListCellRenderer {
+        @Override
+        public Component getListCellRendererComponent(JList<?> list, Object value, int index, boolean isSelected,
+                                                      boolean cellHasFocus) {
+            Object text = value;
+            if (value != null && value != PROTOTYPE_VALUE && list.getModel() instanceof HostComboBoxModel) {
+                // The displayed selection has an index of -1, so it's looked up by value
+                HostComboBoxModel model = (HostComboBoxModel) list.getModel();
+                int modelIndex = index >= 0 ? index : model.indexOf(value);
+                if (modelIndex >= 0) {
+                    text = String.format("%s (%,d)", value, model.getCountAt(modelIndex));
+                }
+            }
+            return super.getListCellRendererComponent(list, text, index, isSelected, cellHasFocus);
+        }
+    }
+
+    private static class TypeAheadKeySelectionManager implements KeySelectionManager {
+        private final StringBuilder typed = new StringBuilder();
+        private long lastKeyTime;
+
+        // The interface takes a raw ComboBoxModel in Java 8
+        @Override
+        @SuppressWarnings("rawtypes")
+        public int selectionForKey(char key, ComboBoxModel model) {
+            if (!(model instanceof HostComboBoxModel)) {
+                return -1;
+            }
+            long time = System.currentTimeMillis();
+            if (time - lastKeyTime > TYPE_AHEAD_MILLIS) {
+                typed.setLength(0);
+            }
+            lastKeyTime = time;
+            typed.append(key);
+            return ((HostComboBoxModel) model).find(typed.toString());
+        }
+    }
+
+}
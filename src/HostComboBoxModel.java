@@ -0,0 +1,172 @@
+import javax.swing.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A combo box model listing the {@link HostValues} of a trace without creating an element for each of them. Elements
+ * are only formatted as they're displayed, and are found by binary search rather than by comparing every element.
+ * <p>
+ * Values are listed in address order, optionally after a short list of values to show first (e.g. the busiest
+ * hosts). The values can be shared by several models and added to, after which each model must be told with
+ * {@link #valuesChanged()}.
+ */
+public class HostComboBoxModel extends AbstractListModel<Object> implements ComboBoxModel<Object> {
+
+    private final HostValues values;
+    // The values listed before the rest, and their indexes in address order (both in the order they're listed). The
+    // indexes are also kept in ascending order, to skip them when listing the rest.
+    private final List<Object> firstValues;
+    private int[] firstIndexes = new int[0];
+    private int[] sortedFirstIndexes = new int[0];
+    private int size;
+    private Object selectedItem;
+
+    /**
+     * Creates a new HostComboBoxModel with no values
+     *
+     * @param isPort true if the model will list ports, or false for ips
+     */
+    public HostComboBoxModel(boolean isPort) {
+        this(new HostValues(isPort ? TopTalkers.Dimension.SRC_PORT : TopTalkers.Dimension.SRC_IP), null);
+    }
+
+    /**
+     * Creates a new HostComboBoxModel, selecting its first value
+     *
+     * @param values      the values to list
+     * @param firstValues values to list first in the given order, or null to list every value in address order. Any
+     *                    that aren't in values are left out.
+     */
+    public HostComboBoxModel(HostValues values, List<?> firstValues) {
+        this.values = values;
+        this.firstValues = firstValues != null ? new ArrayList<>(firstValues) : new ArrayList<>();
+        updateFirstIndexes();
+        if (size > 0) {
+            selectedItem = getElementAt(0);
+        }
+    }
+
+    /**
+     * @return true if the values are ports, or false if they're ips
+     */
+    public boolean isPort() {
+        return values.isPort();
+    }
+
+    /**
+     * Updates the list after values have been added to its {@link HostValues}, which may change the position of every
+     * value. The selection is kept, or the first value is selected if nothing was selected.
+     */
+    public void valuesChanged() {
+        int previousSize = size;
+        updateFirstIndexes();
+        if (size > previousSize) {
+            fireIntervalAdded(this, previousSize, size - 1);
+        }
+        if (previousSize > 0) {
+            fireContentsChanged(this, 0, previousSize - 1);
+        }
+        if (selectedItem == null && size > 0) {
+            setSelectedItem(getElementAt(0));
+        }
+    }
+
+    private void updateFirstIndexes() {
+        firstIndexes = firstValues.stream().mapToInt(values::indexOf).filter(index -> index >= 0).toArray();
+        sortedFirstIndexes = firstIndexes.clone();
+        Arrays.sort(sortedFirstIndexes);
+        size = values.size();
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public Object getElementAt(int index) {
+        return values.get(toValueIndex(index));
+    }
+
+    /**
+     * @param index the index of an element in this list
+     * @return the number of packets with the element's value
+     */
+    public int getCountAt(int index) {
+        return values.getCount(toValueIndex(index));
+    }
+
+    /**
+     * @param element an ip String or port Integer
+     * @return the index of the element in this list, or -1 if it isn't listed
+     */
+    public int indexOf(Object element) {
+        int valueIndex = values.indexOf(element);
+        return valueIndex >= 0 ? toListIndex(valueIndex) : -1;
+    }
+
+    /**
+     * Finds the element a user most likely means by some text they typed: the first one that starts with the text,
+     * otherwise the first one that contains it.
+     *
+     * @param text the text that was typed, e.g. "10.1" or "443"
+     * @return the index of the matching element in this list, or -1 if none match
+     */
+    public int find(String text) {
+        // The values listed first aren't in address order, so they're checked one by one
+        for (int i = 0; i < firstIndexes.length; i++) {
+            if (String.valueOf(values.get(firstIndexes[i])).startsWith(text)) {
+                return i;
+            }
+        }
+        int valueIndex = values.indexOfPrefix(text);
+        if (valueIndex < 0) {
+            valueIndex = values.indexOfSubstring(text);
+        }
+        return valueIndex >= 0 ? toListIndex(valueIndex) : -1;
+    }
+
+    @Override
+    public void setSelectedItem(Object item) {
+        if (item != null ? !item.equals(selectedItem) : selectedItem != null) {
+            selectedItem = item;
+            fireContentsChanged(this, -1, -1);
+        }
+    }
+
+    @Override
+    public Object getSelectedItem() {
+        return selectedItem;
+    }
+
+    private int toValueIndex(int index) {
+        if (index < firstIndexes.length) {
+            return firstIndexes[index];
+        }
+        // Skip over the values that were listed first
+        int valueIndex = index - firstIndexes.length;
+        for (int firstIndex : sortedFirstIndexes) {
+            if (firstIndex > valueIndex) {
+                break;
+            }
+            valueIndex++;
+        }
+        return valueIndex;
+    }
+
+    private int toListIndex(int valueIndex) {
+        int sortedIndex = Arrays.binarySearch(sortedFirstIndexes, valueIndex);
+        if (sortedIndex < 0) {
+            // The values listed first come before all of the rest, which are listed without them
+            return firstIndexes.length + valueIndex + sortedIndex + 1;
+        }
+        for (int i = 0; i < firstIndexes.length; i++) {
+            if (firstIndexes[i] == valueIndex) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+}
@@ -0,0 +1,139 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The distinct ips, ports and hosts of a trace, so that packets with the same host share one {@link Host} and one copy
+ * of its ip rather than each keeping their own. A trace usually has a few thousand distinct hosts across millions of
+ * packets, so this saves most of the memory that hosts would otherwise take. Each host is also numbered, so that it
+ * can be stored as an int, e.g. by a {@link PacketStore}.
+ * <p>
+ * Shared hosts must not be modified, as that would change every packet using them. A HostDictionary is not thread
+ * safe, so each one should only be used by one thread at a time, except that hosts can be looked up by their number
+ * from any thread.
+ */
+public class HostDictionary {
+
+    // Estimated cost of each distinct String and Host, including its map entry and boxed key (excluding characters)
+    private static final long TEXT_BYTES = 80;
+    private static final long HOST_BYTES = 100;
+    private static final long HOST_WITHOUT_PORT_BYTES = 30;
+
+    // Each distinct ip is numbered in the order it was first seen
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final List<String> texts = new ArrayList<>();
+    private long textsLength;
+    // Hosts with a port are keyed by their ip's id in the high half and their port in the low half. Hosts without one
+    // are listed by their ip's id.
+    private final Map<Long, Host> hosts = new HashMap<>();
+    private final List<Host> hostsWithoutPort = new ArrayList<>();
+    // Every host by its number, which is the order it was first seen in. The array is replaced whenever a host is
+    // added, so a thread looking hosts up by number always sees a complete array.
+    private volatile Host[] hostsByNumber = new Host[64];
+    private int hostCount;
+
+    /**
+     * Returns the shared host with the given ip and port, creating it if this is the first time it's been seen
+     *
+     * @param ip   the host's ip address
+     * @param port the host's port, or null if it has none
+     * @return a Host with the given ip and port that's shared by every caller
+     */
+    public Host getHost(String ip, Integer port) {
+        int id = getId(ip);
+        Host host;
+        if (port == null) {
+            while (hostsWithoutPort.size() <= id) {
+                hostsWithoutPort.add(null);
+            }
+            host = hostsWithoutPort.get(id);
+            if (host == null) {
+                host = addHost(texts.get(id), null);
+                hostsWithoutPort.set(id, host);
+            }
+            return host;
+        }
+        long key = (long) id << 32 | port & 0xFFFFFFFFL;
+        host = hosts.get(key);
+        if (host == null) {
+            host = addHost(texts.get(id), port);
+            hosts.put(key, host);
+        }
+        return host;
+    }
+
+    /**
+     * Returns a shared host by its number. Unlike this dictionary's other methods, this can be called from any thread
+     * that has seen the number, e.g. in a packet read from a {@link PacketStore}.
+     *
+     * @param number a number returned by {@link #getNumber(Host)}
+     * @return the host with the given number
+     */
+    public Host getHost(int number) {
+        return hostsByNumber[number];
+    }
+
+    /**
+     * Returns the number of a host, which is the same for every packet sharing it. Hosts that aren't shared by this
+     * dictionary are numbered by their ip and port, adding them to it if they haven't been seen before.
+     *
+     * @param host a host
+     * @return the host's number, from 0 in the order hosts were first seen
+     */
+    public int getNumber(Host host) {
+        if (host instanceof NumberedHost) {
+            // Hosts from other dictionaries have numbers too, which mean nothing in this one
+            int number = ((NumberedHost) host).number;
+            Host[] hostsByNumber = this.hostsByNumber;
+            if (number < hostsByNumber.length && hostsByNumber[number] == host) {
+                return number;
+            }
+        }
+        return ((NumberedHost) getHost(host.getIp(), host.getPort())).number;
+    }
+
+    private Host addHost(String ip, Integer port) {
+        Host[] hostsByNumber = this.hostsByNumber;
+        if (hostCount == hostsByNumber.length) {
+            hostsByNumber = Arrays.copyOf(hostsByNumber, hostCount * 2);
+        }
+        NumberedHost host = new NumberedHost(ip, port, hostCount);
+        hostsByNumber[hostCount++] = host;
+        this.hostsByNumber = hostsByNumber;
+        return host;
+    }
+
+    private int getId(String text) {
+        Integer id = ids.get(text);
+        if (id == null) {
+            id = texts.size();
+            ids.put(text, id);
+            texts.add(text);
+            textsLength += text.length();
+        }
+        return id;
+    }
+
+    /**
+     * @return the estimated number of bytes of heap used by this dictionary
+     */
+    public long getMemoryUsage() {
+        return TEXT_BYTES * texts.size() + 2 * textsLength + HOST_BYTES * hosts.size()
+                + HOST_WITHOUT_PORT_BYTES * hostsWithoutPort.size() + 4L * hostsByNumber.length;
+    }
+
+    /**
+     * A shared host, which knows its own number so that it doesn't have to be looked up.
+     */
+    private static class NumberedHost extends Host {
+        private final int number;
+
+        NumberedHost(String ip, Integer port, int number) {
+            super(ip, port);
+            this.number = number;
+        }
+    }
+
+}
@@ -0,0 +1,242 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The unique ips or ports of one dimension of a trace (e.g. every source ip), sorted by address, with the number of
+ * packets for each.
+ * <p>
+ * Values are held as packed ints rather than Strings and Integers, so a trace with hundreds of thousands of hosts
+ * costs a few megabytes, and values are only formatted when they're displayed. Ips are stored with their sign bit
+ * flipped so that sorting them as signed ints orders them as unsigned addresses.
+ */
+public class HostValues {
+
+    private final TopTalkers.Dimension dimension;
+    private int[] keys = new int[0];
+    private int[] counts = new int[0];
+
+    /**
+     * Creates a new HostValues with no values
+     *
+     * @param dimension the dimension whose values are listed, which must be a single ip or port
+     * @throws IllegalArgumentException the dimension is a pair
+     */
+    public HostValues(TopTalkers.Dimension dimension) throws IllegalArgumentException {
+        if (dimension.isPair()) {
+            throw new IllegalArgumentException("Pairs of hosts can't be listed: " + dimension);
+        }
+        this.dimension = dimension;
+    }
+
+    /**
+     * Adds the values of the given packets, counting each packet towards its value. Packets without ports aren't
+     * counted by port dimensions, as with {@link Simulator#getUniqueSortedSourceHostPorts()}.
+     *
+     * @param packets the packets to add
+     */
+    public void add(List<Packet> packets) {
+        int[] added = new int[packets.size()];
+        int addedCount = 0;
+        for (Packet packet : packets) {
+            if (!isPort()) {
+                String ip = dimension == TopTalkers.Dimension.SRC_IP ? packet.getSourceHostIP()
+                        : packet.getDestinationHostIP();
+                added[addedCount++] = Host.packIP(ip) ^ Integer.MIN_VALUE;
+            } else if (Simulator.hasValidPortData(packet)) {
+                added[addedCount++] = dimension == TopTalkers.Dimension.SRC_PORT ? packet.getSourceHostPort()
+                        : packet.getDestinationHostPort();
+            }
+        }
+        Arrays.sort(added, 0, addedCount);
+
+        // Merge the runs of equal added values into the existing values
+        int[] mergedKeys = new int[keys.length + addedCount];
+        int[] mergedCounts = new int[mergedKeys.length];
+        int i = 0, j = 0, size = 0;
+        while (i < keys.length || j < addedCount) {
+            if (j == addedCount || i < keys.length && keys[i] < added[j]) {
+                mergedKeys[size] = keys[i];
+                mergedCounts[size++] = counts[i++];
+                continue;
+            }
+            int key = added[j], count = 0;
+            while (j < addedCount && added[j] == key) {
+                j++;
+                count++;
+            }
+            if (i < keys.length && keys[i] == key) {
+                count += counts[i++];
+            }
+            mergedKeys[size] = key;
+            mergedCounts[size++] = count;
+        }
+        keys = Arrays.copyOf(mergedKeys, size);
+        counts = Arrays.copyOf(mergedCounts, size);
+    }
+
+    /**
+     * @return true if the values are ports, or false if they're ips
+     */
+    public boolean isPort() {
+        return dimension.isPort();
+    }
+
+    /**
+     * @return the number of unique values
+     */
+    public int size() {
+        return keys.length;
+    }
+
+    /**
+     * @param index the index of a value, in address order
+     * @return the value, an ip String or port Integer
+     */
+    public Object get(int index) {
+        return isPort() ? (Object) keys[index] : Host.formatIP(keys[index] ^ Integer.MIN_VALUE);
+    }
+
+    /**
+     * @param index the index of a value, in address order
+     * @return the number of packets with the value
+     */
+    public int getCount(int index) {
+        return counts[index];
+    }
+
+    /**
+     * @param value an ip String or port Integer
+     * @return the index of the value in address order, or -1 if it isn't listed
+     */
+    public int indexOf(Object value) {
+        if (isPort() ? !(value instanceof Integer) : !(value instanceof String)) {
+            return -1;
+        }
+        int key = isPort() ? (Integer) value : Host.packIP((String) value) ^ Integer.MIN_VALUE;
+        int index = Arrays.binarySearch(keys, key);
+        // Strings that aren't valid ips can pack to a listed value, so the value found must match exactly
+        return index >= 0 && (isPort() || get(index).equals(value)) ? index : -1;
+    }
+
+    /**
+     * Finds the first value, in address order, whose text starts with a prefix. Numbers that start with the same digits
+     * fall into at most a few ranges of values (e.g. "19" covers 19, 190-199 and 1900-1999), so each range is found by
+     * binary search rather than by formatting every value.
+     *
+     * @param prefix the start of an ip (e.g. "10.1") or a port
+     * @return the index of the first matching value, or -1 if no value starts with the prefix
+     */
+    public int indexOfPrefix(String prefix) {
+        if (isPort()) {
+            for (long[] range : getDigitRanges(prefix, 0xFFFF)) {
+                int index = indexOfFirstInRange(range[0], range[1]);
+                if (index >= 0) {
+                    return index;
+                }
+            }
+            return -1;
+        }
+
+        // Every whole octet of the prefix is fixed, and the octets after its last (partial) octet can be anything
+        String[] octets = prefix.split("\\.", -1);
+        if (octets.length > 4) {
+            return -1;
+        }
+        long base = 0;
+        for (int i = 0; i < octets.length - 1; i++) {
+            List<long[]> exact = getDigitRanges(octets[i], 0xFF);
+            if (exact.isEmpty() || octets[i].isEmpty()) {
+                return -1;
+            }
+            base = base << 8 | exact.get(0)[0];
+        }
+        int freeBits = 8 * (4 - octets.length);
+        String last = octets[octets.length - 1];
+        List<long[]> ranges = getDigitRanges(last, 0xFF);
+        for (long[] range : ranges) {
+            long low = (base << 8 | range[0]) << freeBits;
+            long high = (base << 8 | range[1]) << freeBits | (1L << freeBits) - 1;
+            int index = indexOfFirstInRange(low, high);
+            if (index >= 0) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Finds the first value, in address order, whose text contains some text. This checks every value, but without
+     * creating a String for each of them.
+     *
+     * @param text the text to find, e.g. ".255"
+     * @return the index of the first matching value, or -1 if no value contains the text
+     */
+    public int indexOfSubstring(String text) {
+        StringBuilder value = new StringBuilder(15);
+        for (int i = 0; i < keys.length; i++) {
+            value.setLength(0);
+            if (isPort()) {
+                value.append(keys[i]);
+            } else {
+                int ip = keys[i] ^ Integer.MIN_VALUE;
+                value.append(ip >>> 24).append('.').append(ip >>> 16 & 0xFF).append('.').append(ip >>> 8 & 0xFF)
+                        .append('.').append(ip & 0xFF);
+            }
+            if (value.indexOf(text) >= 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the estimated number of bytes of heap used by these values
+     */
+    public long getMemoryUsage() {
+        return 8L * keys.length;
+    }
+
+    /**
+     * Returns the ranges of numbers from 0 to max whose decimal form starts with the given digits, in ascending order.
+     * Numbers aren't written with leading zeros, so "0" only matches 0.
+     */
+    private static List<long[]> getDigitRanges(String digits, long max) {
+        if (digits.isEmpty() || digits.length() > 5 || digits.length() > 1 && digits.charAt(0) == '0') {
+            return digits.isEmpty() ? Collections.singletonList(new long[]{0, max}) : Collections.emptyList();
+        }
+        long number = 0;
+        for (int i = 0; i < digits.length(); i++) {
+            char c = digits.charAt(i);
+            if (c < '0' || c > '9') {
+                return Collections.emptyList();
+            }
+            number = number * 10 + (c - '0');
+        }
+
+        List<long[]> ranges = new ArrayList<>();
+        // Each extra digit multiplies the start of the range by ten and widens it tenfold
+        for (long low = number, width = 1; low <= max; low *= 10, width *= 10) {
+            ranges.add(new long[]{low, Math.min(max, low + width - 1)});
+            if (number == 0) {
+                break;
+            }
+        }
+        return ranges;
+    }
+
+    /**
+     * @return the index of the first value from low to high (as unsigned values), or -1 if there are none
+     */
+    private int indexOfFirstInRange(long low, long high) {
+        int lowKey = isPort() ? (int) low : (int) low ^ Integer.MIN_VALUE;
+        int highKey = isPort() ? (int) high : (int) high ^ Integer.MIN_VALUE;
+        int index = Arrays.binarySearch(keys, lowKey);
+        if (index < 0) {
+            index = -index - 1;
+        }
+        return index < keys.length && keys[index] <= highKey ? index : -1;
+    }
+
+}
@@ -0,0 +1,109 @@
+import java.util.Arrays;
+
+/**
+ * Estimates the number of distinct keys added to it using a fixed amount of memory, however many keys there are.
+ * <p>
+ * Each key is hashed, and the first bits of the hash choose one of 2^precision registers, which keeps the largest
+ * number of leading zeros seen in the rest of the hash. The more distinct keys, the longer the longest run of zeros,
+ * so the registers' harmonic mean gives an estimate with a standard error of about {@code 1.04 / sqrt(2^precision)}.
+ * Sketches of the same precision can be merged, giving an estimate of the number of keys added to either.
+ */
+public class HyperLogLog {
+
+    private final int precision;
+    private final byte[] registers;
+
+    /**
+     * Creates a new empty HyperLogLog
+     *
+     * @param precision the number of bits of each hash used to choose a register, from 4 to 18. Each extra bit
+     *                  doubles the memory used and reduces the error by a factor of sqrt(2).
+     */
+    public HyperLogLog(int precision) {
+        if (precision < 4 || precision > 18) {
+            throw new IllegalArgumentException("Precision must be from 4 to 18: " + precision);
+        }
+        this.precision = precision;
+        registers = new byte[1 << precision];
+    }
+
+    /**
+     * Adds a key. Adding the same key again has no effect.
+     *
+     * @param key the key to add
+     */
+    public void add(long key) {
+        long hash = hash(key);
+        int index = (int) (hash >>> (64 - precision));
+        // The bit below the remaining bits stops the rank growing past the bits that are left
+        int rank = Long.numberOfLeadingZeros((hash << precision) | (1L << (precision - 1))) + 1;
+        if (rank > registers[index]) {
+            registers[index] = (byte) rank;
+        }
+    }
+
+    /**
+     * Adds every key that was added to another HyperLogLog to this one.
+     *
+     * @param other a HyperLogLog with the same precision as this one
+     */
+    public void merge(HyperLogLog other) {
+        if (other.precision != precision) {
+            throw new IllegalArgumentException("Can't merge a HyperLogLog of precision " + other.precision
+                    + " into one of precision " + precision);
+        }
+        for (int i = 0; i < registers.length; i++) {
+            registers[i] = (byte) Math.max(registers[i], other.registers[i]);
+        }
+    }
+
+    /**
+     * @return the estimated number of distinct keys that have been added
+     */
+    public long estimate() {
+        int m = registers.length;
+        double sum = 0;
+        int zeros = 0;
+        for (byte register : registers) {
+            sum += 1.0 / (1L << register);
+            if (register == 0) {
+                zeros++;
+            }
+        }
+        double alpha = m == 16 ? 0.673 : m == 32 ? 0.697 : m == 64 ? 0.709 : 0.7213 / (1 + 1.079 / m);
+        double estimate = alpha * m * m / sum;
+
+        // Small cardinalities are estimated much more accurately by the number of registers that are still empty
+        if (estimate <= 2.5 * m && zeros > 0) {
+            estimate = m * Math.log((double) m / zeros);
+        }
+        return Math.round(estimate);
+    }
+
+    /**
+     * @return the number of bytes used by this HyperLogLog's registers
+     */
+    public long getMemoryUsage() {
+        return registers.length;
+    }
+
+    /**
+     * Removes every key.
+     */
+    public void clear() {
+        Arrays.fill(registers, (byte) 0);
+    }
+
+    private static long hash(long key) {
+        // The MurmurHash3 finalizer, so that keys differing in a few bits give unrelated hashes. The finalizer maps 0
+        // to itself, so the key is offset first.
+        key += 0x9E3779B97F4A7C15L;
+        key ^= key >>> 33;
+        key *= 0xFF51AFD7ED558CCDL;
+        key ^= key >>> 33;
+        key *= 0xC4CEB9FE1A85EC53L;
+        key ^= key >>> 33;
+        return key;
+    }
+
+}
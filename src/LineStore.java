@@ -0,0 +1,86 @@
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * The lines of a trace file held as UTF-8 in a {@link ScratchFile} rather than as Strings on the heap. Each line is
+ * decoded again whenever it's got, so it's only on the heap while it's being used.
+ * <p>
+ * Replacing a line writes the new line over the old one if it fits in the space the old one took, and otherwise after
+ * the others, so a long editing session doesn't grow the file with every edit. Lines are added while a trace is loaded
+ * and followed, and replaced when edits are saved, on different threads from those reading them, so a LineStore is
+ * thread safe.
+ */
+public class LineStore extends AbstractList<String> implements RandomAccess {
+
+    private final ScratchFile.Column bytes, starts, lengths;
+    private long bytesLength;
+    private int size;
+    // The space taken by each line that was replaced by a shorter one, so that a longer line can be written back into
+    // it later. Every other line fills its space exactly. Only edited lines are listed, so this stays small.
+    private final Map<Integer, Integer> slotLengths = new HashMap<>();
+
+    /**
+     * Creates a new empty LineStore
+     *
+     * @param file the scratch file to hold the lines in
+     */
+    public LineStore(ScratchFile file) {
+        bytes = file.addColumn(1);
+        starts = file.addColumn(8);
+        lengths = file.addColumn(4);
+    }
+
+    @Override
+    public synchronized String get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        byte[] line = new byte[lengths.getInt(index)];
+        bytes.getBytes(starts.getLong(index), line);
+        return new String(line, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public synchronized String set(int index, String line) {
+        String previous = get(index);
+        byte[] encoded = line.getBytes(StandardCharsets.UTF_8);
+        int slotLength = slotLengths.getOrDefault(index, lengths.getInt(index));
+        if (encoded.length <= slotLength) {
+            bytes.putBytes(starts.getLong(index), encoded);
+            lengths.putInt(index, encoded.length);
+            if (encoded.length < slotLength) {
+                slotLengths.put(index, slotLength);
+            } else {
+                slotLengths.remove(index);
+            }
+        } else {
+            // The old line's space is left unused, as the new line doesn't fit in it
+            write(index, encoded);
+            slotLengths.remove(index);
+        }
+        return previous;
+    }
+
+    @Override
+    public synchronized boolean add(String line) {
+        write(size, line.getBytes(StandardCharsets.UTF_8));
+        size++;
+        return true;
+    }
+
+    private void write(int index, byte[] encoded) {
+        bytes.putBytes(bytesLength, encoded);
+        starts.putLong(index, bytesLength);
+        lengths.putInt(index, encoded.length);
+        bytesLength += encoded.length;
+    }
+
+    @Override
+    public synchronized int size() {
+        return size;
+    }
+
+}
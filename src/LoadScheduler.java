@@ -0,0 +1,186 @@
+import javax.swing.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Runs the file loads of every PacketPanel in the application on a single bounded pool of threads.
+ * <p>
+ * Loads start in the order they were submitted, except that high priority loads (e.g. the load for the tab that is
+ * currently visible) always start before any normal priority loads that are still waiting. A load can be cancelled at
+ * any time, in which case it is removed from the queue or, if it has already started, its thread is interrupted and
+ * its result is discarded.
+ */
+public class LoadScheduler {
+
+    /**
+     * System property used to configure the maximum number of files that may be loaded at once
+     */
+    public static final String MAX_CONCURRENT_LOADS_PROPERTY = "packetbrowser.maxConcurrentLoads";
+    private static final int DEFAULT_MAX_CONCURRENT_LOADS = 2;
+
+    private final AtomicLong sequence = new AtomicLong();
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * Creates a new LoadScheduler whose concurrency limit is read from the {@value #MAX_CONCURRENT_LOADS_PROPERTY}
+     * system property, defaulting to {@value #DEFAULT_MAX_CONCURRENT_LOADS} concurrent loads.
+     */
+    public LoadScheduler() {
+        this(Integer.getInteger(MAX_CONCURRENT_LOADS_PROPERTY, DEFAULT_MAX_CONCURRENT_LOADS));
+    }
+
+    /**
+     * Creates a new LoadScheduler
+     *
+     * @param maxConcurrentLoads the maximum number of loads that may run at once
+     * @throws IllegalArgumentException maxConcurrentLoads is less than one
+     */
+    public LoadScheduler(int maxConcurrentLoads) throws IllegalArgumentException {
+        if (maxConcurrentLoads < 1) {
+            throw new IllegalArgumentException("maxConcurrentLoads must be at least 1");
+        }
+
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, "trace-loader-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+
+        // Every runnable given to this executor is a Task, so the queue orders them using Task.compareTo
+        executor = new ThreadPoolExecutor(maxConcurrentLoads, maxConcurrentLoads, 30, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<>(), threadFactory);
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Queues a load to be run in the background.
+     *
+     * @param load         the work to perform
+     * @param onLoaded     called on the Event Dispatch Thread with the result of the load, unless the load was
+     *                     cancelled or failed
+     * @param highPriority true if this load should start before any normal priority loads
+     * @param <T>          the type of result produced by the load
+     * @return a Task that can be used to cancel the load or change its priority
+     */
+    public <T> Task<T> submit(Callable<T> load, Consumer<T> onLoaded, boolean highPriority) {
+        return submit(load, onLoaded, System.out::println, highPriority);
+    }
+
+    /**
+     * Queues a load to be run in the background, which reports its failure rather than just dropping it.
+     *
+     * @param load         the work to perform
+     * @param onLoaded     called on the Event Dispatch Thread with the result of the load, unless the load was
+     *                     cancelled or failed
+     * @param onFailed     called on the Event Dispatch Thread with whatever the load threw (including errors such as
+     *                     running out of memory), unless the load was cancelled
+     * @param highPriority true if this load should start before any normal priority loads
+     * @param <T>          the type of result produced by the load
+     * @return a Task that can be used to cancel the load or change its priority
+     */
+    public <T> Task<T> submit(Callable<T> load, Consumer<T> onLoaded, Consumer<Throwable> onFailed,
+                              boolean highPriority) {
+        Task<T> task = new Task<>(load, onLoaded, onFailed, highPriority);
+        executor.execute(task);
+        return task;
+    }
+
+    /**
+     * Cancels all queued and running loads and stops accepting new ones.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * A load that has been submitted to a LoadScheduler.
+     *
+     * @param <T> the type of result produced by the load
+     */
+    public class Task<T> extends FutureTask<T> implements Comparable<Task<?>> {
+
+        private final long sequenceNumber = sequence.getAndIncrement();
+        private final Consumer<T> onLoaded;
+        private final Consumer<Throwable> onFailed;
+        private volatile boolean highPriority;
+        private volatile boolean discarded;
+
+        private Task(Callable<T> load, Consumer<T> onLoaded, Consumer<Throwable> onFailed, boolean highPriority) {
+            super(load);
+            this.onLoaded = onLoaded;
+            this.onFailed = onFailed;
+            this.highPriority = highPriority;
+        }
+
+        /**
+         * Changes the priority of this load. This has no effect if the load has already started.
+         *
+         * @param highPriority true if this load should start before any normal priority loads
+         */
+        public void setHighPriority(boolean highPriority) {
+            if (this.highPriority == highPriority) {
+                return;
+            }
+
+            // The queue only orders elements as they're added, so the task has to be re-queued for the new priority
+            // to take effect. If it can't be removed then it has already started (or finished) and there's no point
+            if (executor.remove(this)) {
+                this.highPriority = highPriority;
+                executor.execute(this);
+            } else {
+                this.highPriority = highPriority;
+            }
+        }
+
+        /**
+         * Cancels this load, interrupting it if it's already running. The load's result will not be delivered.
+         */
+        public void cancel() {
+            discarded = true;
+            cancel(true);
+            // Drop the task from the queue right away so that it (and anything it references) can be collected
+            executor.remove(this);
+        }
+
+        @Override
+        protected void done() {
+            if (isCancelled()) {
+                return;
+            }
+
+            T result;
+            try {
+                result = get();
+            } catch (InterruptedException | CancellationException e) {
+                return;
+            } catch (ExecutionException e) {
+                // Load failed, which the caller is told of so that it doesn't wait for it forever
+                Throwable cause = e.getCause();
+                SwingUtilities.invokeLater(() -> {
+                    if (!discarded) {
+                        onFailed.accept(cause);
+                    }
+                });
+                return;
+            }
+            SwingUtilities.invokeLater(() -> {
+                // The load may have been cancelled while waiting to be delivered
+                if (!discarded) {
+                    onLoaded.accept(result);
+                }
+            });
+        }
+
+        @Override
+        public int compareTo(Task<?> o) {
+            if (highPriority != o.highPriority) {
+                return highPriority ? -1 : 1;
+            }
+            return Long.compare(sequenceNumber, o.sequenceNumber);
+        }
+    }
+
+}
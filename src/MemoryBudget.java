@@ -0,0 +1,119 @@
+import java.util.*;
+
+/**
+ * Keeps track of how much memory the packet data of each PacketPanel is using and, when the total goes over a set
+ * budget, unloads the data of the panels that were viewed least recently.
+ * <p>
+ * A Dataset shared by several panels is only counted once, and its memory is only freed once every panel using it has
+ * been unloaded.
+ * <p>
+ * The most recently viewed panel is never unloaded, so a single file larger than the budget can still be opened.
+ * This class is not thread safe and should only be used from the Event Dispatch Thread.
+ */
+public class MemoryBudget {
+
+    /**
+     * System property used to configure the memory budget in megabytes
+     */
+    public static final String MEMORY_BUDGET_PROPERTY = "packetbrowser.memoryBudgetMB";
+    private static final long BYTES_PER_MB = 1024 * 1024;
+
+    private final long budget;
+
+    // Panels and their loaded datasets in the order they were last viewed, from least to most recently viewed
+    private final LinkedHashMap<PacketPanel, Dataset> usage = new LinkedHashMap<>();
+    private boolean isEnforcing;
+
+    /**
+     * Creates a new MemoryBudget whose size is read from the {@value #MEMORY_BUDGET_PROPERTY} system property,
+     * defaulting to half of the maximum heap size.
+     */
+    public MemoryBudget() {
+        this(Long.getLong(MEMORY_BUDGET_PROPERTY, Runtime.getRuntime().maxMemory() / 2 / BYTES_PER_MB) * BYTES_PER_MB);
+    }
+
+    /**
+     * Creates a new MemoryBudget
+     *
+     * @param budget the number of bytes of packet data that may be loaded at once
+     */
+    public MemoryBudget(long budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * @return the number of bytes of packet data that may be loaded at once
+     */
+    public long getBudget() {
+        return budget;
+    }
+
+    /**
+     * @return the estimated number of bytes used by all panels' packet data
+     */
+    public long getTotalUsage() {
+        Set<Dataset> datasets = Collections.newSetFromMap(new IdentityHashMap<>());
+        long total = 0;
+        for (Dataset dataset : usage.values()) {
+            if (dataset != null && datasets.add(dataset)) {
+                total += dataset.getMemoryUsage();
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Marks the given panel as the most recently viewed panel, and unloads the data of other panels if the budget has
+     * been exceeded.
+     *
+     * @param panel the panel that was viewed
+     */
+    public void touch(PacketPanel panel) {
+        Dataset dataset = usage.remove(panel);
+        usage.put(panel, dataset);
+        enforce();
+    }
+
+    /**
+     * Records the dataset loaded by the given panel, and unloads the data of other panels if the budget has been
+     * exceeded. This does not change the order in which panels were viewed.
+     *
+     * @param panel   the panel whose data changed
+     * @param dataset the dataset loaded by the panel, or null if it has no data loaded
+     */
+    public void setUsage(PacketPanel panel, Dataset dataset) {
+        // Re-putting an existing key keeps its position, so this won't count as viewing the panel
+        usage.put(panel, dataset);
+        enforce();
+    }
+
+    /**
+     * Stops tracking the given panel, e.g. because it has been closed.
+     *
+     * @param panel the panel to stop tracking
+     */
+    public void remove(PacketPanel panel) {
+        usage.remove(panel);
+    }
+
+    private void enforce() {
+        // Unloading a panel updates its usage, which would otherwise call back into this method
+        if (isEnforcing) {
+            return;
+        }
+        isEnforcing = true;
+
+        try {
+            List<PacketPanel> panels = new ArrayList<>(usage.keySet());
+            // Never unload the most recently viewed panel
+            for (int i = 0; i < panels.size() - 1 && getTotalUsage() > budget; i++) {
+                if (usage.get(panels.get(i)) != null) {
+                    panels.get(i).evict();
+                }
+            }
+        } finally {
+            isEnforcing = false;
+        }
+    }
+
+}
@@ -0,0 +1,264 @@
+import java.util.Arrays;
+
+/**
+ * An index of the trigrams (runs of three characters) in a sequence of texts, used to find the texts that may contain
+ * a search term without scanning all of them.
+ * <p>
+ * Texts are numbered in the order they're added. Each trigram has a posting list of the texts it appears in, stored
+ * as the differences between consecutive text numbers in a variable length encoding, so the trigrams that appear in
+ * almost every text (e.g. the start of a common ip prefix) only take about a byte per text. Matching ignores the case
+ * of ASCII letters, and characters outside ASCII share trigrams with ASCII ones, so a text found by
+ * {@link #getCandidates(String)} is only a candidate that must still be checked with {@link #contains(String, String)}.
+ */
+public class NGramIndex {
+
+    private static final int N = 3;
+    private static final int INITIAL_POSTINGS_LENGTH = 4;
+
+    // Open addressing table of trigram + 1 (0 for an empty slot) to its posting list, kept at most half full
+    private int[] trigrams = new int[1024];
+    private int[] slots = new int[1024];
+    private int trigramCount;
+
+    // Indexed by posting list
+    private byte[][] postings = new byte[256][];
+    private int[] postingsLengths = new int[256];
+    private int[] lastTexts = new int[256];
+
+    private int textCount;
+
+    /**
+     * Adds the next text to the index.
+     *
+     * @param text the text to add, which is numbered {@link #size()} before it's added
+     */
+    public void add(CharSequence text) {
+        int number = textCount++;
+        int trigram = 0;
+        for (int i = 0; i < text.length(); i++) {
+            trigram = (trigram << 7 | fold(text.charAt(i))) & (1 << 7 * N) - 1;
+            if (i >= N - 1) {
+                addPosting(getPostings(trigram, true), number);
+            }
+        }
+    }
+
+    /**
+     * Finds the texts that contain every trigram of a term.
+     *
+     * @param term the term to search for, which must be at least {@value #N} characters long
+     * @return the ascending numbers of the texts that may contain the term
+     */
+    public int[] getCandidates(String term) {
+        if (term.length() < N) {
+            throw new IllegalArgumentException("Search terms must be at least " + N + " characters long");
+        }
+
+        int[] lists = new int[term.length() - N + 1];
+        int trigram = 0;
+        for (int i = 0; i < term.length(); i++) {
+            trigram = (trigram << 7 | fold(term.charAt(i))) & (1 << 7 * N) - 1;
+            if (i >= N - 1) {
+                int list = getPostings(trigram, false);
+                if (list < 0) {
+                    return new int[0];
+                }
+                lists[i - N + 1] = list;
+            }
+        }
+
+        // Starting with the shortest list keeps every intersection no larger than it
+        lists = Arrays.stream(lists).distinct().boxed()
+                .sorted((list1, list2) -> Integer.compare(postingsLengths[list1], postingsLengths[list2]))
+                .mapToInt(Integer::intValue).toArray();
+        int[] candidates = decode(lists[0]);
+        int count = candidates.length;
+        for (int i = 1; i < lists.length && count > 0; i++) {
+            count = intersect(candidates, count, lists[i]);
+        }
+        return Arrays.copyOf(candidates, count);
+    }
+
+    /**
+     * @return the number of texts added
+     */
+    public int size() {
+        return textCount;
+    }
+
+    /**
+     * Frees the space reserved for posting lists to grow into. Texts can still be added afterwards.
+     */
+    public void trimToSize() {
+        for (int i = 0; i < trigramCount; i++) {
+            postings[i] = Arrays.copyOf(postings[i], postingsLengths[i]);
+        }
+    }
+
+    /**
+     * @return an estimate of the memory used in bytes
+     */
+    public long getMemoryUsage() {
+        long bytes = 4L * (trigrams.length + slots.length) + 16L * postings.length;
+        for (int i = 0; i < trigramCount; i++) {
+            bytes += 16 + postings[i].length;
+        }
+        return bytes;
+    }
+
+    private static int fold(char c) {
+        return c < 128 ? toLowerCase(c) : c & 0x7F;
+    }
+
+    /**
+     * @return the posting list of the given trigram, or -1 if it has none and create is false
+     */
+    private int getPostings(int trigram, boolean create) {
+        int mask = trigrams.length - 1;
+        int slot = hash(trigram) & mask;
+        while (trigrams[slot] != 0) {
+            if (trigrams[slot] == trigram + 1) {
+                return slots[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (!create) {
+            return -1;
+        }
+
+        int list = trigramCount++;
+        if (list == postings.length) {
+            postings = Arrays.copyOf(postings, list * 2);
+            postingsLengths = Arrays.copyOf(postingsLengths, list * 2);
+            lastTexts = Arrays.copyOf(lastTexts, list * 2);
+        }
+        postings[list] = new byte[INITIAL_POSTINGS_LENGTH];
+        lastTexts[list] = -1;
+        trigrams[slot] = trigram + 1;
+        slots[slot] = list;
+        if (trigramCount * 2 > trigrams.length) {
+            rehash();
+        }
+        return list;
+    }
+
+    private static int hash(int trigram) {
+        int hash = trigram * 0x9E3779B1;
+        return hash ^ hash >>> 16;
+    }
+
+    private void rehash() {
+        int[] oldTrigrams = trigrams, oldSlots = slots;
+        trigrams = new int[oldTrigrams.length * 2];
+        slots = new int[oldSlots.length * 2];
+        int mask = trigrams.length - 1;
+        for (int i = 0; i < oldTrigrams.length; i++) {
+            if (oldTrigrams[i] != 0) {
+                int slot = hash(oldTrigrams[i] - 1) & mask;
+                while (trigrams[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                trigrams[slot] = oldTrigrams[i];
+                slots[slot] = oldSlots[i];
+            }
+        }
+    }
+
+    private void addPosting(int list, int number) {
+        // A trigram repeated within a text is only listed once
+        if (lastTexts[list] == number) {
+            return;
+        }
+        int delta = number - lastTexts[list];
+        lastTexts[list] = number;
+
+        byte[] bytes = postings[list];
+        int length = postingsLengths[list];
+        if (length + 5 > bytes.length) {
+            bytes = postings[list] = Arrays.copyOf(bytes, Math.max(length + 5, bytes.length * 2));
+        }
+        // Seven bits per byte, with the high bit set on every byte but the last
+        while (delta >= 0x80) {
+            bytes[length++] = (byte) (delta | 0x80);
+            delta >>>= 7;
+        }
+        bytes[length++] = (byte) delta;
+        postingsLengths[list] = length;
+    }
+
+    private int[] decode(int list) {
+        byte[] bytes = postings[list];
+        int length = postingsLengths[list];
+        int[] numbers = new int[Math.min(length, textCount)];
+        int count = 0, number = -1;
+        for (int i = 0; i < length; ) {
+            int delta = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = bytes[i++];
+                delta |= (b & 0x7F) << shift;
+                if (b >= 0) {
+                    break;
+                }
+            }
+            number += delta;
+            numbers[count++] = number;
+        }
+        return numbers;
+    }
+
+    /**
+     * Removes the numbers not in the given posting list from the first count numbers, decoding the list as it goes.
+     *
+     * @return the number of numbers kept
+     */
+    private int intersect(int[] numbers, int count, int list) {
+        byte[] bytes = postings[list];
+        int length = postingsLengths[list];
+        int kept = 0, j = 0, number = -1;
+        for (int i = 0; i < length && j < count; ) {
+            int delta = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = bytes[i++];
+                delta |= (b & 0x7F) << shift;
+                if (b >= 0) {
+                    break;
+                }
+            }
+            number += delta;
+            while (j < count && numbers[j] < number) {
+                j++;
+            }
+            if (j < count && numbers[j] == number) {
+                numbers[kept++] = number;
+                j++;
+            }
+        }
+        return kept;
+    }
+
+    /**
+     * Checks whether a text contains a term, ignoring the case of ASCII letters as the index does.
+     *
+     * @param text the text to search
+     * @param term the term to search for
+     * @return true if the text contains the term
+     */
+    public static boolean contains(String text, String term) {
+        int last = text.length() - term.length();
+        for (int i = 0; i <= last; i++) {
+            int j = 0;
+            while (j < term.length() && toLowerCase(text.charAt(i + j)) == toLowerCase(term.charAt(j))) {
+                j++;
+            }
+            if (j == term.length()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static char toLowerCase(char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+
+}
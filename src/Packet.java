@@ -15,9 +15,17 @@ interface TraceFileConstants {
 
 public class Packet implements TraceFileConstants {
     private Host srcHost, destHost;
-    private Double timestamp;
+    // The time this packet was recorded in nanoseconds, and the number of decimal places it was written with (or -1 if
+    // the packet has no timestamp)
+    private long timeNanos;
+    private byte timeDigits = -1;
     private Integer size, lineIndex;
-    private String[] data;
+    // The line this packet was read from, or null if it wasn't read from tab delimited data. Lines are shared with the
+    // dataset holding them, so packets don't keep a copy of their fields.
+    private String line;
+    // A bit for each column of the line that's been edited since it was read, whose text is built from this packet's
+    // values instead
+    private int editedColumns;
 
     /**
      * Creates a new Packet
@@ -28,42 +36,244 @@ public class Packet implements TraceFileConstants {
      * @throws IllegalArgumentException Invalid data in tabDelimitedData
      */
     public Packet(String tabDelimitedData) throws IllegalArgumentException {
-        String[] data = tabDelimitedData.split("\\t", MAX_COL + 2);
-
-        // Extend all data so that it's length is at least 8
-        if (data.length < MAX_COL + 1) {
-            data = Arrays.copyOf(data, MAX_COL + 1);
-            // Replace all null values with empty strings
-            for (int i = 0; i < data.length; i++) {
-                if (data[i] == null) {
-                    data[i] = "";
-                }
+        this(tabDelimitedData, null);
+    }
+
+    /**
+     * Creates a new Packet whose hosts are shared with the other packets read using the same dictionary
+     *
+     * @param tabDelimitedData a string of tab delimited data, as for {@link #Packet(String)}
+     * @param hosts            the dictionary of the trace's hosts, or null for this packet to have its own hosts
+     * @throws IllegalArgumentException Invalid data in tabDelimitedData
+     * @see #parse(String, int, HostDictionary, RejectedLines)
+     */
+    public Packet(String tabDelimitedData, HostDictionary hosts) throws IllegalArgumentException {
+        RejectedLines.Reason reason = read(tabDelimitedData, hosts);
+        if (reason != null) {
+            throw new IllegalArgumentException(reason.getDescription() + " in tabDelimitedData");
+        }
+    }
+
+    Packet() {
+    }
+
+    /**
+     * Creates a new Packet from values that were parsed from a line, e.g. by a packet that was held in a
+     * {@link PacketStore}, so that its line can be built as it would have been by the packet that was stored
+     */
+    Packet(String line, int editedColumns, int lineIndex, long timeNanos, int timeDigits, Host srcHost, Host destHost,
+           Integer size) {
+        this.line = line;
+        this.editedColumns = editedColumns;
+        this.lineIndex = lineIndex;
+        this.timeNanos = timeNanos;
+        this.timeDigits = (byte) timeDigits;
+        this.srcHost = srcHost;
+        this.destHost = destHost;
+        this.size = size;
+    }
+
+    /**
+     * Parses a line of packet data as {@link #Packet(String, HostDictionary)} does, but returns null rather than
+     * throwing an exception if the line is invalid, as traces can have millions of invalid lines.
+     *
+     * @param line      a line of tab delimited packet data
+     * @param lineIndex the line's index in its file
+     * @param hosts     the dictionary of the trace's hosts, or null for the packet to have its own hosts
+     * @param rejected  where the reason the line is invalid is recorded, or null
+     * @return the parsed packet, or null if the line is invalid
+     */
+    public static Packet parse(String line, int lineIndex, HostDictionary hosts, RejectedLines rejected) {
+        Packet packet = new Packet();
+        RejectedLines.Reason reason = packet.read(line, hosts);
+        if (reason != null) {
+            if (rejected != null) {
+                rejected.add(reason, lineIndex);
+            }
+            return null;
+        }
+        packet.lineIndex = lineIndex;
+        return packet;
+    }
+
+    /**
+     * Sets this packet's values from a line of tab delimited data
+     *
+     * @return the reason the line is invalid, or null if it's valid
+     */
+    private RejectedLines.Reason read(String tabDelimitedData, HostDictionary hosts) {
+        String[] data = split(tabDelimitedData);
+        line = tabDelimitedData;
+
+        // Every number is checked before any are parsed, so invalid lines are rejected without an exception
+        if (!isInteger(data[ID_COL])) {
+            return RejectedLines.Reason.INVALID_ID;
+        }
+        if (!isInteger(data[SRC_PORT_COL]) || !isInteger(data[DEST_PORT_COL])) {
+            return RejectedLines.Reason.INVALID_PORT;
+        }
+        if (!isInteger(data[IP_PACKET_SIZE_COL])) {
+            return RejectedLines.Reason.INVALID_SIZE;
+        }
+        if (!data[TIMESTAMP_COL].isEmpty()) {
+            timeNanos = Timestamps.tryParse(data[TIMESTAMP_COL]);
+            if (timeNanos == Timestamps.INVALID) {
+                return RejectedLines.Reason.INVALID_TIMESTAMP;
             }
+            timeDigits = (byte) Timestamps.getDigits(data[TIMESTAMP_COL]);
+        }
+
+        lineIndex = data[ID_COL].isEmpty() ? null : Integer.parseInt(data[ID_COL]);
+        Integer srcPort = data[SRC_PORT_COL].isEmpty() ? null : Integer.parseInt(data[SRC_PORT_COL]);
+        Integer destPort = data[DEST_PORT_COL].isEmpty() ? null : Integer.parseInt(data[DEST_PORT_COL]);
+        if (hosts != null) {
+            srcHost = hosts.getHost(data[SRC_IP_COL], srcPort);
+            destHost = hosts.getHost(data[DEST_IP_COL], destPort);
+        } else {
+            srcHost = new Host(data[SRC_IP_COL], srcPort);
+            destHost = new Host(data[DEST_IP_COL], destPort);
         }
+        size = data[IP_PACKET_SIZE_COL].isEmpty() ? null : Integer.parseInt(data[IP_PACKET_SIZE_COL]);
+        return null;
+    }
 
-        this.data = data;
-        try {
-            lineIndex = data[ID_COL].isEmpty() ? null : Integer.parseInt(data[ID_COL]);
-            srcHost = new Host(data[SRC_IP_COL], data[SRC_PORT_COL].isEmpty() ? null : Integer.parseInt(data[SRC_PORT_COL]));
-            destHost = new Host(data[DEST_IP_COL], data[DEST_PORT_COL].isEmpty() ? null : Integer.parseInt(data[DEST_PORT_COL]));
-            timestamp = data[TIMESTAMP_COL].isEmpty() ? null : Double.parseDouble(data[TIMESTAMP_COL]);
-            size = data[IP_PACKET_SIZE_COL].isEmpty() ? null : Integer.parseInt(data[IP_PACKET_SIZE_COL]);
-        } catch (NumberFormatException e) {
-            System.out.println(e);
-            throw new IllegalArgumentException("Invalid data in tabDelimitedData");
+    /**
+     * @return true if text is empty or would be parsed by {@link Integer#parseInt(String)}
+     */
+    private static boolean isInteger(String text) {
+        int length = text.length();
+        int i = length > 0 && (text.charAt(0) == '-' || text.charAt(0) == '+') ? 1 : 0;
+        if (length == 0 || i == length) {
+            return length == 0;
+        }
+        long value = 0;
+        for (; i < length; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+            value = value * 10 + (c - '0');
+            if (value > Integer.MAX_VALUE + 1L) {
+                return false;
+            }
         }
+        return value <= Integer.MAX_VALUE || text.charAt(0) == '-';
+    }
 
+    /**
+     * Creates a new Packet from values that have already been parsed, e.g. from a binary capture file. The packet's tab
+     * delimited data isn't built unless it's asked for.
+     *
+     * @param lineIndex the index of the record this packet was read from
+     * @param timeNanos the time this packet was recorded in nanoseconds
+     * @param srcHost   this packet's source host
+     * @param destHost  this packet's destination host
+     * @param size      the size of this packet in bytes
+     */
+    public Packet(int lineIndex, long timeNanos, Host srcHost, Host destHost, Integer size) {
+        this.lineIndex = lineIndex;
+        this.timeNanos = timeNanos;
+        // Packets built from their values write every nanosecond of their timestamp
+        timeDigits = 9;
+        this.srcHost = srcHost;
+        this.destHost = destHost;
+        this.size = size;
     }
 
     /**
+     * Returns this packet's line as it was read, with any edited fields replaced. Only edited lines are built again.
+     *
      * @return a string of tab delimited data where the first eight elements are in the form "{@code
      * <id> <timestamp> <src ip> <src port> <dest ip> <dest port> <ethernet frame size> <IP
      * packet size}"
      */
     public String getTabDelimitedData() {
+        if (line == null) {
+            // This packet wasn't read from tab delimited data, so build it from the parsed values. It isn't kept, as
+            // every packet's text is built when a trace is indexed for searching.
+            String[] data = new String[MAX_COL + 1];
+            Arrays.fill(data, "");
+            data[ID_COL] = String.valueOf(lineIndex + 1);
+            data[TIMESTAMP_COL] = Timestamps.format(timeNanos, timeDigits);
+            data[SRC_IP_COL] = srcHost.getIp();
+            data[SRC_PORT_COL] = srcHost.getPort() != null ? String.valueOf(srcHost.getPort()) : "";
+            data[DEST_IP_COL] = destHost.getIp();
+            data[DEST_PORT_COL] = destHost.getPort() != null ? String.valueOf(destHost.getPort()) : "";
+            data[IP_PACKET_SIZE_COL] = size != null ? String.valueOf(size) : "";
+            return String.join("\t", data);
+        }
+        if (editedColumns == 0) {
+            return line;
+        }
+
+        // Splice the edited values into the fields of the line as it was read
+        String[] data = split(line);
+        if (isEdited(TIMESTAMP_COL)) {
+            // Written with at least as many decimal places as the line had, so the rest of the file's format is kept
+            data[TIMESTAMP_COL] = Timestamps.format(timeNanos, timeDigits);
+        }
+        if (isEdited(SRC_IP_COL)) {
+            data[SRC_IP_COL] = srcHost.getIp();
+        }
+        if (isEdited(DEST_IP_COL)) {
+            data[DEST_IP_COL] = destHost.getIp();
+        }
+        if (isEdited(IP_PACKET_SIZE_COL)) {
+            data[IP_PACKET_SIZE_COL] = String.valueOf(size);
+        }
         return String.join("\t", data);
     }
 
+    /**
+     * Splits a line into its first eight fields and the rest of the line, adding empty fields if it has fewer
+     */
+    private static String[] split(String line) {
+        // Split by hand, as String.split compiles a regex for "\\t" on every call
+        String[] data = new String[MAX_COL + 2];
+        int count = 0, start = 0, tab;
+        while (count < MAX_COL + 1 && (tab = line.indexOf('\t', start)) >= 0) {
+            data[count++] = line.substring(start, tab);
+            start = tab + 1;
+        }
+        data[count++] = line.substring(start);
+
+        // Extend all data so that it's length is at least 8, with empty strings
+        if (count < MAX_COL + 1) {
+            Arrays.fill(data, count, MAX_COL + 1, "");
+            count = MAX_COL + 1;
+        }
+        return count < data.length ? Arrays.copyOf(data, count) : data;
+    }
+
+    private void setEdited(int col) {
+        editedColumns |= 1 << col;
+    }
+
+    private boolean isEdited(int col) {
+        return (editedColumns & 1 << col) != 0;
+    }
+
+    /**
+     * @return true if this packet was read from a line of tab delimited data
+     */
+    boolean hasLine() {
+        return line != null;
+    }
+
+    /**
+     * @return a bit for each column of this packet's line that's been edited since it was read
+     */
+    int getEditedColumns() {
+        return editedColumns;
+    }
+
+    /**
+     * @return the number of decimal places this packet's timestamp is written with, or -1 if it has none
+     */
+    int getTimeDigits() {
+        return timeDigits;
+    }
+
 
     /**
      * @return this packet's source host
@@ -77,7 +287,7 @@ public class Packet implements TraceFileConstants {
      */
     public void setSourceHost(Host host) {
         srcHost = host;
-        data[SRC_IP_COL] = host.getIp();
+        setEdited(SRC_IP_COL);
     }
 
     /**
@@ -92,35 +302,35 @@ public class Packet implements TraceFileConstants {
      */
     public void setDestinationHost(Host host) {
         destHost = host;
-        data[DEST_IP_COL] = host.getIp();
+        setEdited(DEST_IP_COL);
     }
 
     /**
      * @return this packet's source host's ip
      */
     public String getSourceHostIP() {
-        return srcHost.getIp();
+        return getSourceHost().getIp();
     }
 
     /**
      * @return this packet's source host's port
      */
     public Integer getSourceHostPort() {
-        return srcHost.getPort();
+        return getSourceHost().getPort();
     }
 
     /**
      * @return this packet's destination host's ip
      */
     public String getDestinationHostIP() {
-        return destHost.getIp();
+        return getDestinationHost().getIp();
     }
 
     /**
      * @return this packet's destination host's port
      */
     public Integer getDestinationHostPort() {
-        return destHost.getPort();
+        return getDestinationHost().getPort();
     }
 
     /**
@@ -138,18 +348,40 @@ public class Packet implements TraceFileConstants {
     }
 
     /**
-     * @return this packets timestamp
+     * @return true if this packet's data included a timestamp
+     */
+    public boolean hasTimeStamp() {
+        return timeDigits >= 0;
+    }
+
+    /**
+     * @return this packets timestamp in seconds, or 0 if it has none
      */
     public double getTimeStamp() {
-        return timestamp;
+        return Timestamps.toSeconds(getTimeNanos());
     }
 
     /**
-     * @param time the timestamp this packet was recorded
+     * @return this packets timestamp in nanoseconds, exactly as it was written, or 0 if it has none
+     */
+    public long getTimeNanos() {
+        return timeNanos;
+    }
+
+    /**
+     * @param time the timestamp this packet was recorded in seconds
      */
     public void setTimeStamp(double time) {
-        this.timestamp = time;
-        data[TIMESTAMP_COL] = String.valueOf(time);
+        setTimeNanos(Timestamps.toNanos(time));
+    }
+
+    /**
+     * @param timeNanos the timestamp this packet was recorded in nanoseconds
+     */
+    public void setTimeNanos(long timeNanos) {
+        this.timeNanos = timeNanos;
+        timeDigits = (byte) Math.max(timeDigits, 0);
+        setEdited(TIMESTAMP_COL);
     }
 
     /**
@@ -164,12 +396,13 @@ public class Packet implements TraceFileConstants {
      */
     public void setIpPacketSize(Integer size) {
         this.size = size;
-        data[IP_PACKET_SIZE_COL] = String.valueOf(size);
+        setEdited(IP_PACKET_SIZE_COL);
     }
 
     @Override
     public String toString() {
-        return String.format("src=%s, dest=%s, timestamp=%.2f, size=%d", srcHost, destHost, timestamp, size);
+        return String.format("src=%s, dest=%s, timestamp=%.2f, size=%d", getSourceHost(), getDestinationHost(),
+                hasTimeStamp() ? getTimeStamp() : null, getIpPacketSize());
     }
 
 }
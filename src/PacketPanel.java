@@ -2,74 +2,145 @@ import javax.swing.*;
 import javax.swing.border.Border;
 import javax.swing.border.EtchedBorder;
 import javax.swing.border.TitledBorder;
+import javax.swing.event.PopupMenuEvent;
+import javax.swing.event.PopupMenuListener;
+import javax.swing.event.TableModelEvent;
 import javax.swing.event.TableModelListener;
+import javax.swing.table.TableRowSorter;
 import java.awt.*;
 import java.awt.event.ActionListener;
 import java.awt.event.ItemListener;
 import java.io.File;
-import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.Future;
 
 public class PacketPanel extends JPanel {
 
     private static FlowLayout BORDERED_PANEL_LAYOUT = new FlowLayout(FlowLayout.CENTER, 0, 0);
     private static Border BORDERED_PANEL_BORDER = BorderFactory.createEtchedBorder(EtchedBorder.LOWERED);
+    private static final double BYTES_PER_MB = 1024 * 1024;
+    private static final String[] BUCKET_WIDTH_NAMES = {"1 ms", "10 ms", "100 ms", "1 s", "10 s", "1 min"};
+    private static final double[] BUCKET_WIDTHS = {0.001, 0.01, 0.1, 1, 10, 60};
     private final String tablePanelName = "tablePanel";
     private final String loadingPanelName = "loadingPanel";
+    private final JLabel loadingLabel = new JLabel();
     private JLabel savingLabel = new JLabel("Changes saved");
+    private JLabel memoryLabel = new JLabel();
+    private JLabel loadLabel = new JLabel();
+    private JCheckBox followCheckBox = new JCheckBox("Follow");
+    private JComboBox<String> hostOrderComboBox = new JComboBox<>(new String[]{"Address", "Bytes", "Packets"});
 
     // Components for the packet browsing mode
     private JRadioButton browseRadioButton = new JRadioButton("Browse");
     private JRadioButton flowRadioButton = new JRadioButton("Flow");
-    private JComboBox<Object> browseComboBox = new JComboBox<>();
+    private JRadioButton flowsRadioButton = new JRadioButton("Flows");
+    private HostComboBox browseComboBox = new HostComboBox();
     private JRadioButton srcRadioButton = new JRadioButton("Source");
     private JRadioButton destRadioButton = new JRadioButton("Destination");
 
     // Components for the packet flow mode
-    private JComboBox<Object> flowSrcComboBox = new JComboBox<>();
-    private JComboBox<Object> flowDestComboBox = new JComboBox<>();
+    private HostComboBox flowSrcComboBox = new HostComboBox();
+    private HostComboBox flowDestComboBox = new HostComboBox();
+
+    // Components for the text search mode
+    private JRadioButton searchRadioButton = new JRadioButton("Search");
+    private JTextField searchField = new JTextField(12);
+
+    // Components for the flow summary mode
+    private JTable flowsTable = new JTable();
+    private JScrollPane flowsScrollPane = new JScrollPane(flowsTable);
+    private FlowTableModel flowModel;
+    private boolean isSummaryRefreshPending;
+
+    // Components for the throughput chart
+    private ThroughputChart throughputChart = new ThroughputChart();
+    private JComboBox<String> bucketWidthComboBox = new JComboBox<>(BUCKET_WIDTH_NAMES);
+    private JComboBox<String> throughputUnitComboBox = new JComboBox<>(new String[]{"Bytes", "Packets"});
+    private ThroughputSeries traceSeries, selectionSeries;
+    // Every packet matching the current selection, including those outside of the chart's time window
+    private List<Packet> selectedPackets = new ArrayList<>();
 
     // Components for packet filtering selection
     private JRadioButton ipFilterRadioButton = new JRadioButton("IP");
     private JRadioButton portFilterRadioButton = new JRadioButton("Port");
 
     // These models are duplicated for each filter mode so that their selection states are saved if the user
-    // switches between filter modes and also so that we don't have to regenerate them on every mode change
-    private DefaultComboBoxModel<Object> browseSrcIPComboBoxModel = new DefaultComboBoxModel<>();
-    private DefaultComboBoxModel<Object> browseDestIPComboBoxModel = new DefaultComboBoxModel<>();
-    private DefaultComboBoxModel<Object> browseSrcPortComboBoxModel = new DefaultComboBoxModel<>();
-    private DefaultComboBoxModel<Object> browseDestPortComboBoxModel = new DefaultComboBoxModel<>();
-
-    private DefaultComboBoxModel<Object> flowSrcIPComboBoxModel = new DefaultComboBoxModel<>();
-    private DefaultComboBoxModel<Object> flowDestIPComboBoxModel = new DefaultComboBoxModel<>();
-    private DefaultComboBoxModel<Object> flowSrcPortComboBoxModel = new DefaultComboBoxModel<>();
-    private DefaultComboBoxModel<Object> flowDestPortComboBoxModel = new DefaultComboBoxModel<>();
+    // switches between filter modes and also so that we don't have to regenerate them on every mode change. The
+    // models only list values as they're displayed, so they can be shared with the dataset however many there are.
+    private HostComboBoxModel browseSrcIPComboBoxModel = new HostComboBoxModel(false);
+    private HostComboBoxModel browseDestIPComboBoxModel = new HostComboBoxModel(false);
+    private HostComboBoxModel browseSrcPortComboBoxModel = new HostComboBoxModel(true);
+    private HostComboBoxModel browseDestPortComboBoxModel = new HostComboBoxModel(true);
+
+    private HostComboBoxModel flowSrcIPComboBoxModel = new HostComboBoxModel(false);
+    private HostComboBoxModel flowDestIPComboBoxModel = new HostComboBoxModel(false);
+    private HostComboBoxModel flowSrcPortComboBoxModel = new HostComboBoxModel(true);
+    private HostComboBoxModel flowDestPortComboBoxModel = new HostComboBoxModel(true);
+    // True if the models are empty because the dataset's lists of values haven't been built yet
+    private boolean areComboBoxOptionsDeferred;
 
     private File file;
+    private DatasetRegistry datasetRegistry;
+    private DatasetRegistry.Request loadRequest;
+    private boolean isLoadPriority;
+    private MemoryBudget memoryBudget;
+    private Dataset dataset;
+    // Summary of the data that was unloaded to stay within the memory budget
+    private boolean isEvicted;
+    private Object[] evictedSelections;
     private Simulator simulator;
-    private List<String> lines;
     private PacketTable packetTable = new PacketTable();
     private PacketTableModel model;
+    // The query for the current selection, if it's still running
+    private Future<Packet[]> pendingQuery;
     private CardLayout cards = new CardLayout();
     private Timer timer = new Timer(500, e -> savingLabel.setVisible(false));
+    private DatasetListener datasetListener = new DatasetListener() {
+        @Override
+        public void packetUpdated(Packet packet, Integer previousSize) {
+            // A packet was edited in another view of this panel's dataset
+            if (model != null) {
+                model.refresh();
+            }
+            updateThroughputSeries(packet, previousSize);
+            refreshSummaries();
+        }
+
+        @Override
+        public void packetsAppended(List<Packet> packets) {
+            addAppendedPackets(packets);
+        }
+
+        @Override
+        public void editableChanged(boolean isEditable) {
+            if (model != null) {
+                model.setEditable(isEditable);
+            }
+        }
+
+        @Override
+        public void fileReplaced() {
+            openFile(file);
+        }
+    };
     private TableModelListener tableModelListener = e -> {
 
-        // Ignore changes to the last two rows (sum and mean)
-        if (e.getFirstRow() >= model.getRowCount() - 2) {
+        // Ignore changes to the last two rows (sum and mean) and whole row refreshes
+        if (e.getFirstRow() >= model.getRowCount() - 2 || e.getColumn() == TableModelEvent.ALL_COLUMNS) {
             return;
         }
 
         // Write changes to each packet to the file
         Packet packet = model.getPacketAt(e.getFirstRow());
-        lines.set(packet.getLineIndex(), packet.getTabDelimitedData());
-        try {
-            Files.write(file.toPath(), lines, StandardCharsets.UTF_8);
-        } catch (IOException err) {
-            // Failed to write lines
-            System.out.println(err);
-        }
+        Integer previousSize = e instanceof PacketTableModel.SizeEditedEvent
+                ? ((PacketTableModel.SizeEditedEvent) e).getPreviousSize() : packet.getIpPacketSize();
+        dataset.updatePacket(packet, previousSize, datasetListener);
+        updateThroughputSeries(packet, previousSize);
+        refreshSummaries();
         savingLabel.setVisible(true);
         timer.restart();
     };
@@ -81,10 +152,14 @@ public class PacketPanel extends JPanel {
      * Note that loading of the file occurs in the background, so to indicate the file has been loaded a
      * PropertyChangeEvent for the property "packetTable" will be fired when it completes.
      *
-     * @param file the file to open and display in this panel's table
+     * @param file            the file to open and display in this panel's table
+     * @param datasetRegistry the registry to load files from
+     * @param memoryBudget    the budget this panel's packet data counts towards
      */
-    public PacketPanel(File file) {
+    public PacketPanel(File file, DatasetRegistry datasetRegistry, MemoryBudget memoryBudget) {
         this.file = file;
+        this.datasetRegistry = datasetRegistry;
+        this.memoryBudget = memoryBudget;
 
         setLayout(cards);
 
@@ -92,9 +167,9 @@ public class PacketPanel extends JPanel {
         tablePanel.setName(tablePanelName);
         add(tablePanel, tablePanelName);
 
-        // Setup a simple panel to be displayed while the file is loading
+        // Setup a simple panel to be displayed while the file is loading, or if it couldn't be loaded
         JPanel loadingPanel = new JPanel();
-        loadingPanel.add(new JLabel("Loading..."));
+        loadingPanel.add(loadingLabel);
         add(loadingPanel, loadingPanelName);
 
         cards.show(this, "fileLoadingPanel");
@@ -120,38 +195,227 @@ public class PacketPanel extends JPanel {
         if (file != null) {
             this.file = file;
             setName(file.getName());
+            loadingLabel.setText("Loading...");
             cards.show(this, loadingPanelName);
-            // Load file in the background
-            SwingWorker worker = new SwingWorker() {
-                @Override
-                protected Simulator doInBackground() {
-                    simulator = new Simulator(file);
-                    loadLines();
-                    loadComboBoxOptions();
-                    return simulator;
-                }
 
-                @Override
-                protected void done() {
-                    setFilterMode(ipFilterRadioButton.isSelected());
-                    cards.show(PacketPanel.this, tablePanelName);
-                    PacketPanel.this.firePropertyChange("packetTable", null, simulator);
+            // Any file that's still being loaded (or was unloaded) is no longer needed
+            if (loadRequest != null) {
+                loadRequest.cancel();
+            }
+            isEvicted = false;
+
+            // Load file in the background, or share it with any other panel that has the same file open
+            loadRequest = datasetRegistry.acquire(file, dataset -> {
+                loadRequest = null;
+                displayDataset(dataset);
+            }, error -> {
+                loadRequest = null;
+                showLoadError(error);
+            }, isLoadPriority);
+        }
+    }
+
+    private void showLoadError(Throwable error) {
+        // Any data that was shown before is released, as it's no longer what's in the file
+        releasePacketData();
+        memoryBudget.setUsage(this, null);
+        String message = error.getMessage() != null ? error.getMessage() : error.toString();
+        loadingLabel.setText("Failed to load " + file.getName() + ": " + message);
+        cards.show(this, loadingPanelName);
+    }
+
+    private void displayDataset(Dataset dataset) {
+        if (this.dataset != null) {
+            releasePacketData();
+        }
+        this.dataset = dataset;
+        dataset.addDatasetListener(datasetListener);
+        if (followCheckBox.isSelected()) {
+            dataset.startFollowing();
+        }
+        simulator = dataset.getSimulator();
+        long startTime = System.nanoTime();
+        loadComboBoxOptions(dataset);
+        PerformanceMetrics.getInstance().recordPhase(PerformanceMetrics.Phase.COMBO_BOXES,
+                System.nanoTime() - startTime);
+        setFlowTableModel(simulator);
+        updateThroughputSeries();
+
+        // Put the user back where they were if this file was unloaded while they weren't looking at it
+        if (evictedSelections != null) {
+            loadDeferredComboBoxOptions();
+            setComboBoxSelections(evictedSelections);
+            evictedSelections = null;
+        }
+
+        setFilterMode(ipFilterRadioButton.isSelected());
+        cards.show(PacketPanel.this, tablePanelName);
+        updateMemoryLabel();
+        updateLoadLabel();
+        followCheckBox.setEnabled(dataset.isFollowable());
+        PacketPanel.this.firePropertyChange("packetTable", null, simulator);
+        memoryBudget.setUsage(this, dataset);
+    }
+
+    private void updateMemoryLabel() {
+        String memory = String.format("Memory: %.1f MB", dataset.getMemoryUsage() / BYTES_PER_MB);
+        if (dataset.isOffHeap()) {
+            memory += String.format(" + %.1f MB off heap", dataset.getOffHeapUsage() / BYTES_PER_MB);
+        }
+        memoryLabel.setText(memory);
+        DistinctCounts distinctCounts = simulator.getDistinctCounts();
+        memoryLabel.setToolTipText(String.format("%,d packets, about %,d source and %,d destination ips",
+                simulator.getValidIPPackets().size(), distinctCounts.getEstimate(TopTalkers.Dimension.SRC_IP),
+                distinctCounts.getEstimate(TopTalkers.Dimension.DEST_IP)));
+    }
+
+    private void updateLoadLabel() {
+        // Report throughput in terms of the text that was parsed, so that compressed and plain text files can be
+        // compared directly
+        double seconds = dataset.getLoadTimeNanos() / 1e9;
+        double megabytes = dataset.getLoadedBytes() / BYTES_PER_MB;
+        double throughput = seconds > 0 ? megabytes / seconds : 0;
+        loadLabel.setText(String.format("Loaded in %.2f s (%.1f MB/s)", seconds, throughput));
+        String fileType = dataset.isPcap() ? "a pcap" : dataset.isCompressed() ? "a gzip compressed" : "a plain text";
+        loadLabel.setToolTipText(String.format("%.1f MB read from %s file, %,d lines rejected", megabytes, fileType,
+                simulator.getRejectedLines().getTotal()));
+    }
+
+    private void addAppendedPackets(List<Packet> packets) {
+        // Work out which packets belong in the table before the combo boxes are changed
+        List<Packet> matchingPackets = new ArrayList<>();
+        for (Packet packet : packets) {
+            if (isSelected(packet)) {
+                selectedPackets.add(packet);
+                selectionSeries.add(packet);
+                if (isInTimeWindow(packet)) {
+                    matchingPackets.add(packet);
                 }
-            };
-            worker.execute();
+            }
+        }
+
+        // The dataset has already added any new hosts and ports to the values the combo boxes list, and lists that
+        // haven't been built yet will include them when they are
+        PacketTableModel previousModel = model;
+        if (!areComboBoxOptionsDeferred) {
+            getComboBoxModels().forEach(HostComboBoxModel::valuesChanged);
+        }
+
+        // Selecting the first item of an empty combo box displays its packets, new ones included, so the table only
+        // needs to be extended if that didn't happen
+        if (model == previousModel) {
+            model.addPackets(matchingPackets);
+        }
+        refreshFlows();
+        packets.forEach(traceSeries::add);
+        throughputChart.seriesChanged();
+        updateMemoryLabel();
+        memoryBudget.setUsage(this, dataset);
+    }
+
+    /**
+     * Returns true if the given packet would be displayed for the current selection, i.e. if it matches the query made
+     * by {@link #displaySelectedData()}.
+     */
+    private boolean isSelected(Packet packet) {
+        if (flowsRadioButton.isSelected()) {
+            int row = flowsTable.getSelectedRow();
+            return row >= 0 && flowModel.isInFlow(flowsTable.convertRowIndexToModel(row), packet);
+        } else if (searchRadioButton.isSelected()) {
+            String term = searchField.getText();
+            return !term.isEmpty() && NGramIndex.contains(packet.getTabDelimitedData(), term);
+        }
+
+        PacketQuery query = getSelectedQuery();
+        return query != null && query.matches(packet);
+    }
+
+    /**
+     * Marks this panel as being viewed, reloading its packet data if it was unloaded to stay within the memory budget.
+     * The data is restored immediately if it's still cached, otherwise the file is read again in the background.
+     */
+    public void ensureLoaded() {
+        memoryBudget.touch(this);
+        if (isEvicted && loadRequest == null) {
+            openFile(file);
+        }
+    }
+
+    /**
+     * Unloads this panel's packet data to free memory, keeping only a summary of it. Calling {@link #ensureLoaded()}
+     * will load the data again.
+     */
+    public void evict() {
+        if (dataset == null) {
+            return;
+        }
+
+        // Remember what was selected so that it can be restored when the data is reloaded
+        evictedSelections = getComboBoxSelections();
+
+        isEvicted = true;
+        memoryLabel.setText("Memory: unloaded");
+        memoryLabel.setToolTipText(String.format("%,d packets, %.1f MB when loaded",
+                simulator.getValidIPPackets().size(), dataset.getMemoryUsage() / BYTES_PER_MB));
+        releasePacketData();
+        memoryBudget.setUsage(this, null);
+    }
+
+    private void releasePacketData() {
+        cancelPendingQuery();
+        if (dataset != null) {
+            // The registry keeps the dataset cached until the memory is needed, so it can be restored quickly
+            if (followCheckBox.isSelected()) {
+                dataset.stopFollowing();
+            }
+            dataset.removeDatasetListener(datasetListener);
+            datasetRegistry.release(dataset);
+            dataset = null;
+        }
+        simulator = null;
+        loadComboBoxOptions(null);
+        setFlowTableModel(null);
+        selectedPackets = new ArrayList<>();
+        updateThroughputSeries();
+        setTableModel(null, true);
+    }
+
+    /**
+     * Sets whether this panel's file should be loaded before those of other panels, e.g. because this panel is the
+     * one currently being displayed. This has no effect if the file has already started loading.
+     *
+     * @param isLoadPriority true to load this panel's file before those of other panels
+     */
+    public void setLoadPriority(boolean isLoadPriority) {
+        this.isLoadPriority = isLoadPriority;
+        if (loadRequest != null) {
+            loadRequest.setHighPriority(isLoadPriority);
         }
     }
 
-    private void loadLines() {
-        try {
-            lines = Files.readAllLines(file.toPath());
-        } catch (IOException e) {
-            // Failed to read file
-            System.out.println(e);
+    /**
+     * Cancels any file that is still being loaded and releases this panel's packet data. This panel should not be
+     * used after it has been closed.
+     */
+    public void close() {
+        if (loadRequest != null) {
+            loadRequest.cancel();
+            loadRequest = null;
         }
+        isEvicted = false;
+        releasePacketData();
+        memoryBudget.remove(this);
     }
 
     private void setTableModel(Packet[] packets, boolean isSrcHosts) {
+        // Chart all of the selected packets, but only show those in the chart's time window in the table
+        selectedPackets = packets != null ? new ArrayList<>(Arrays.asList(packets)) : new ArrayList<>();
+        selectionSeries = new ThroughputSeries(selectedPackets, BUCKET_WIDTHS[bucketWidthComboBox.getSelectedIndex()]);
+        throughputChart.setSelectionSeries(selectionSeries);
+        if (packets != null && throughputChart.getTimeWindow() != null) {
+            packets = Arrays.stream(packets).filter(this::isInTimeWindow).toArray(Packet[]::new);
+        }
+
         if (packets != null) {
             model = new PacketTableModel(packets, isSrcHosts);
         } else {
@@ -159,53 +423,154 @@ public class PacketPanel extends JPanel {
             model = new PacketTableModel(new Packet[0], isSrcHosts);
         }
 
+        model.setEditable(dataset == null || dataset.isEditable());
         model.addTableModelListener(tableModelListener);
         packetTable.setModel(model);
     }
 
     private void displaySelectedData() {
-        if (browseRadioButton.isSelected()) {
-            displaySelectedHostData();
+        // A query that's still running is for a selection that has since been replaced
+        cancelPendingQuery();
+        if (searchRadioButton.isSelected()) {
+            displaySearchResults();
+        } else if (flowsRadioButton.isSelected()) {
+            // Drill down into the packets of the selected flow
+            displayQueryResults(getSelectedFlowQuery(), true);
         } else {
-            displaySelectedPacketFlowData();
+            displayQueryResults(getSelectedQuery(), flowRadioButton.isSelected() || srcRadioButton.isSelected());
         }
     }
 
-    private void displaySelectedHostData() {
-        Packet[] packets = null;
-        boolean isSrcHosts = srcRadioButton.isSelected();
+    private void displayQueryResults(PacketQuery query, boolean isSrcHosts) {
+        if (query == null || dataset == null) {
+            setTableModel(null, isSrcHosts);
+            return;
+        }
 
-        if (ipFilterRadioButton.isSelected()) {
-            String hostIP = (String) browseComboBox.getSelectedItem();
-            if (hostIP != null) {
-                packets = simulator.getTableData(hostIP, isSrcHosts);
-            }
-        } else {
-            Integer hostPort = (Integer) browseComboBox.getSelectedItem();
-            if (hostPort != null) {
-                packets = simulator.getTableData(hostPort, isSrcHosts);
-            }
+        // Scanning a large trace can take a while, so the table keeps showing the previous selection until it's done
+        long startTime = System.nanoTime();
+        packetTable.setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+        pendingQuery = dataset.query(query, packets -> {
+            pendingQuery = null;
+            packetTable.setCursor(null);
+            setTableModel(packets, isSrcHosts);
+            PerformanceMetrics.getInstance().recordLatency(PerformanceMetrics.Operation.QUERY,
+                    System.nanoTime() - startTime);
+        });
+    }
+
+    private void cancelPendingQuery() {
+        if (pendingQuery != null) {
+            pendingQuery.cancel(true);
+            pendingQuery = null;
+            packetTable.setCursor(null);
         }
-        setTableModel(packets, isSrcHosts);
     }
 
-    private void displaySelectedPacketFlowData() {
-        Packet[] packets = null;
+    /**
+     * @return the query for the packets selected in the browse or flow mode, or null if no host is selected
+     */
+    private PacketQuery getSelectedQuery() {
+        // The combo boxes list ips or ports depending on the filter mode, so their items are already the right type
+        if (browseRadioButton.isSelected()) {
+            Object host = browseComboBox.getSelectedItem();
+            return host != null ? PacketQuery.forHost(host, srcRadioButton.isSelected()) : null;
+        }
+        Object srcHost = flowSrcComboBox.getSelectedItem();
+        Object destHost = flowDestComboBox.getSelectedItem();
+        return srcHost != null && destHost != null ? PacketQuery.forFlow(srcHost, destHost) : null;
+    }
 
-        if (ipFilterRadioButton.isSelected()) {
-            String srcIP = (String) flowSrcComboBox.getSelectedItem();
-            String destIP = (String) flowDestComboBox.getSelectedItem();
-            if (srcIP != null && destIP != null) {
-                packets = simulator.getPacketFlowTableData(srcIP, destIP);
-            }
-        } else {
-            Integer srcPort = (Integer) flowSrcComboBox.getSelectedItem();
-            Integer destPort = (Integer) flowDestComboBox.getSelectedItem();
-            if (srcPort != null && destPort != null) {
-                packets = simulator.getPacketFlowTableData(srcPort, destPort);
-            }
+    private void displaySearchResults() {
+        String term = searchField.getText();
+        if (dataset == null || term.isEmpty()) {
+            setTableModel(null, true);
+            return;
+        }
+
+        // Searches scan every packet if they're made before the dataset's search index has been built (or it has
+        // none), so like queries they run in the background and the table keeps showing the previous results
+        long startTime = System.nanoTime();
+        packetTable.setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+        pendingQuery = dataset.search(term, packets -> {
+            pendingQuery = null;
+            packetTable.setCursor(null);
+            setTableModel(packets, true);
+            PerformanceMetrics.getInstance().recordLatency(PerformanceMetrics.Operation.SEARCH,
+                    System.nanoTime() - startTime);
+        });
+    }
+
+    /**
+     * @return the query for the packets of the flow selected in the flows mode, or null if no flow is selected
+     */
+    private PacketQuery getSelectedFlowQuery() {
+        int row = flowsTable.getSelectedRow();
+        return row >= 0 ? flowModel.getQuery(flowsTable.convertRowIndexToModel(row)) : null;
+    }
+
+    private void setFlowTableModel(Simulator simulator) {
+        // Keep the user's sort order when the model is replaced, or show the busiest flows first
+        List<? extends RowSorter.SortKey> sortKeys = flowsTable.getRowSorter() != null
+                ? flowsTable.getRowSorter().getSortKeys()
+                : Collections.singletonList(new RowSorter.SortKey(FlowTableModel.BYTES_COL, SortOrder.DESCENDING));
+
+        flowModel = new FlowTableModel(simulator);
+        flowsTable.setModel(flowModel);
+        refreshFlows();
+
+        // Sort ips numerically rather than as text
+        TableRowSorter<FlowTableModel> sorter = new TableRowSorter<>(flowModel);
+        Comparator<String> ipOrder = Comparator.comparingLong(ip -> Host.packIP(ip) & 0xFFFFFFFFL);
+        sorter.setComparator(FlowTableModel.SRC_COL, ipOrder);
+        sorter.setComparator(FlowTableModel.DEST_COL, ipOrder);
+        sorter.setSortKeys(sortKeys);
+        flowsTable.setRowSorter(sorter);
+    }
+
+    private void refreshFlows() {
+        // The flow table is only rebuilt after an edit when the flows are shown, and is brought up to date when they are
+        if (flowsRadioButton.isSelected()) {
+            flowModel.refresh();
         }
-        setTableModel(packets, true);
+    }
+
+    private void refreshSummaries() {
+        // Coalesce a burst of edits (e.g. a paste into many cells) into a single rebuild of the flow table
+        if (!isSummaryRefreshPending) {
+            isSummaryRefreshPending = true;
+            SwingUtilities.invokeLater(() -> {
+                isSummaryRefreshPending = false;
+                refreshFlows();
+            });
+        }
+    }
+
+    private void updateThroughputSeries(Packet packet, Integer previousSize) {
+        // Only the edited packet's bucket changes, so the series are adjusted rather than counted again. Edits only
+        // change sizes, so the packet is still in the same bucket and in the same selection.
+        if (traceSeries != null) {
+            traceSeries.updateSize(packet, previousSize);
+        }
+        if (selectionSeries != null && isSelected(packet)) {
+            selectionSeries.updateSize(packet, previousSize);
+        }
+        throughputChart.seriesChanged();
+    }
+
+    private void updateThroughputSeries() {
+        double bucketWidth = BUCKET_WIDTHS[bucketWidthComboBox.getSelectedIndex()];
+        traceSeries = simulator != null ? new ThroughputSeries(simulator.getValidIPPackets(), bucketWidth) : null;
+        selectionSeries = new ThroughputSeries(selectedPackets, bucketWidth);
+        throughputChart.setTraceSeries(traceSeries);
+        throughputChart.setSelectionSeries(selectionSeries);
+        throughputChart.setDistinctCounts(simulator != null ? simulator.getDistinctCounts() : null);
+    }
+
+    private boolean isInTimeWindow(Packet packet) {
+        long[] window = throughputChart.getTimeWindow();
+        return window == null || packet.hasTimeStamp() && packet.getTimeNanos() >= window[0]
+                && packet.getTimeNanos() < window[1];
     }
 
     private void setFilterMode(boolean filterByIP) {
@@ -221,23 +586,157 @@ public class PacketPanel extends JPanel {
         displaySelectedData();
     }
 
-    private void loadComboBoxOptions() {
-        String[] srcIPs = simulator.getUniqueSortedSourceHostIPs();
-        String[] destIPs = simulator.getUniqueSortedDestHostIPs();
+    private void loadComboBoxOptions(Dataset dataset) {
+        // Traces with a huge number of values only list them once a combo box is opened
+        areComboBoxOptionsDeferred = dataset != null && !dataset.hasValueLists();
+        if (areComboBoxOptionsDeferred) {
+            dataset = null;
+        }
 
         // Create independent models for each view mode so that their associated combo boxes can remember their state
-        browseSrcIPComboBoxModel = new DefaultComboBoxModel<>(srcIPs);
-        browseDestIPComboBoxModel = new DefaultComboBoxModel<>(destIPs);
-        flowSrcIPComboBoxModel = new DefaultComboBoxModel<>(srcIPs);
-        flowDestIPComboBoxModel = new DefaultComboBoxModel<>(destIPs);
+        browseSrcIPComboBoxModel = createComboBoxModel(dataset, TopTalkers.Dimension.SRC_IP);
+        browseDestIPComboBoxModel = createComboBoxModel(dataset, TopTalkers.Dimension.DEST_IP);
+        flowSrcIPComboBoxModel = createComboBoxModel(dataset, TopTalkers.Dimension.SRC_IP);
+        flowDestIPComboBoxModel = createComboBoxModel(dataset, TopTalkers.Dimension.DEST_IP);
+
+        browseSrcPortComboBoxModel = createComboBoxModel(dataset, TopTalkers.Dimension.SRC_PORT);
+        browseDestPortComboBoxModel = createComboBoxModel(dataset, TopTalkers.Dimension.DEST_PORT);
+        flowSrcPortComboBoxModel = createComboBoxModel(dataset, TopTalkers.Dimension.SRC_PORT);
+        flowDestPortComboBoxModel = createComboBoxModel(dataset, TopTalkers.Dimension.DEST_PORT);
+    }
 
-        Integer[] srcPorts = simulator.getUniqueSortedSourceHostPorts();
-        Integer[] destPorts = simulator.getUniqueSortedDestHostPorts();
+    /**
+     * Lists the values of a dimension of the dataset in address order, or puts the values that were counted by the
+     * dataset's top talkers first, busiest first, followed by the rest in address order. Every value is ordered by
+     * volume unless there were too many to count exactly.
+     */
+    private HostComboBoxModel createComboBoxModel(Dataset dataset, TopTalkers.Dimension dimension) {
+        if (dataset == null) {
+            return new HostComboBoxModel(dimension.isPort());
+        }
+        List<Object> busiestValues = null;
+        if (hostOrderComboBox.getSelectedIndex() != 0) {
+            boolean isBytes = hostOrderComboBox.getSelectedIndex() == 1;
+            busiestValues = new ArrayList<>();
+            for (TopTalkers.Entry entry : dataset.getSimulator().getTopTalkers().getTop(dimension, isBytes)) {
+                busiestValues.add(entry.getValue());
+            }
+        }
+        return new HostComboBoxModel(dataset.getHostValues(dimension), busiestValues);
+    }
 
-        browseSrcPortComboBoxModel = new DefaultComboBoxModel<>(srcPorts);
-        browseDestPortComboBoxModel = new DefaultComboBoxModel<>(destPorts);
-        flowSrcPortComboBoxModel = new DefaultComboBoxModel<>(srcPorts);
-        flowDestPortComboBoxModel = new DefaultComboBoxModel<>(destPorts);
+    private List<HostComboBoxModel> getComboBoxModels() {
+        return Arrays.asList(browseSrcIPComboBoxModel, browseDestIPComboBoxModel, flowSrcIPComboBoxModel,
+                flowDestIPComboBoxModel, browseSrcPortComboBoxModel, browseDestPortComboBoxModel,
+                flowSrcPortComboBoxModel, flowDestPortComboBoxModel);
+    }
+
+    private Object[] getComboBoxSelections() {
+        return getComboBoxModels().stream().map(HostComboBoxModel::getSelectedItem).toArray();
+    }
+
+    private void setComboBoxSelections(Object[] selections) {
+        List<HostComboBoxModel> models = getComboBoxModels();
+        for (int i = 0; i < models.size(); i++) {
+            if (selections[i] != null && models.get(i).indexOf(selections[i]) >= 0) {
+                models.get(i).setSelectedItem(selections[i]);
+            }
+        }
+    }
+
+    private void loadDeferredComboBoxOptions() {
+        if (areComboBoxOptionsDeferred && dataset != null) {
+            setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+            dataset.loadValueLists();
+            reorderComboBoxOptions();
+            setCursor(null);
+        }
+    }
+
+    private void reorderComboBoxOptions() {
+        if (dataset != null) {
+            Object[] selections = getComboBoxSelections();
+            loadComboBoxOptions(dataset);
+            setComboBoxSelections(selections);
+            setFilterMode(ipFilterRadioButton.isSelected());
+        }
+    }
+
+    /**
+     * Opens a window listing the busiest hosts, ports and pairs of them in this panel's file. Does nothing if the file
+     * isn't loaded.
+     */
+    public void showTopTalkers() {
+        if (simulator != null) {
+            new TopTalkersDialog(SwingUtilities.getWindowAncestor(this), "Top talkers - " + getName(), simulator,
+                    this::showPackets).setVisible(true);
+        }
+    }
+
+    /**
+     * Opens a window listing the lines of this panel's file that weren't valid ip packets, by the reason they were
+     * rejected. Does nothing if the file isn't loaded.
+     */
+    public void showRejectedLines() {
+        if (simulator != null) {
+            new RejectedLinesDialog(SwingUtilities.getWindowAncestor(this), "Rejected lines - " + getName(),
+                    simulator.getRejectedLines(), file.getParentFile()).setVisible(true);
+        }
+    }
+
+    /**
+     * Asks for a file and writes the lines of the packets shown in the table to it, exactly as they appear in this
+     * panel's file. Does nothing if the file isn't loaded.
+     */
+    public void exportMatchingLines() {
+        if (dataset == null) {
+            return;
+        }
+        List<Packet> packets = model.getPackets();
+
+        JFileChooser chooser = new JFileChooser(file.getParentFile());
+        chooser.setDialogTitle(String.format("Export %,d matching lines to...", packets.size()));
+        if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        File output = chooser.getSelectedFile();
+        if (output.getAbsoluteFile().equals(file.getAbsoluteFile())) {
+            JOptionPane.showMessageDialog(this, "Lines can't be exported to the file they're read from.",
+                    App.APP_NAME, JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        if (output.exists() && JOptionPane.showConfirmDialog(this, output.getName() + " already exists. Replace it?",
+                App.APP_NAME, JOptionPane.YES_NO_OPTION) != JOptionPane.YES_OPTION) {
+            return;
+        }
+
+        setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+        dataset.exportLines(packets, output, count -> {
+            setCursor(null);
+            if (count == null) {
+                JOptionPane.showMessageDialog(this, "The lines couldn't be exported to " + output.getName() + ".",
+                        App.APP_NAME, JOptionPane.ERROR_MESSAGE);
+            }
+        });
+    }
+
+    private void showPackets(TopTalkers.Dimension dimension, Object value) {
+        if (simulator == null) {
+            return;
+        }
+        loadDeferredComboBoxOptions();
+        (dimension.isPort() ? portFilterRadioButton : ipFilterRadioButton).setSelected(true);
+        if (dimension.isPair()) {
+            List<?> pair = (List<?>) value;
+            flowRadioButton.setSelected(true);
+            flowSrcComboBox.setSelectedItem(pair.get(0));
+            flowDestComboBox.setSelectedItem(pair.get(1));
+        } else {
+            browseRadioButton.setSelected(true);
+            boolean isSrc = dimension == TopTalkers.Dimension.SRC_IP || dimension == TopTalkers.Dimension.SRC_PORT;
+            (isSrc ? srcRadioButton : destRadioButton).setSelected(true);
+            browseComboBox.setSelectedItem(value);
+        }
     }
 
     private class BorderedPanel extends JPanel {
@@ -318,9 +817,17 @@ public class PacketPanel extends JPanel {
             selectionModePanel.add(portFilterRadioButton);
             topPanel.add(selectionModePanel);
 
+            BorderedPanel orderPanel = new BorderedPanel("Order hosts by...");
+            orderPanel.add(hostOrderComboBox);
+            hostOrderComboBox.setToolTipText("Order the hosts and ports to choose from by address, or busiest first");
+            hostOrderComboBox.addActionListener(e -> reorderComboBoxOptions());
+            topPanel.add(orderPanel);
+
             BorderedPanel modePanel = new BorderedPanel("Mode");
             modePanel.add(browseRadioButton);
             modePanel.add(flowRadioButton);
+            modePanel.add(flowsRadioButton);
+            modePanel.add(searchRadioButton);
             topPanel.add(modePanel);
 
             DisableablePanel browsePanel = new DisableablePanel("Browse packets from...");
@@ -336,6 +843,39 @@ public class PacketPanel extends JPanel {
             flowPanel.setEnabled(false);
             topPanel.add(flowPanel);
 
+            // Setup a text field to search every line for a term, which switches to the search mode when entered
+            BorderedPanel searchPanel = new BorderedPanel("Search lines for...");
+            searchPanel.add(searchField);
+            topPanel.add(searchPanel);
+            searchField.setToolTipText("Show the packets whose line contains this text (ignoring case)");
+            searchField.addActionListener(e -> {
+                if (searchRadioButton.isSelected()) {
+                    displaySelectedData();
+                } else {
+                    searchRadioButton.setSelected(true);
+                }
+            });
+
+            // Setup a check box to follow data as it's appended to the file
+            BorderedPanel filePanel = new BorderedPanel("File");
+            filePanel.add(followCheckBox);
+            topPanel.add(filePanel);
+            followCheckBox.setToolTipText("Show packets as they're appended to the file (editing is disabled while "
+                    + "following)");
+            followCheckBox.addItemListener(e -> {
+                if (dataset != null) {
+                    if (followCheckBox.isSelected()) {
+                        dataset.startFollowing();
+                    } else {
+                        dataset.stopFollowing();
+                    }
+                }
+            });
+
+            // Show how long the file took to load and an estimate of how much memory this panel's packet data is using
+            topPanel.add(loadLabel);
+            topPanel.add(memoryLabel);
+
             // Setup a very basic saving indicator
             savingLabel.setVisible(false);
             topPanel.add(savingLabel);
@@ -344,16 +884,23 @@ public class PacketPanel extends JPanel {
             ButtonGroup modeButtonGroup = new ButtonGroup();
             modeButtonGroup.add(browseRadioButton);
             modeButtonGroup.add(flowRadioButton);
+            modeButtonGroup.add(flowsRadioButton);
+            modeButtonGroup.add(searchRadioButton);
             browseRadioButton.setSelected(true);
 
             ItemListener modeRadioButtonListener = e -> {
+                refreshFlows();
                 displaySelectedData();
                 flowPanel.setEnabled(flowRadioButton.isSelected());
                 browsePanel.setEnabled(browseRadioButton.isSelected());
+                flowsScrollPane.setVisible(flowsRadioButton.isSelected());
+                revalidate();
             };
 
             flowRadioButton.addItemListener(modeRadioButtonListener);
             browseRadioButton.addItemListener(modeRadioButtonListener);
+            flowsRadioButton.addItemListener(modeRadioButtonListener);
+            searchRadioButton.addItemListener(modeRadioButtonListener);
 
             // Setup radio buttons to select the filter to select packets by
             ButtonGroup filterButtonGroup = new ButtonGroup();
@@ -389,6 +936,25 @@ public class PacketPanel extends JPanel {
             flowSrcComboBox.addActionListener(modeComboBoxListener);
             flowDestComboBox.addActionListener(modeComboBoxListener);
 
+            // Build the lists of hosts and ports if they were put off while loading a trace with a huge number of them
+            PopupMenuListener deferredOptionsListener = new PopupMenuListener() {
+                @Override
+                public void popupMenuWillBecomeVisible(PopupMenuEvent e) {
+                    loadDeferredComboBoxOptions();
+                }
+
+                @Override
+                public void popupMenuWillBecomeInvisible(PopupMenuEvent e) {
+                }
+
+                @Override
+                public void popupMenuCanceled(PopupMenuEvent e) {
+                }
+            };
+            browseComboBox.addPopupMenuListener(deferredOptionsListener);
+            flowSrcComboBox.addPopupMenuListener(deferredOptionsListener);
+            flowDestComboBox.addPopupMenuListener(deferredOptionsListener);
+
             // Setup packet table
             JPanel packetTablePanel = new JPanel();
             packetTablePanel.setBorder(BorderFactory.createEmptyBorder(0, 8, 8, 8));
@@ -396,6 +962,39 @@ public class PacketPanel extends JPanel {
             JScrollPane packetTableScrollPane = new JScrollPane(packetTable);
             packetTablePanel.add(packetTableScrollPane);
 
+            // Setup a sortable table of flows above the packet table, which shows the packets of the selected flow
+            flowsRadioButton.setToolTipText("Summarise every flow between a source ip and port and a destination ip "
+                    + "and port");
+            flowsTable.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+            flowsTable.getSelectionModel().addListSelectionListener(e -> {
+                if (!e.getValueIsAdjusting() && flowsRadioButton.isSelected()) {
+                    displaySelectedData();
+                }
+            });
+            flowsScrollPane.setPreferredSize(new Dimension(0, 200));
+            flowsScrollPane.setVisible(false);
+            packetTablePanel.add(flowsScrollPane, BorderLayout.NORTH);
+
+            // Setup a chart of the packets or bytes over time below the packet table, which can be clicked to only
+            // show the packets in a window of time
+            JPanel throughputControlPanel = new JPanel();
+            throughputControlPanel.setLayout(new BoxLayout(throughputControlPanel, BoxLayout.Y_AXIS));
+            throughputControlPanel.add(new JLabel("Bucket width"));
+            throughputControlPanel.add(bucketWidthComboBox);
+            throughputControlPanel.add(new JLabel("Show"));
+            throughputControlPanel.add(throughputUnitComboBox);
+            bucketWidthComboBox.setSelectedIndex(Arrays.asList(BUCKET_WIDTH_NAMES).indexOf("1 s"));
+            bucketWidthComboBox.addActionListener(e -> updateThroughputSeries());
+            throughputUnitComboBox.addActionListener(e -> throughputChart.setBytes(
+                    throughputUnitComboBox.getSelectedIndex() == 0));
+            throughputChart.addPropertyChangeListener("timeWindow", e -> displaySelectedData());
+
+            JPanel throughputPanel = new JPanel(new BorderLayout(8, 0));
+            throughputPanel.setBorder(BorderFactory.createEmptyBorder(8, 0, 0, 0));
+            throughputPanel.add(throughputControlPanel, BorderLayout.WEST);
+            throughputPanel.add(throughputChart);
+            packetTablePanel.add(throughputPanel, BorderLayout.SOUTH);
+
             add(topPanel);
             add(packetTablePanel);
         }
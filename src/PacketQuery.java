@@ -0,0 +1,158 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+
+/**
+ * A query for the packets sent from or to a host, or between two hosts, where hosts are either ip addresses or port
+ * numbers, or for the packets of a flow between an ip and port and another. These are the queries made by a
+ * PacketPanel's browse, flow and flows modes.
+ * <p>
+ * Queries are compared by value so that their results can be cached, and they only read the source and destination
+ * hosts of packets, which can't be edited, so a query's results never change unless packets are added.
+ */
+public final class PacketQuery {
+
+    // How many packets are checked between checks for cancellation
+    private static final int CANCELLATION_INTERVAL = 1 << 16;
+
+    private final boolean isFlow, isSrcHost;
+    // Ips are Strings and ports are Integers. Queries for a single host only have a source.
+    private final Object src, dest;
+    // Queries for the flows of a flow table match ips and ports together, where a null port matches packets without one
+    private final boolean hasPorts;
+    private final Integer srcPort, destPort;
+
+    private PacketQuery(boolean isFlow, boolean isSrcHost, Object src, Object dest) {
+        this(isFlow, isSrcHost, src, dest, false, null, null);
+    }
+
+    private PacketQuery(boolean isFlow, boolean isSrcHost, Object src, Object dest, boolean hasPorts,
+                        Integer srcPort, Integer destPort) {
+        this.isFlow = isFlow;
+        this.isSrcHost = isSrcHost;
+        this.src = Objects.requireNonNull(src);
+        this.dest = dest;
+        this.hasPorts = hasPorts;
+        this.srcPort = srcPort;
+        this.destPort = destPort;
+    }
+
+    /**
+     * Creates a query for the packets sent from or to a host, as {@link Simulator#getTableData(String, boolean)} and
+     * {@link Simulator#getTableData(Integer, boolean)} do.
+     *
+     * @param host      the ip address (a String) or port number (an Integer) of the host
+     * @param isSrcHost true to match packets sent from the host, otherwise false to match packets sent to it
+     * @return the new query
+     */
+    public static PacketQuery forHost(Object host, boolean isSrcHost) {
+        return new PacketQuery(false, isSrcHost, host, null);
+    }
+
+    /**
+     * Creates a query for the packets sent from one host to another, as
+     * {@link Simulator#getPacketFlowTableData(String, String)} and
+     * {@link Simulator#getPacketFlowTableData(Integer, Integer)} do.
+     *
+     * @param srcHost  the ip address (a String) or port number (an Integer) of the source host
+     * @param destHost the ip address or port number of the destination host, which must be the same type as srcHost
+     * @return the new query
+     */
+    public static PacketQuery forFlow(Object srcHost, Object destHost) {
+        return new PacketQuery(true, true, srcHost, Objects.requireNonNull(destHost));
+    }
+
+    /**
+     * Creates a query for the packets of a flow in a {@link FlowTable}, i.e. whose source and destination ip addresses
+     * and port numbers all match, as {@link Simulator#getFlowTableData(String, Integer, String, Integer)} does.
+     *
+     * @param srcIP    the source ip address
+     * @param srcPort  the source port number, or null to match packets with no source port
+     * @param destIP   the destination ip address
+     * @param destPort the destination port number, or null to match packets with no destination port
+     * @return the new query
+     */
+    public static PacketQuery forFlow(String srcIP, Integer srcPort, String destIP, Integer destPort) {
+        return new PacketQuery(true, true, srcIP, Objects.requireNonNull(destIP), true, srcPort, destPort);
+    }
+
+    /**
+     * @param packet the packet to check
+     * @return true if the packet matches this query
+     */
+    public boolean matches(Packet packet) {
+        if (hasPorts) {
+            return packet.getSourceHostIP().equals(src) && packet.getDestinationHostIP().equals(dest)
+                    && Objects.equals(packet.getSourceHostPort(), srcPort)
+                    && Objects.equals(packet.getDestinationHostPort(), destPort);
+        }
+        if (src instanceof Integer) {
+            // As with the Simulator, ports are only matched for packets that have both
+            if (!Simulator.hasValidPortData(packet)) {
+                return false;
+            }
+            if (isFlow) {
+                return packet.getSourceHostPort().equals(src) && packet.getDestinationHostPort().equals(dest);
+            }
+            return (isSrcHost ? packet.getSourceHostPort() : packet.getDestinationHostPort()).equals(src);
+        }
+        if (isFlow) {
+            return packet.getSourceHostIP().equals(src) && packet.getDestinationHostIP().equals(dest);
+        }
+        return (isSrcHost ? packet.getSourceHostIP() : packet.getDestinationHostIP()).equals(src);
+    }
+
+    /**
+     * Finds the packets matching this query. This may take a long time for large traces, so it can be cancelled by
+     * interrupting the thread running it.
+     *
+     * @param packets the packets to search, which should be a random access list
+     * @return the matching packets, in the same order as they were given
+     * @throws CancellationException the thread running the query was interrupted
+     */
+    public Packet[] run(List<Packet> packets) throws CancellationException {
+        List<Packet> matches = new ArrayList<>();
+        for (int i = 0; i < packets.size(); i++) {
+            if ((i & CANCELLATION_INTERVAL - 1) == 0 && Thread.currentThread().isInterrupted()) {
+                throw new CancellationException("Query for " + this + " was cancelled");
+            }
+            Packet packet = packets.get(i);
+            if (matches(packet)) {
+                matches.add(packet);
+            }
+        }
+        return matches.toArray(new Packet[0]);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof PacketQuery)) {
+            return false;
+        }
+        PacketQuery query = (PacketQuery) o;
+        return isFlow == query.isFlow && isSrcHost == query.isSrcHost && src.equals(query.src)
+                && Objects.equals(dest, query.dest) && hasPorts == query.hasPorts
+                && Objects.equals(srcPort, query.srcPort) && Objects.equals(destPort, query.destPort);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(isFlow, isSrcHost, src, dest, hasPorts, srcPort, destPort);
+    }
+
+    @Override
+    public String toString() {
+        if (hasPorts) {
+            return "packets from " + src + ":" + srcPort + " to " + dest + ":" + destPort;
+        }
+        if (isFlow) {
+            return "packets from " + src + " to " + dest;
+        }
+        return "packets " + (isSrcHost ? "from " : "to ") + src;
+    }
+
+}
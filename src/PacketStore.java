@@ -0,0 +1,230 @@
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * A trace's packets held as columns of values in a {@link ScratchFile} rather than as objects on the heap, so that a
+ * trace can be larger than the heap and the garbage collector never has to trace its packets. Hosts are held by their
+ * number in the store's {@link HostDictionary}, and each packet's line is held by its index in the trace's lines.
+ * <p>
+ * Getting a packet returns a new view of it rather than a Packet that's kept, so views are compared by the packet
+ * they show rather than by identity. Editing a view writes the new value through to the store, where every other
+ * view of the packet sees it.
+ * <p>
+ * Packets are added by one thread at a time, e.g. the thread loading the trace and then the Event Dispatch Thread as
+ * packets are appended, but can be read from any thread.
+ */
+public class PacketStore extends AbstractList<Packet> implements RandomAccess {
+
+    // Each packet's flags hold the number of decimal places its timestamp is written with plus one (so 0 means it has
+    // none) in the low bits, whether it has a size, and whether it was read from a line
+    private static final int TIME_DIGITS_MASK = 0xF;
+    private static final int HAS_SIZE = 1 << 4;
+    private static final int HAS_LINE = 1 << 5;
+
+    private final HostDictionary hosts = new HostDictionary();
+    private final List<String> lines;
+    private final ScratchFile.Column times, srcHosts, destHosts, sizes, lineIndexes, flags, editedColumns;
+    // Written after each packet's values, so a thread that reads it sees every value of the packets it counts
+    private volatile int size;
+
+    /**
+     * Creates a new empty PacketStore
+     *
+     * @param file  the scratch file to hold the packets in
+     * @param lines the lines the packets are read from, by their line index. Packets that aren't read from lines, e.g.
+     *              from a pcap capture file, build their line from their values instead.
+     */
+    public PacketStore(ScratchFile file, List<String> lines) {
+        this.lines = lines;
+        times = file.addColumn(8);
+        srcHosts = file.addColumn(4);
+        destHosts = file.addColumn(4);
+        sizes = file.addColumn(4);
+        lineIndexes = file.addColumn(4);
+        flags = file.addColumn(1);
+        editedColumns = file.addColumn(1);
+    }
+
+    /**
+     * Returns the dictionary of the stored packets' hosts. Packets should be parsed using it, so that their hosts can
+     * be stored without looking them up.
+     *
+     * @return the host dictionary of this store
+     */
+    public HostDictionary getHostDictionary() {
+        return hosts;
+    }
+
+    /**
+     * Copies a packet's values into this store. The packet itself isn't kept, so it should not be changed afterwards.
+     *
+     * @param packet the packet to add
+     * @return true
+     */
+    @Override
+    public boolean add(Packet packet) {
+        int index = size;
+        times.putLong(index, packet.getTimeNanos());
+        srcHosts.putInt(index, hosts.getNumber(packet.getSourceHost()));
+        destHosts.putInt(index, hosts.getNumber(packet.getDestinationHost()));
+        Integer packetSize = packet.getIpPacketSize();
+        sizes.putInt(index, packetSize != null ? packetSize : 0);
+        lineIndexes.putInt(index, packet.getLineIndex());
+        flags.putByte(index, (byte) (packet.getTimeDigits() + 1 | (packetSize != null ? HAS_SIZE : 0)
+                | (packet.hasLine() ? HAS_LINE : 0)));
+        editedColumns.putByte(index, (byte) packet.getEditedColumns());
+        size = index + 1;
+        return true;
+    }
+
+    /**
+     * Returns a view of a stored packet, which reads its values from this store each time they're asked for
+     *
+     * @param index the index of the packet, in the order packets were added
+     * @return a view of the packet
+     */
+    @Override
+    public Packet get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        return new StoredPacket(index);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * A view of a packet in this store.
+     */
+    private class StoredPacket extends Packet {
+        private final int index;
+
+        StoredPacket(int index) {
+            this.index = index;
+        }
+
+        /**
+         * @return a Packet holding this packet's values, which builds its line as the packet that was stored would
+         */
+        private Packet load() {
+            int lineIndex = getLineIndex();
+            return new Packet(hasLine() ? lines.get(lineIndex) : null, getEditedColumns(), lineIndex, getTimeNanos(),
+                    getTimeDigits(), getSourceHost(), getDestinationHost(), getIpPacketSize());
+        }
+
+        private void setEdited(int col) {
+            editedColumns.putByte(index, (byte) (editedColumns.getByte(index) | 1 << col));
+        }
+
+        @Override
+        public String getTabDelimitedData() {
+            return load().getTabDelimitedData();
+        }
+
+        @Override
+        boolean hasLine() {
+            return (flags.getByte(index) & HAS_LINE) != 0;
+        }
+
+        @Override
+        int getEditedColumns() {
+            return editedColumns.getByte(index) & 0xFF;
+        }
+
+        @Override
+        int getTimeDigits() {
+            return (flags.getByte(index) & TIME_DIGITS_MASK) - 1;
+        }
+
+        @Override
+        public Host getSourceHost() {
+            return hosts.getHost(srcHosts.getInt(index));
+        }
+
+        @Override
+        public void setSourceHost(Host host) {
+            srcHosts.putInt(index, hosts.getNumber(host));
+            setEdited(SRC_IP_COL);
+        }
+
+        @Override
+        public Host getDestinationHost() {
+            return hosts.getHost(destHosts.getInt(index));
+        }
+
+        @Override
+        public void setDestinationHost(Host host) {
+            destHosts.putInt(index, hosts.getNumber(host));
+            setEdited(DEST_IP_COL);
+        }
+
+        @Override
+        public int getLineIndex() {
+            return lineIndexes.getInt(index);
+        }
+
+        @Override
+        public void setLineIndex(int lineIndex) {
+            lineIndexes.putInt(index, lineIndex);
+        }
+
+        @Override
+        public boolean hasTimeStamp() {
+            return getTimeDigits() >= 0;
+        }
+
+        @Override
+        public long getTimeNanos() {
+            return times.getLong(index);
+        }
+
+        @Override
+        public void setTimeNanos(long timeNanos) {
+            times.putLong(index, timeNanos);
+            int packetFlags = flags.getByte(index);
+            if ((packetFlags & TIME_DIGITS_MASK) == 0) {
+                flags.putByte(index, (byte) (packetFlags | 1));
+            }
+            setEdited(TIMESTAMP_COL);
+        }
+
+        @Override
+        public Integer getIpPacketSize() {
+            return (flags.getByte(index) & HAS_SIZE) != 0 ? sizes.getInt(index) : null;
+        }
+
+        @Override
+        public void setIpPacketSize(Integer size) {
+            sizes.putInt(index, size != null ? size : 0);
+            int packetFlags = flags.getByte(index);
+            flags.putByte(index, (byte) (size != null ? packetFlags | HAS_SIZE : packetFlags & ~HAS_SIZE));
+            setEdited(IP_PACKET_SIZE_COL);
+        }
+
+        private PacketStore getStore() {
+            return PacketStore.this;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof StoredPacket)) {
+                return false;
+            }
+            StoredPacket packet = (StoredPacket) o;
+            return index == packet.index && getStore() == packet.getStore();
+        }
+
+        @Override
+        public int hashCode() {
+            return index;
+        }
+    }
+
+}
@@ -1,4 +1,7 @@
+import javax.swing.event.TableModelEvent;
 import javax.swing.table.AbstractTableModel;
+import java.util.Arrays;
+import java.util.List;
 
 public class PacketTableModel extends AbstractTableModel implements PacketTableConstants {
 
@@ -14,6 +17,8 @@ public class PacketTableModel extends AbstractTableModel implements PacketTableC
 
     private String[] columnNames = new String[6];
     private Packet[] packets;
+    private int packetCount;
+    private boolean isEditable = true;
 
     /**
      * Creates a new PacketTableModel. If isSrcHosts is true, the "Source IP" column will precede the "Destination IP"
@@ -44,6 +49,7 @@ public class PacketTableModel extends AbstractTableModel implements PacketTableC
         }
 
         this.packets = packets;
+        packetCount = packets.length;
         updateSumAndMean();
     }
 
@@ -67,28 +73,70 @@ public class PacketTableModel extends AbstractTableModel implements PacketTableC
                 return;
             }
 
+            Integer previousSize = packets[rowIndex].getIpPacketSize();
             packets[rowIndex].setIpPacketSize(packetSize);
-            fireTableCellUpdated(rowIndex, columnIndex);
+            fireTableChanged(new SizeEditedEvent(this, rowIndex, columnIndex, previousSize));
 
             // Update the sum and mean values if a packet size has been changed
             if (columnIndex == sizeCol) {
                 updateSumAndMean();
-                fireTableRowsUpdated(packets.length + 1, packets.length + 2);
+                fireTableRowsUpdated(packetCount + 1, packetCount + 2);
             }
         }
     }
 
+    /**
+     * Recalculates the sum and mean of the packet sizes and redraws every row, e.g. after packets in this model were
+     * edited through another model.
+     */
+    public void refresh() {
+        updateSumAndMean();
+        fireTableRowsUpdated(0, getRowCount() - 1);
+    }
+
+    /**
+     * Adds packets to the end of this model, updating the sum and mean of the packet sizes with only the new packets.
+     *
+     * @param newPackets the packets to add
+     */
+    public void addPackets(List<Packet> newPackets) {
+        if (newPackets.isEmpty()) {
+            return;
+        }
+
+        // Grow the array geometrically so that adding packets a few at a time stays cheap
+        int firstRow = packetCount;
+        if (packetCount + newPackets.size() > packets.length) {
+            packets = Arrays.copyOf(packets, Math.max(packets.length * 2, packetCount + newPackets.size()));
+        }
+        for (Packet packet : newPackets) {
+            packets[packetCount++] = packet;
+            sum += packet.getIpPacketSize();
+        }
+        mean = (double) sum / packetCount;
+
+        fireTableRowsInserted(firstRow, packetCount - 1);
+        fireTableRowsUpdated(packetCount, packetCount + 1);
+    }
+
+    /**
+     * @param isEditable true to allow packet sizes to be edited, false to make this model read only
+     */
+    public void setEditable(boolean isEditable) {
+        this.isEditable = isEditable;
+    }
+
     private void updateSumAndMean() {
         sum = 0;
-        for (Packet packet : packets) {
-            sum += packet.getIpPacketSize();
+        for (int i = 0; i < packetCount; i++) {
+            sum += packets[i].getIpPacketSize();
         }
-        mean = packets.length > 0 ? (double) sum / packets.length : 0;
+        mean = packetCount > 0 ? (double) sum / packetCount : 0;
     }
 
     @Override
     public int getRowCount() {
-        return packets.length + 2;
+        return packetCount + 2;
     }
 
     @Override
@@ -111,15 +159,15 @@ public class PacketTableModel extends AbstractTableModel implements PacketTableC
         }
 
         // Return sum or mean
-        if (rowIndex >= packets.length) {
+        if (rowIndex >= packetCount) {
 
             if (columnIndex != sizeCol) {
                 return null;
             }
 
-            if (rowIndex == packets.length) {
+            if (rowIndex == packetCount) {
                 return sum;
-            } else if (rowIndex == packets.length + 1) {
+            } else if (rowIndex == packetCount + 1) {
                 return mean;
             }
         }
@@ -127,7 +175,7 @@ public class PacketTableModel extends AbstractTableModel implements PacketTableC
         Packet packet = packets[rowIndex];
 
         if (columnIndex == timestampCol) {
-            return packet.getTimeStamp();
+            return packet.hasTimeStamp() ? packet.getTimeStamp() : null;
         } else if (columnIndex == srcCol) {
             return packet.getSourceHostIP();
         } else if (columnIndex == srcPortCol) {
@@ -144,7 +192,7 @@ public class PacketTableModel extends AbstractTableModel implements PacketTableC
 
     @Override
     public boolean isCellEditable(int rowIndex, int columnIndex) {
-        return rowIndex < packets.length && columnIndex == sizeCol;
+        return isEditable && rowIndex < packetCount && columnIndex == sizeCol;
     }
 
     /**
@@ -156,4 +204,31 @@ public class PacketTableModel extends AbstractTableModel implements PacketTableC
     public Packet getPacketAt(int rowIndex) {
         return packets[rowIndex];
     }
+
+    /**
+     * @return every packet in this model, in row order
+     */
+    public List<Packet> getPackets() {
+        return Arrays.asList(Arrays.copyOf(packets, packetCount));
+    }
+
+    /**
+     * The event fired when a packet's size is edited in the table, which also gives the size it had before, so that
+     * totals of the packets' sizes can be adjusted rather than counted again.
+     */
+    public static class SizeEditedEvent extends TableModelEvent {
+        private final Integer previousSize;
+
+        SizeEditedEvent(PacketTableModel source, int row, int column, Integer previousSize) {
+            super(source, row, row, column);
+            this.previousSize = previousSize;
+        }
+
+        /**
+         * @return the edited packet's ip packet size before the edit, or null if it had none
+         */
+        public Integer getPreviousSize() {
+            return previousSize;
+        }
+    }
 }
@@ -0,0 +1,280 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads packets straight from a libpcap capture file.
+ * <p>
+ * Records are read into a direct buffer and the pcap record header, link layer header and IPv4 and TCP/UDP headers
+ * are decoded in place, so no text is built for each packet. Records that don't hold an IPv4 packet are skipped.
+ * Timestamps are given relative to the first record in the file, as they are in trace files.
+ */
+public class PcapReader implements Closeable {
+
+    private static final int MAGIC_MICROSECONDS = 0xA1B2C3D4;
+    private static final int MAGIC_NANOSECONDS = 0xA1B23C4D;
+    private static final int GLOBAL_HEADER_LENGTH = 24;
+    private static final int RECORD_HEADER_LENGTH = 16;
+    private static final int BUFFER_SIZE = 1024 * 1024;
+    // The largest record that's read, which is the largest snapshot length that capture tools use. A larger length
+    // means the record header is corrupt, and reading it would make the buffer grow without bound.
+    private static final int MAX_RECORD_LENGTH = 256 * 1024;
+    private static final int MIN_IP_HEADER_LENGTH = 20;
+
+    private static final int LINKTYPE_NULL = 0;
+    private static final int LINKTYPE_ETHERNET = 1;
+    private static final int LINKTYPE_RAW = 101;
+    private static final int LINKTYPE_LINUX_SLL = 113;
+    private static final int LINKTYPE_IPV4 = 228;
+
+    private static final int ETHERTYPE_IPV4 = 0x0800;
+    private static final int ETHERTYPE_VLAN = 0x8100;
+    private static final int PROTOCOL_TCP = 6;
+    private static final int PROTOCOL_UDP = 17;
+
+    private final FileChannel channel;
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final boolean isSwapped;
+    // The number of nanoseconds in each unit of a record's fraction of a second
+    private final long fractionNanos;
+    private final int linkType;
+    // The largest length of a record, from the global header's snapshot length
+    private final int maxCapturedLength;
+    private final HostDictionary hosts;
+    private int recordIndex = -1;
+    private long firstSeconds = -1, firstFraction;
+
+    /**
+     * Opens a pcap file and reads its global header
+     *
+     * @param file the file to read
+     * @throws IOException the file could not be read, or isn't a pcap file with a supported link type
+     */
+    public PcapReader(File file) throws IOException {
+        this(file, new HostDictionary());
+    }
+
+    /**
+     * Opens a pcap file and reads its global header, sharing the hosts of the packets read with those of other packets
+     *
+     * @param file  the file to read
+     * @param hosts the dictionary of hosts to share, which this reader uses until it's closed
+     * @throws IOException the file could not be read, or isn't a pcap file with a supported link type
+     */
+    public PcapReader(File file, HostDictionary hosts) throws IOException {
+        this.hosts = hosts;
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        buffer.limit(0);
+
+        try {
+            if (!fill(GLOBAL_HEADER_LENGTH)) {
+                throw new IOException(file + " is not a pcap file");
+            }
+
+            // The magic number is written in the byte order of the machine that made the capture
+            int magic = buffer.getInt(buffer.position());
+            if (magic == MAGIC_MICROSECONDS || magic == MAGIC_NANOSECONDS) {
+                isSwapped = false;
+            } else if (Integer.reverseBytes(magic) == MAGIC_MICROSECONDS
+                    || Integer.reverseBytes(magic) == MAGIC_NANOSECONDS) {
+                isSwapped = true;
+                magic = Integer.reverseBytes(magic);
+            } else {
+                throw new IOException(file + " is not a pcap file");
+            }
+            fractionNanos = magic == MAGIC_NANOSECONDS ? 1 : 1000;
+
+            linkType = getHeaderInt(buffer.position() + 20) & 0xFFFF;
+            if (linkType != LINKTYPE_NULL && linkType != LINKTYPE_ETHERNET && linkType != LINKTYPE_RAW
+                    && linkType != LINKTYPE_LINUX_SLL && linkType != LINKTYPE_IPV4) {
+                throw new IOException("Unsupported pcap link type " + linkType);
+            }
+            int snapLength = getHeaderInt(buffer.position() + 16);
+            maxCapturedLength = snapLength > 0 && snapLength < MAX_RECORD_LENGTH ? snapLength : MAX_RECORD_LENGTH;
+            buffer.position(buffer.position() + GLOBAL_HEADER_LENGTH);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @param file the file to check
+     * @return true if the file starts with a pcap magic number
+     * @throws IOException the file could not be read
+     */
+    public static boolean isPcap(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(4);
+            while (magic.hasRemaining() && channel.read(magic) >= 0) {
+                // Keep reading until the magic number has been read or the file ends
+            }
+            if (magic.hasRemaining()) {
+                return false;
+            }
+            int value = magic.getInt(0);
+            return value == MAGIC_MICROSECONDS || value == MAGIC_NANOSECONDS
+                    || Integer.reverseBytes(value) == MAGIC_MICROSECONDS
+                    || Integer.reverseBytes(value) == MAGIC_NANOSECONDS;
+        }
+    }
+
+    /**
+     * Reads the next IPv4 packet, skipping any other records.
+     *
+     * @return the next packet, or null if there are no more complete records
+     * @throws IOException the file could not be read
+     */
+    public Packet readPacket() throws IOException {
+        Packet packet;
+        do {
+            if (!fill(RECORD_HEADER_LENGTH)) {
+                return null;
+            }
+            long seconds = getHeaderInt(buffer.position()) & 0xFFFFFFFFL;
+            long fraction = getHeaderInt(buffer.position() + 4) & 0xFFFFFFFFL;
+            int capturedLength = getHeaderInt(buffer.position() + 8);
+            if (capturedLength < 0 || capturedLength > maxCapturedLength) {
+                throw new IOException("Corrupt pcap record " + (recordIndex + 1));
+            }
+
+            if (!fill(RECORD_HEADER_LENGTH + capturedLength)) {
+                // The last record was cut short, e.g. because the capture is still being written
+                return null;
+            }
+            recordIndex++;
+            if (firstSeconds < 0) {
+                firstSeconds = seconds;
+                firstFraction = fraction;
+            }
+
+            // Filling the buffer may have moved the record, so its position has to be read again
+            int recordStart = buffer.position() + RECORD_HEADER_LENGTH;
+            packet = decode(recordStart, capturedLength, seconds, fraction);
+            buffer.position(recordStart + capturedLength);
+        } while (packet == null);
+        return packet;
+    }
+
+    /**
+     * @return the index of the last record read, counting records that were skipped
+     */
+    public int getRecordIndex() {
+        return recordIndex;
+    }
+
+    private Packet decode(int start, int length, long seconds, long fraction) {
+        int end = start + length;
+        int ipStart;
+
+        // Find the start of the IPv4 header
+        switch (linkType) {
+            case LINKTYPE_ETHERNET:
+                if (length < 14) {
+                    return null;
+                }
+                int etherType = getUnsignedShort(start + 12);
+                ipStart = start + 14;
+                if (etherType == ETHERTYPE_VLAN && length >= 18) {
+                    etherType = getUnsignedShort(start + 16);
+                    ipStart += 4;
+                }
+                if (etherType != ETHERTYPE_IPV4) {
+                    return null;
+                }
+                break;
+            case LINKTYPE_LINUX_SLL:
+                if (length < 16 || getUnsignedShort(start + 14) != ETHERTYPE_IPV4) {
+                    return null;
+                }
+                ipStart = start + 16;
+                break;
+            case LINKTYPE_NULL:
+                // The address family is in the capturing machine's byte order, and is 2 (AF_INET) for IPv4
+                if (length < 4 || getHeaderInt(start) != 2) {
+                    return null;
+                }
+                ipStart = start + 4;
+                break;
+            default:
+                ipStart = start;
+                break;
+        }
+
+        if (end - ipStart < MIN_IP_HEADER_LENGTH || (buffer.get(ipStart) & 0xF0) != 0x40) {
+            return null;
+        }
+
+        // A header shorter than the fixed fields is malformed, and would put the ports inside the ip header
+        int headerLength = (buffer.get(ipStart) & 0x0F) * 4;
+        if (headerLength < MIN_IP_HEADER_LENGTH) {
+            return null;
+        }
+        int totalLength = getUnsignedShort(ipStart + 2);
+        int fragmentOffset = getUnsignedShort(ipStart + 6) & 0x1FFF;
+        int protocol = buffer.get(ipStart + 9) & 0xFF;
+        String srcIP = Host.formatIP(buffer.getInt(ipStart + 12));
+        String destIP = Host.formatIP(buffer.getInt(ipStart + 16));
+
+        // Only the first fragment of a packet has the TCP or UDP header
+        Integer srcPort = null, destPort = null;
+        int transportStart = ipStart + headerLength;
+        if ((protocol == PROTOCOL_TCP || protocol == PROTOCOL_UDP) && fragmentOffset == 0
+                && end - transportStart >= 4) {
+            srcPort = getUnsignedShort(transportStart);
+            destPort = getUnsignedShort(transportStart + 2);
+        }
+
+        long timeNanos = (seconds - firstSeconds) * Timestamps.NANOS_PER_SECOND
+                + (fraction - firstFraction) * fractionNanos;
+        return new Packet(recordIndex, timeNanos, hosts.getHost(srcIP, srcPort), hosts.getHost(destIP, destPort),
+                totalLength);
+    }
+
+    /**
+     * Makes sure at least the given number of bytes are available from the buffer's position, reading more of the file
+     * if needed.
+     *
+     * @return false if the end of the file was reached first
+     */
+    private boolean fill(int length) throws IOException {
+        if (buffer.remaining() >= length) {
+            return true;
+        }
+
+        if (length > buffer.capacity()) {
+            ByteBuffer larger = ByteBuffer.allocateDirect(Math.max(length, buffer.capacity() * 2));
+            larger.put(buffer);
+            buffer = larger;
+        } else {
+            buffer.compact();
+        }
+
+        while (buffer.position() < length) {
+            if (channel.read(buffer) < 0) {
+                buffer.flip();
+                return false;
+            }
+        }
+        buffer.flip();
+        return true;
+    }
+
+    private int getHeaderInt(int index) {
+        int value = buffer.getInt(index);
+        return isSwapped ? Integer.reverseBytes(value) : value;
+    }
+
+    private int getUnsignedShort(int index) {
+        return buffer.getShort(index) & 0xFFFF;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+}
@@ -0,0 +1,397 @@
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+import javax.management.JMException;
+import javax.management.NotificationEmitter;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import java.beans.ConstructorProperties;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Timers, counters and latency histograms for the work done to load, query and save traces, shared by the whole
+ * application and published through JMX by {@link #register()}.
+ * <p>
+ * Everything can be recorded from any thread. Loads add up the time spent in each phase with a {@link PhaseTimer} of
+ * their own and record it once they've finished, so timing every line costs a few calls to {@link System#nanoTime()}
+ * rather than contended updates to shared counters. Garbage collection pauses are recorded as the JVM reports them, so
+ * their effect on the user interface can be compared, e.g. with and without traces held off heap.
+ */
+public class PerformanceMetrics implements PerformanceMetricsMXBean {
+
+    /**
+     * The name the metrics are registered under with the platform MBean server
+     */
+    public static final String OBJECT_NAME = "PacketBrowser:type=PerformanceMetrics";
+
+    private static final Phase[] PHASES = Phase.values();
+    // Created after the phases, which it needs to size its timers
+    private static final PerformanceMetrics INSTANCE = new PerformanceMetrics();
+
+    /**
+     * The phases of loading and displaying a trace that are timed separately.
+     */
+    public enum Phase {
+        READ("Read"),
+        PARSE("Parse"),
+        VALIDATE("Validate"),
+        INDEX("Index packets"),
+        VALUE_LISTS("List hosts and ports"),
+        SEARCH_INDEX("Build search index"),
+        COMBO_BOXES("Fill combo boxes");
+
+        private final String name;
+
+        Phase(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    /**
+     * The operations whose latencies are recorded in histograms.
+     */
+    public enum Operation {
+        QUERY, SEARCH, SAVE, GC_PAUSE
+    }
+
+    private final LongAdder filesLoaded = new LongAdder();
+    private final LongAdder rowsParsed = new LongAdder();
+    private final LongAdder rowsRejected = new LongAdder();
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder uiStalls = new LongAdder();
+    private volatile double heapBytesPerPacket;
+    private final LongAdder[] phaseNanos = new LongAdder[PHASES.length];
+    private final Histogram[] histograms = new Histogram[Operation.values().length];
+
+    private PerformanceMetrics() {
+        for (int i = 0; i < phaseNanos.length; i++) {
+            phaseNanos[i] = new LongAdder();
+        }
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new Histogram();
+        }
+        watchGarbageCollections();
+    }
+
+    private void watchGarbageCollections() {
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            // Concurrent collectors (e.g. "G1 Concurrent GC" or "ZGC Cycles") mostly run alongside the application, so
+            // only the collectors that stop it are recorded
+            String name = collector.getName();
+            if (name.contains("Concurrent") || name.contains("Cycles") || !(collector instanceof NotificationEmitter)) {
+                continue;
+            }
+            ((NotificationEmitter) collector).addNotificationListener((notification, handback) -> {
+                if (notification.getType().equals(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION)) {
+                    GarbageCollectionNotificationInfo info =
+                            GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+                    recordLatency(Operation.GC_PAUSE, TimeUnit.MILLISECONDS.toNanos(info.getGcInfo().getDuration()));
+                }
+            }, null, null);
+        }
+    }
+
+    /**
+     * @return the application's metrics
+     */
+    public static PerformanceMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Publishes the application's metrics with the platform MBean server under {@value #OBJECT_NAME}. Does nothing if
+     * they've already been published.
+     */
+    public static void register() {
+        try {
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, name);
+            }
+        } catch (JMException e) {
+            // Failed to publish metrics, which only means they can't be watched from outside the application
+            System.out.println(e);
+        }
+    }
+
+    /**
+     * Records a finished load of a trace file.
+     *
+     * @param timer          the time spent in each phase of the load
+     * @param rows           the number of lines or records read
+     * @param packets        the number of valid ip packets read
+     * @param bytes          the number of (decompressed) bytes read
+     * @param estimatedBytes the estimated bytes of heap used by the loaded trace, or 0 if it isn't known
+     */
+    public void recordLoad(PhaseTimer timer, long rows, long packets, long bytes, long estimatedBytes) {
+        filesLoaded.increment();
+        recordRows(rows, rows - packets, bytes);
+        recordPhases(timer);
+        if (estimatedBytes > 0 && packets > 0) {
+            heapBytesPerPacket = (double) estimatedBytes / packets;
+        }
+    }
+
+    /**
+     * Records lines read outside of a load, e.g. appended to a followed file.
+     *
+     * @param rows     the number of lines read
+     * @param rejected the number of those lines that weren't valid ip packets
+     * @param bytes    the number of bytes read
+     */
+    public void recordRows(long rows, long rejected, long bytes) {
+        rowsParsed.add(rows);
+        rowsRejected.add(rejected);
+        bytesRead.add(bytes);
+    }
+
+    /**
+     * @param timer the time spent in each phase of some work
+     */
+    public void recordPhases(PhaseTimer timer) {
+        for (int i = 0; i < PHASES.length; i++) {
+            phaseNanos[i].add(timer.nanos[i]);
+        }
+    }
+
+    /**
+     * @param phase the phase that some work was part of
+     * @param nanos the time the work took in nanoseconds
+     */
+    public void recordPhase(Phase phase, long nanos) {
+        phaseNanos[phase.ordinal()].add(nanos);
+    }
+
+    /**
+     * @param operation the operation that was done
+     * @param nanos     the time it took in nanoseconds
+     */
+    public void recordLatency(Operation operation, long nanos) {
+        histograms[operation.ordinal()].record(nanos);
+    }
+
+    /**
+     * Records an event that took too long to dispatch on the Event Dispatch Thread.
+     *
+     * @see EdtWatchdog
+     */
+    public void recordStall() {
+        uiStalls.increment();
+    }
+
+    @Override
+    public long getFilesLoaded() {
+        return filesLoaded.sum();
+    }
+
+    @Override
+    public long getRowsParsed() {
+        return rowsParsed.sum();
+    }
+
+    @Override
+    public long getRowsRejected() {
+        return rowsRejected.sum();
+    }
+
+    @Override
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    @Override
+    public double getHeapBytesPerPacket() {
+        return heapBytesPerPacket;
+    }
+
+    @Override
+    public long getUsedHeapBytes() {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    @Override
+    public long getUiStalls() {
+        return uiStalls.sum();
+    }
+
+    @Override
+    public Map<String, Double> getPhaseMillis() {
+        Map<String, Double> millis = new LinkedHashMap<>();
+        for (Phase phase : PHASES) {
+            millis.put(phase.toString(), phaseNanos[phase.ordinal()].sum() / 1e6);
+        }
+        return millis;
+    }
+
+    @Override
+    public LatencySummary getQueryLatency() {
+        return histograms[Operation.QUERY.ordinal()].summarise();
+    }
+
+    @Override
+    public LatencySummary getSearchLatency() {
+        return histograms[Operation.SEARCH.ordinal()].summarise();
+    }
+
+    @Override
+    public LatencySummary getSaveLatency() {
+        return histograms[Operation.SAVE.ordinal()].summarise();
+    }
+
+    @Override
+    public LatencySummary getGcPauses() {
+        return histograms[Operation.GC_PAUSE.ordinal()].summarise();
+    }
+
+    @Override
+    public void reset() {
+        filesLoaded.reset();
+        rowsParsed.reset();
+        rowsRejected.reset();
+        bytesRead.reset();
+        uiStalls.reset();
+        heapBytesPerPacket = 0;
+        for (LongAdder nanos : phaseNanos) {
+            nanos.reset();
+        }
+        for (Histogram histogram : histograms) {
+            histogram.reset();
+        }
+    }
+
+    /**
+     * Adds up the time spent in each phase of a piece of work done by one thread. Each call to {@link #lap(Phase)}
+     * adds the time since the previous lap (or since the timer was created) to the given phase.
+     */
+    public static class PhaseTimer {
+        private final long[] nanos = new long[PHASES.length];
+        private long lastLap = System.nanoTime();
+
+        /**
+         * @param phase the phase the work since the last lap was part of
+         */
+        public void lap(Phase phase) {
+            long now = System.nanoTime();
+            nanos[phase.ordinal()] += now - lastLap;
+            lastLap = now;
+        }
+    }
+
+    /**
+     * A summary of the latencies recorded for an operation, published through JMX as composite data.
+     */
+    public static class LatencySummary {
+        private final long count;
+        private final double meanMillis, p50Millis, p90Millis, p99Millis, maxMillis;
+
+        @ConstructorProperties({"count", "meanMillis", "p50Millis", "p90Millis", "p99Millis", "maxMillis"})
+        public LatencySummary(long count, double meanMillis, double p50Millis, double p90Millis, double p99Millis,
+                              double maxMillis) {
+            this.count = count;
+            this.meanMillis = meanMillis;
+            this.p50Millis = p50Millis;
+            this.p90Millis = p90Millis;
+            this.p99Millis = p99Millis;
+            this.maxMillis = maxMillis;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getMeanMillis() {
+            return meanMillis;
+        }
+
+        /**
+         * @return the median latency, rounded up to the next power of two microseconds
+         */
+        public double getP50Millis() {
+            return p50Millis;
+        }
+
+        /**
+         * @return the 90th percentile latency, rounded up to the next power of two microseconds
+         */
+        public double getP90Millis() {
+            return p90Millis;
+        }
+
+        /**
+         * @return the 99th percentile latency, rounded up to the next power of two microseconds
+         */
+        public double getP99Millis() {
+            return p99Millis;
+        }
+
+        public double getMaxMillis() {
+            return maxMillis;
+        }
+    }
+
+    /**
+     * Counts latencies in buckets of powers of two microseconds, so recording takes constant time and space however
+     * many latencies are recorded, and percentiles are accurate to within a factor of two.
+     */
+    private static class Histogram {
+        // Bucket i counts latencies of less than 2^i microseconds that aren't counted by a lower bucket
+        private static final int BUCKET_COUNT = 40;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        void record(long nanos) {
+            long micros = TimeUnit.NANOSECONDS.toMicros(Math.max(0, nanos));
+            int bucket = Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(micros));
+            buckets.incrementAndGet(bucket);
+            count.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+        }
+
+        LatencySummary summarise() {
+            long total = count.sum();
+            double max = maxNanos.get() / 1e6;
+            return new LatencySummary(total, total > 0 ? totalNanos.sum() / 1e6 / total : 0,
+                    Math.min(max, getPercentile(0.5, total)), Math.min(max, getPercentile(0.9, total)),
+                    Math.min(max, getPercentile(0.99, total)), max);
+        }
+
+        /**
+         * @return the upper bound in milliseconds of the bucket holding the given percentile
+         */
+        private double getPercentile(double percentile, long total) {
+            long rank = (long) Math.ceil(percentile * total), seen = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                seen += buckets.get(i);
+                if (seen >= rank && seen > 0) {
+                    return (1L << i) / 1e3;
+                }
+            }
+            return 0;
+        }
+
+        void reset() {
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                buckets.set(i, 0);
+            }
+            count.reset();
+            totalNanos.reset();
+            maxNanos.set(0);
+        }
+    }
+
+}
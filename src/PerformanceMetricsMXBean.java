@@ -0,0 +1,77 @@
+import java.util.Map;
+
+/**
+ * The performance metrics published through JMX, e.g. to be watched in JConsole or VisualVM while traces are loaded.
+ *
+ * @see PerformanceMetrics
+ */
+public interface PerformanceMetricsMXBean {
+
+    /**
+     * @return the number of trace files loaded
+     */
+    long getFilesLoaded();
+
+    /**
+     * @return the number of lines (or pcap records) read while loading and following trace files
+     */
+    long getRowsParsed();
+
+    /**
+     * @return the number of lines read that weren't valid ip packets
+     */
+    long getRowsRejected();
+
+    /**
+     * @return the number of (decompressed) bytes read while loading and following trace files
+     */
+    long getBytesRead();
+
+    /**
+     * @return the estimated bytes of heap used per packet by the last trace loaded
+     */
+    double getHeapBytesPerPacket();
+
+    /**
+     * @return the bytes of heap currently in use, including garbage that hasn't been collected yet
+     */
+    long getUsedHeapBytes();
+
+    /**
+     * @return the number of events that took too long to dispatch on the Event Dispatch Thread, freezing the user
+     * interface
+     * @see EdtWatchdog
+     */
+    long getUiStalls();
+
+    /**
+     * @return the total time in milliseconds spent in each phase of loading and displaying traces, by phase name
+     */
+    Map<String, Double> getPhaseMillis();
+
+    /**
+     * @return the latencies of looking up the packets to show for a selection
+     */
+    PerformanceMetrics.LatencySummary getQueryLatency();
+
+    /**
+     * @return the latencies of full text searches
+     */
+    PerformanceMetrics.LatencySummary getSearchLatency();
+
+    /**
+     * @return the latencies of saving edits to trace files
+     */
+    PerformanceMetrics.LatencySummary getSaveLatency();
+
+    /**
+     * @return the lengths of the garbage collection pauses that stopped the application, to the nearest millisecond
+     */
+    PerformanceMetrics.LatencySummary getGcPauses();
+
+    /**
+     * Sets every counter, timer and histogram back to zero.
+     */
+    void reset();
+
+}
@@ -0,0 +1,119 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * An InputStream of the decompressed contents of gzip data.
+ * <p>
+ * Decompression runs on its own thread, which hands fixed-size blocks of decompressed bytes to the reading thread
+ * through a bounded queue. This lets decompression and parsing of a file run at the same time, while never buffering
+ * more than {@value #QUEUE_CAPACITY} blocks of {@value #BLOCK_SIZE} bytes.
+ */
+public class PipelinedGzipInputStream extends InputStream {
+
+    private static final int BLOCK_SIZE = 256 * 1024;
+    private static final int QUEUE_CAPACITY = 8;
+
+    // Marks the end of the decompressed data
+    private static final byte[] END = new byte[0];
+
+    private final BlockingQueue<byte[]> blocks = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final Thread decompressor;
+    private volatile IOException failure;
+    private byte[] block = new byte[0];
+    private int position;
+    private boolean isEnded;
+
+    /**
+     * Creates a new PipelinedGzipInputStream and starts decompressing the given stream
+     *
+     * @param compressed a stream of gzip compressed data
+     */
+    public PipelinedGzipInputStream(InputStream compressed) {
+        decompressor = new Thread(() -> decompress(compressed), "gzip-decompressor");
+        decompressor.setDaemon(true);
+        decompressor.start();
+    }
+
+    private void decompress(InputStream compressed) {
+        try (InputStream in = new GZIPInputStream(compressed, 64 * 1024)) {
+            byte[] nextBlock;
+            int length, read;
+            do {
+                nextBlock = new byte[BLOCK_SIZE];
+                length = 0;
+                while (length < BLOCK_SIZE && (read = in.read(nextBlock, length, BLOCK_SIZE - length)) > 0) {
+                    length += read;
+                }
+                if (length > 0) {
+                    blocks.put(length == BLOCK_SIZE ? nextBlock : Arrays.copyOf(nextBlock, length));
+                }
+            } while (length == BLOCK_SIZE);
+        } catch (IOException e) {
+            failure = e;
+        } catch (InterruptedException e) {
+            // The stream was closed, so nobody is waiting for the end
+            return;
+        }
+
+        try {
+            blocks.put(END);
+        } catch (InterruptedException e) {
+            // The stream was closed
+        }
+    }
+
+    private boolean nextBlock() throws IOException {
+        if (isEnded) {
+            return false;
+        }
+        try {
+            block = blocks.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for decompressed data");
+        }
+        position = 0;
+        if (block == END) {
+            isEnded = true;
+            if (failure != null) {
+                throw failure;
+            }
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (position == block.length && !nextBlock()) {
+            return -1;
+        }
+        return block[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (position == block.length && !nextBlock()) {
+            return -1;
+        }
+        int count = Math.min(len, block.length - position);
+        System.arraycopy(block, position, b, off, count);
+        position += count;
+        return count;
+    }
+
+    @Override
+    public void close() {
+        decompressor.interrupt();
+        blocks.clear();
+    }
+
+}
@@ -0,0 +1,87 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The results of the most recently used {@link PacketQuery}s on a dataset, so that going back to an earlier selection
+ * doesn't search every packet again.
+ * <p>
+ * The cache is bounded by the total number of packets in its results rather than by the number of queries, as a
+ * single busy host can match most of a trace. Results larger than the whole cache aren't cached at all.
+ * <p>
+ * A QueryCache is not thread safe. Datasets only use theirs on the Event Dispatch Thread.
+ */
+public class QueryCache {
+
+    private final int capacity;
+    private int packetCount;
+    // Iterates from the least to the most recently used query
+    private final LinkedHashMap<PacketQuery, Packet[]> results = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Creates a new QueryCache
+     *
+     * @param capacity the maximum total number of packets in the cached results
+     */
+    public QueryCache(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * @param query the query to look up
+     * @return the cached results of the query, or null if they aren't cached
+     */
+    public Packet[] get(PacketQuery query) {
+        return results.get(query);
+    }
+
+    /**
+     * Caches the results of a query, dropping the least recently used results until they fit.
+     *
+     * @param query   the query that was run
+     * @param packets the packets it matched
+     */
+    public void put(PacketQuery query, Packet[] packets) {
+        if (packets.length > capacity) {
+            return;
+        }
+        Packet[] previous = results.put(query, packets);
+        packetCount += packets.length - (previous != null ? previous.length : 0);
+
+        Iterator<Packet[]> iterator = results.values().iterator();
+        while (packetCount > capacity) {
+            packetCount -= iterator.next().length;
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Drops the results of every query that matches any of the given packets, e.g. because they've been added to the
+     * dataset, so that the results of other queries are kept.
+     *
+     * @param packets the packets whose queries are no longer up to date
+     */
+    public void invalidate(List<Packet> packets) {
+        Iterator<Map.Entry<PacketQuery, Packet[]>> iterator = results.entrySet().iterator();
+        Map.Entry<PacketQuery, Packet[]> entry;
+        while (iterator.hasNext()) {
+            entry = iterator.next();
+            for (Packet packet : packets) {
+                if (entry.getKey().matches(packet)) {
+                    packetCount -= entry.getValue().length;
+                    iterator.remove();
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the total number of packets in the cached results
+     */
+    public int getPacketCount() {
+        return packetCount;
+    }
+
+}
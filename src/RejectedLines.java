@@ -0,0 +1,133 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/**
+ * The lines of a trace that weren't valid ip packets, counted by the reason they were rejected. The first
+ * {@value #SAMPLE_SIZE} line numbers of each reason are kept so the lines can be found in the file, however many there
+ * are.
+ * <p>
+ * Lines are rejected while a trace is loaded and while appended lines are read, so a RejectedLines is thread safe.
+ */
+public class RejectedLines {
+
+    private static final int SAMPLE_SIZE = 100;
+
+    /**
+     * The reason a line was rejected, which is the first problem found with it.
+     */
+    public enum Reason {
+        INVALID_ID("Invalid id"),
+        INVALID_TIMESTAMP("Invalid timestamp"),
+        INVALID_PORT("Invalid port"),
+        INVALID_SIZE("Invalid packet size"),
+        INVALID_SOURCE_IP("Source isn't an IPv4 address"),
+        INVALID_DESTINATION_IP("Destination isn't an IPv4 address");
+
+        private final String description;
+
+        Reason(String description) {
+            this.description = description;
+        }
+
+        /**
+         * @return a short description of the problem, e.g. "Invalid timestamp"
+         */
+        public String getDescription() {
+            return description;
+        }
+
+        @Override
+        public String toString() {
+            return description;
+        }
+    }
+
+    private static final Reason[] REASONS = Reason.values();
+
+    private final long[] counts = new long[REASONS.length];
+    // The indexes of the first lines rejected for each reason, in the order they were rejected
+    private final int[][] samples = new int[REASONS.length][SAMPLE_SIZE];
+
+    /**
+     * Records a rejected line
+     *
+     * @param reason    the reason the line was rejected
+     * @param lineIndex the line's index in its file
+     */
+    public synchronized void add(Reason reason, int lineIndex) {
+        int i = reason.ordinal();
+        if (counts[i] < SAMPLE_SIZE) {
+            samples[i][(int) counts[i]] = lineIndex;
+        }
+        counts[i]++;
+    }
+
+    /**
+     * @param reason a reason lines are rejected for
+     * @return the number of lines rejected for the reason
+     */
+    public synchronized long getCount(Reason reason) {
+        return counts[reason.ordinal()];
+    }
+
+    /**
+     * @return the number of lines rejected for any reason
+     */
+    public synchronized long getTotal() {
+        return Arrays.stream(counts).sum();
+    }
+
+    /**
+     * @param reason a reason lines are rejected for
+     * @return the indexes (from 0) of up to the first {@value #SAMPLE_SIZE} lines rejected for the reason, in the
+     * order they were rejected
+     */
+    public synchronized int[] getSample(Reason reason) {
+        int i = reason.ordinal();
+        return Arrays.copyOf(samples[i], (int) Math.min(SAMPLE_SIZE, counts[i]));
+    }
+
+    /**
+     * Writes a report of the rejected lines to a text file: a line for each reason with its count and the line
+     * numbers (from 1) of its sample, separated by tabs.
+     *
+     * @param title  the first line of the report, e.g. the name of the trace
+     * @param output the file to write the report to
+     * @throws IOException the report couldn't be written
+     */
+    public void write(String title, File output) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(output.toPath(), StandardCharsets.UTF_8)) {
+            writer.write(title);
+            writer.newLine();
+            writer.write(String.format("%,d lines rejected", getTotal()));
+            writer.newLine();
+            writer.newLine();
+            writer.write("Reason\tLines\tFirst line numbers");
+            writer.newLine();
+            for (Reason reason : REASONS) {
+                writer.write(reason.getDescription() + "\t" + getCount(reason) + "\t" + formatSample(reason));
+                writer.newLine();
+            }
+        }
+    }
+
+    /**
+     * @param reason a reason lines are rejected for
+     * @return the line numbers (from 1) of the sample of lines rejected for the reason, separated by commas
+     */
+    public String formatSample(Reason reason) {
+        StringBuilder text = new StringBuilder();
+        for (int lineIndex : getSample(reason)) {
+            if (text.length() > 0) {
+                text.append(", ");
+            }
+            text.append(lineIndex + 1);
+        }
+        return text.toString();
+    }
+
+}
@@ -0,0 +1,130 @@
+import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
+import java.awt.*;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * A window listing the lines of a trace that weren't valid ip packets by the reason they were rejected, with the line
+ * numbers of the first few of each, which can be exported as a report. It's refreshed every second while it's open,
+ * so lines rejected from a followed file are shown as they're read.
+ */
+public class RejectedLinesDialog extends JDialog {
+
+    private static final int REFRESH_MILLIS = 1000;
+    private static final RejectedLines.Reason[] REASONS = RejectedLines.Reason.values();
+
+    private final RejectedLines rejectedLines;
+    private final JLabel totalLabel = new JLabel();
+    private final ReasonsTableModel model = new ReasonsTableModel();
+    private final Timer refreshTimer = new Timer(REFRESH_MILLIS, e -> refresh());
+
+    /**
+     * Creates a new RejectedLinesDialog
+     *
+     * @param owner         the window to show this dialog over
+     * @param title         the title of this dialog, which is also the first line of exported reports
+     * @param rejectedLines the rejected lines to list
+     * @param directory     the directory to export reports to by default, or null
+     */
+    public RejectedLinesDialog(Window owner, String title, RejectedLines rejectedLines, File directory) {
+        super(owner, title);
+        this.rejectedLines = rejectedLines;
+
+        JTable table = new JTable(model);
+        table.getColumnModel().getColumn(0).setPreferredWidth(220);
+        table.getColumnModel().getColumn(1).setPreferredWidth(80);
+        table.getColumnModel().getColumn(2).setPreferredWidth(400);
+        table.setToolTipText("Line numbers count from 1, as in a text editor");
+
+        JButton exportButton = new JButton("Export...");
+        exportButton.addActionListener(e -> export(title, directory));
+        JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        buttonPanel.add(exportButton);
+
+        totalLabel.setBorder(BorderFactory.createEmptyBorder(4, 8, 4, 8));
+        add(totalLabel, BorderLayout.NORTH);
+        add(new JScrollPane(table));
+        add(buttonPanel, BorderLayout.SOUTH);
+
+        refresh();
+        setSize(720, 260);
+        setLocationRelativeTo(owner);
+        refreshTimer.start();
+    }
+
+    @Override
+    public void dispose() {
+        refreshTimer.stop();
+        super.dispose();
+    }
+
+    private void refresh() {
+        totalLabel.setText(String.format("%,d lines rejected", rejectedLines.getTotal()));
+        model.fireTableRowsUpdated(0, REASONS.length - 1);
+    }
+
+    private void export(String title, File directory) {
+        JFileChooser chooser = new JFileChooser(directory);
+        chooser.setDialogTitle("Export rejected lines report to...");
+        if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        File output = chooser.getSelectedFile();
+        if (output.exists() && JOptionPane.showConfirmDialog(this, output.getName() + " already exists. Replace it?",
+                App.APP_NAME, JOptionPane.YES_NO_OPTION) != JOptionPane.YES_OPTION) {
+            return;
+        }
+        try {
+            rejectedLines.write(title, output);
+        } catch (IOException e) {
+            // Failed to write the report
+            System.out.println(e);
+            JOptionPane.showMessageDialog(this, "The report couldn't be exported to " + output.getName() + ".",
+                    App.APP_NAME, JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    private class ReasonsTableModel extends AbstractTableModel {
+        @Override
+        public int getRowCount() {
+            return REASONS.length;
+        }
+
+        @Override
+        public int getColumnCount() {
+            return 3;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            switch (column) {
+                case 0:
+                    return "Reason";
+                case 1:
+                    return "Lines";
+                default:
+                    return "First line numbers";
+            }
+        }
+
+        @Override
+        public Class<?> getColumnClass(int columnIndex) {
+            return columnIndex == 1 ? Long.class : String.class;
+        }
+
+        @Override
+        public Object getValueAt(int rowIndex, int columnIndex) {
+            RejectedLines.Reason reason = REASONS[rowIndex];
+            switch (columnIndex) {
+                case 0:
+                    return reason.getDescription();
+                case 1:
+                    return rejectedLines.getCount(reason);
+                default:
+                    return rejectedLines.formatSample(reason);
+            }
+        }
+    }
+
+}
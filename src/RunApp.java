@@ -3,11 +3,20 @@ import javax.swing.*;
 public class RunApp implements Runnable {
 
     public static void main(String[] args) {
+        // Any arguments run a batch query instead of the GUI, which must work on machines without a display
+        if (args.length > 0) {
+            System.setProperty("java.awt.headless", "true");
+            BatchQuery.main(args);
+            return;
+        }
+
         try {
             UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
         } catch (UnsupportedLookAndFeelException | ClassNotFoundException | InstantiationException | IllegalAccessException e) {
             // Use default look and feel
         }
+        // Record anything that freezes the user interface, so that it can be reported from the diagnostics window
+        EdtWatchdog.install();
         SwingUtilities.invokeLater(new RunApp());
     }
 
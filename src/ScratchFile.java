@@ -0,0 +1,239 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A temporary file mapped into memory, used to hold a trace's packets and lines outside of the Java heap. The
+ * operating system pages it in and out as it's used, so it can be larger than the heap (or physical memory), and the
+ * garbage collector never has to scan or copy what's in it. Direct buffers aren't used instead, as they can't grow
+ * past -XX:MaxDirectMemorySize, which defaults to the size of the heap.
+ * <p>
+ * The file is made up of {@link Column}s of fixed width values, each of which is mapped a chunk at a time as it grows.
+ * Where the platform allows an open file to be deleted, the file is deleted as soon as it's created so that it can't
+ * be left behind if the application is killed. Otherwise it's deleted when it's closed or the application exits.
+ */
+public class ScratchFile implements Closeable {
+
+    /**
+     * System property used to configure the directory scratch files are created in, which defaults to the system's
+     * temporary directory
+     */
+    public static final String DIRECTORY_PROPERTY = "packetbrowser.scratchDir";
+    // Columns grow 8 MB at a time
+    private static final int CHUNK_BITS = 23;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+    // Null if the file was deleted as soon as it was created
+    private final File file;
+    private final FileChannel channel;
+    private final List<Column> columns = new ArrayList<>();
+    private long length;
+
+    /**
+     * Creates a new empty ScratchFile in the directory given by the {@value #DIRECTORY_PROPERTY} system property
+     *
+     * @throws IOException the file couldn't be created
+     */
+    public ScratchFile() throws IOException {
+        String directory = System.getProperty(DIRECTORY_PROPERTY);
+        File file = File.createTempFile("packets", ".scratch", directory != null ? new File(directory) : null);
+        try {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        } catch (IOException e) {
+            file.delete();
+            throw e;
+        }
+
+        // Chunks that have been mapped stay usable once the file has been deleted, and its space is freed once they
+        // have all been unmapped
+        if (file.delete()) {
+            this.file = null;
+        } else {
+            file.deleteOnExit();
+            this.file = file;
+        }
+    }
+
+    /**
+     * Adds an empty column to this file
+     *
+     * @param width the number of bytes in each of the column's values, which must be 1, 4 or 8
+     * @return the new column
+     * @throws IllegalArgumentException the width isn't 1, 4 or 8
+     */
+    public synchronized Column addColumn(int width) throws IllegalArgumentException {
+        if (width != 1 && width != 4 && width != 8) {
+            throw new IllegalArgumentException("Invalid column width: " + width);
+        }
+        Column column = new Column(Integer.numberOfTrailingZeros(width));
+        columns.add(column);
+        return column;
+    }
+
+    private synchronized ByteBuffer mapChunk() throws IOException {
+        ByteBuffer chunk = channel.map(FileChannel.MapMode.READ_WRITE, length, CHUNK_SIZE);
+        length += CHUNK_SIZE;
+        return chunk.order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * @return the number of bytes of this file that have been mapped into memory
+     */
+    public synchronized long getLength() {
+        return length;
+    }
+
+    /**
+     * Deletes this file and drops every column's chunks, so that the memory they map is returned to the operating
+     * system once the garbage collector finds them. Columns can't be used once their file has been closed.
+     */
+    @Override
+    public synchronized void close() {
+        // Buffers can't be unmapped explicitly without risking a crash in any thread that's still reading them
+        for (Column column : columns) {
+            column.chunks = new ByteBuffer[0];
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.out.println(e);
+        }
+        if (file != null) {
+            file.delete();
+        }
+    }
+
+    /**
+     * A growable array of fixed width values in a scratch file, indexed from 0. Values that haven't been written are
+     * 0. A column must only be written by one thread at a time, but it can be read from any thread that has seen the
+     * values it reads be written, e.g. through a volatile count of the values in it.
+     */
+    public class Column {
+        // The log base 2 of the width of each value in bytes
+        private final int widthBits;
+        // Replaced rather than changed when the column grows, so that readers never see a partly copied array
+        private volatile ByteBuffer[] chunks = new ByteBuffer[0];
+
+        private Column(int widthBits) {
+            this.widthBits = widthBits;
+        }
+
+        /**
+         * @param index the index of a value in a column of 8 byte values
+         * @return the value
+         */
+        public long getLong(long index) {
+            return getChunk(index).getLong(getOffset(index));
+        }
+
+        /**
+         * @param index the index of a value in a column of 8 byte values
+         * @param value the value to write
+         * @throws UncheckedIOException the column couldn't grow, e.g. because the disk is full
+         */
+        public void putLong(long index, long value) throws UncheckedIOException {
+            getChunkForWrite(index).putLong(getOffset(index), value);
+        }
+
+        /**
+         * @param index the index of a value in a column of 4 byte values
+         * @return the value
+         */
+        public int getInt(long index) {
+            return getChunk(index).getInt(getOffset(index));
+        }
+
+        /**
+         * @param index the index of a value in a column of 4 byte values
+         * @param value the value to write
+         * @throws UncheckedIOException the column couldn't grow, e.g. because the disk is full
+         */
+        public void putInt(long index, int value) throws UncheckedIOException {
+            getChunkForWrite(index).putInt(getOffset(index), value);
+        }
+
+        /**
+         * @param index the index of a value in a column of 1 byte values
+         * @return the value
+         */
+        public byte getByte(long index) {
+            return getChunk(index).get(getOffset(index));
+        }
+
+        /**
+         * @param index the index of a value in a column of 1 byte values
+         * @param value the value to write
+         * @throws UncheckedIOException the column couldn't grow, e.g. because the disk is full
+         */
+        public void putByte(long index, byte value) throws UncheckedIOException {
+            getChunkForWrite(index).put(getOffset(index), value);
+        }
+
+        /**
+         * Reads a run of values from a column of 1 byte values
+         *
+         * @param index the index of the first value to read
+         * @param bytes the array to read the values into, which is filled
+         */
+        public void getBytes(long index, byte[] bytes) {
+            // Runs can cross from one chunk into the next, so they're copied a chunk at a time
+            for (int done = 0, count; done < bytes.length; done += count) {
+                ByteBuffer chunk = getChunk(index + done).duplicate();
+                chunk.position(getOffset(index + done));
+                count = Math.min(chunk.remaining(), bytes.length - done);
+                chunk.get(bytes, done, count);
+            }
+        }
+
+        /**
+         * Writes a run of values to a column of 1 byte values
+         *
+         * @param index the index of the first value to write
+         * @param bytes the values to write
+         * @throws UncheckedIOException the column couldn't grow, e.g. because the disk is full
+         */
+        public void putBytes(long index, byte[] bytes) throws UncheckedIOException {
+            for (int done = 0, count; done < bytes.length; done += count) {
+                ByteBuffer chunk = getChunkForWrite(index + done).duplicate();
+                chunk.position(getOffset(index + done));
+                count = Math.min(chunk.remaining(), bytes.length - done);
+                chunk.put(bytes, done, count);
+            }
+        }
+
+        private ByteBuffer getChunk(long index) {
+            return chunks[(int) (index << widthBits >>> CHUNK_BITS)];
+        }
+
+        private ByteBuffer getChunkForWrite(long index) throws UncheckedIOException {
+            int chunk = (int) (index << widthBits >>> CHUNK_BITS);
+            ByteBuffer[] chunks = this.chunks;
+            if (chunk >= chunks.length) {
+                int count = chunks.length;
+                chunks = Arrays.copyOf(chunks, chunk + 1);
+                try {
+                    for (int i = count; i < chunks.length; i++) {
+                        chunks[i] = mapChunk();
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                this.chunks = chunks;
+            }
+            return chunks[chunk];
+        }
+
+        private int getOffset(long index) {
+            return (int) (index << widthBits) & CHUNK_SIZE - 1;
+        }
+    }
+
+}
@@ -1,85 +1,313 @@
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
 import java.util.*;
+import java.util.concurrent.CancellationException;
 import java.util.function.Function;
 import java.util.function.Predicate;
-import java.util.regex.Pattern;
+import java.util.stream.Stream;
 
 public class Simulator {
 
-    private Pattern pattern = Pattern.compile("(?:2(?:[0-4]\\d|5[0-5])|1\\d{2}|[1-9]\\d|\\d)(?:\\.(?:2" +
-            "(?:[0-4]\\d|5[0-5])|1\\d{2}|[1-9]\\d|\\d)){3}");
+    private final List<Packet> validIPPackets;
+    // Null if the packets are held in a PacketStore, in which case the packets with ports are found as they're needed
+    // rather than listed twice
+    private final List<Packet> validPortPackets;
+    private FlowTable flowTable = new FlowTable();
+    private TopTalkers topTalkers = new TopTalkers();
+    private DistinctCounts distinctCounts = new DistinctCounts();
+    // Shared by every packet this Simulator parses, so each distinct host is only held once
+    private final HostDictionary hosts;
+    private final RejectedLines rejectedLines = new RejectedLines();
+    private boolean areSummariesStale;
 
-    private ArrayList<Packet> validIPPackets = new ArrayList<>();
-    private ArrayList<Packet> validPortPackets = new ArrayList<>();
+    /**
+     * Creates a new Simulator with no packets
+     */
+    public Simulator() {
+        validIPPackets = new ArrayList<>();
+        validPortPackets = new ArrayList<>();
+        hosts = new HostDictionary();
+    }
+
+    /**
+     * Creates a new Simulator whose packets are held in a PacketStore rather than on the heap. The packets it parses
+     * share the store's hosts, so they can be added to it without looking each host up.
+     *
+     * @param store the empty store to add packets to
+     */
+    public Simulator(PacketStore store) {
+        validIPPackets = store;
+        validPortPackets = null;
+        hosts = store.getHostDictionary();
+    }
 
     /**
      * Creates a new Simulator
      *
-     * @param file a file containing tab delimited lines of packet data
+     * @param file a file containing tab delimited lines of packet data, which may be gzip compressed
+     * @throws CancellationException the thread creating this Simulator was interrupted before the file was read
      * @see Packet#Packet(String)
      */
-    public Simulator(File file) {
+    public Simulator(File file) throws CancellationException {
+        this();
         Packet packet;
-        try {
-            List<String> lines = Files.readAllLines(file.toPath());
-            for (int i = 0; i < lines.size(); i++) {
-                try {
-                    packet = new Packet(lines.get(i));
-                } catch (IllegalArgumentException e) {
-                    // Invalid data
-                    continue;
+        PerformanceMetrics.PhaseTimer timer = new PerformanceMetrics.PhaseTimer();
+        int rows = 0;
+        long bytes = 0;
+        try (TraceLineReader reader = TraceLineReader.open(file)) {
+            String line;
+            for (; (line = reader.readLine()) != null; rows++) {
+                // Stop early if the load has been cancelled so that the packets read so far can be collected
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new CancellationException("Loading of " + file + " was cancelled");
                 }
-                packet.setLineIndex(i);
-                if (hasValidIPData(packet)) {
-                    validIPPackets.add(packet);
-                    if (hasValidPortData(packet)) {
-                        validPortPackets.add(packet);
-                    }
+                timer.lap(PerformanceMetrics.Phase.READ);
+                packet = parseLine(line, rows, hosts, rejectedLines);
+                timer.lap(PerformanceMetrics.Phase.PARSE);
+                if (validate(packet)) {
+                    timer.lap(PerformanceMetrics.Phase.VALIDATE);
+                    addPacket(packet);
+                    timer.lap(PerformanceMetrics.Phase.INDEX);
+                } else {
+                    timer.lap(PerformanceMetrics.Phase.VALIDATE);
                 }
             }
+            bytes = reader.getOffset();
         } catch (IOException e) {
             // Failed to read file
             System.out.println(e);
         }
+        PerformanceMetrics.getInstance().recordLoad(timer, rows, validIPPackets.size(), bytes, 0);
+    }
+
+    /**
+     * Parses a line of packet data, recording the line in this Simulator's rejected lines if it's invalid. This only
+     * changes the host dictionary and rejected lines, so it can be called from a thread other than the one adding
+     * packets, as long as it's only called from one thread at a time.
+     *
+     * @param line      a line of tab delimited packet data
+     * @param lineIndex the line's index in its file
+     * @return the parsed packet, or null if the line doesn't contain a packet with valid ip data
+     * @see Packet#Packet(String)
+     */
+    public Packet parsePacket(String line, int lineIndex) {
+        Packet packet = parseLine(line, lineIndex, hosts, rejectedLines);
+        return validate(packet) ? packet : null;
+    }
+
+    /**
+     * Parses a line of packet data without checking that its hosts have valid ip addresses, so that the two can be
+     * timed separately.
+     *
+     * @param line      a line of tab delimited packet data
+     * @param lineIndex the line's index in its file
+     * @return the parsed packet, or null if the line couldn't be parsed
+     * @see #hasValidIPData(Packet)
+     */
+    public static Packet parseLine(String line, int lineIndex) {
+        return parseLine(line, lineIndex, null, null);
+    }
+
+    /**
+     * Parses a line of packet data as {@link #parseLine(String, int)} does, sharing the packet's hosts with the other
+     * packets parsed using the same dictionary and recording the line if it's invalid.
+     *
+     * @param line      a line of tab delimited packet data
+     * @param lineIndex the line's index in its file
+     * @param hosts     the dictionary of the trace's hosts, or null for the packet to have its own hosts
+     * @param rejected  where the reason the line is invalid is recorded, or null
+     * @return the parsed packet, or null if the line couldn't be parsed
+     * @see #getHostDictionary()
+     * @see #getRejectedLines()
+     */
+    public static Packet parseLine(String line, int lineIndex, HostDictionary hosts, RejectedLines rejected) {
+        return Packet.parse(line, lineIndex, hosts, rejected);
+    }
+
+    /**
+     * Adds a packet returned by {@link #parsePacket(String, int)} to this Simulator.
+     *
+     * @param packet the packet to add
+     */
+    public void addPacket(Packet packet) {
+        validIPPackets.add(packet);
+        if (validPortPackets != null && hasValidPortData(packet)) {
+            validPortPackets.add(packet);
+        }
+        distinctCounts.add(packet);
+        if (!areSummariesStale) {
+            flowTable.add(packet);
+            topTalkers.add(packet);
+        }
+    }
+
+    /**
+     * Returns a summary of every flow in this Simulator, which is kept up to date as packets are added.
+     *
+     * @return the flow table of this Simulator's packets
+     */
+    public FlowTable getFlowTable() {
+        updateSummaries();
+        return flowTable;
+    }
+
+    /**
+     * Returns the busiest hosts, ports and pairs of them in this Simulator, which are kept up to date as packets are
+     * added.
+     *
+     * @return the top talkers of this Simulator's packets
+     */
+    public TopTalkers getTopTalkers() {
+        updateSummaries();
+        return topTalkers;
+    }
+
+    /**
+     * Returns estimates of the number of distinct hosts, ports and pairs of them in this Simulator, which are kept up
+     * to date as packets are added. Unlike {@link #getUniqueSortedSourceHostIPs()} and the like, these use a fixed
+     * amount of memory however many distinct values there are.
+     *
+     * @return the distinct value counts of this Simulator's packets
+     */
+    public DistinctCounts getDistinctCounts() {
+        return distinctCounts;
+    }
+
+    /**
+     * Returns the dictionary of hosts shared by the packets this Simulator parses. Packets read elsewhere, e.g. from a
+     * capture file, can share it too, as long as it's only used by one thread at a time.
+     *
+     * @return the host dictionary of this Simulator's packets
+     */
+    public HostDictionary getHostDictionary() {
+        return hosts;
+    }
+
+    /**
+     * @return the lines this Simulator has rejected, by the reason they weren't valid ip packets
+     */
+    public RejectedLines getRejectedLines() {
+        return rejectedLines;
+    }
+
+    /**
+     * Marks the flow table and top talkers as out of date, e.g. because a packet's size was edited. They will be
+     * rebuilt the next time they're asked for.
+     */
+    public void invalidateSummaries() {
+        areSummariesStale = true;
+    }
+
+    /**
+     * Returns the memory used by the flow table and top talkers without rebuilding them if they're out of date, so
+     * that estimating memory after an edit doesn't rebuild them before anything asks for them. A stale flow table or
+     * top talkers still holds its memory until it's rebuilt.
+     *
+     * @return the estimated number of bytes of heap used by the flow table and top talkers
+     */
+    long getSummaryMemoryUsage() {
+        return flowTable.getMemoryUsage() + topTalkers.getMemoryUsage();
+    }
+
+    private void updateSummaries() {
+        if (areSummariesStale) {
+            // Rebuilding in place keeps each flow at the same index, as packets are added in the same order
+            flowTable.clear();
+            topTalkers.clear();
+            for (Packet packet : validIPPackets) {
+                flowTable.add(packet);
+                topTalkers.add(packet);
+            }
+            areSummariesStale = false;
+        }
     }
 
-    private boolean hasValidIPData(Packet packet) {
-        return pattern.matcher(packet.getSourceHostIP()).matches()
-                && pattern.matcher(packet.getDestinationHostIP()).matches();
+    /**
+     * @param packet the packet to check
+     * @return true if both of the packet's hosts have a valid ipv4 address
+     */
+    public boolean hasValidIPData(Packet packet) {
+        return validateIPData(packet) == null;
     }
 
-    private boolean hasValidPortData(Packet packet) {
+    /**
+     * @param packet the packet to check
+     * @return the reason the packet isn't a valid ip packet, or null if both of its hosts have a valid ipv4 address
+     */
+    public RejectedLines.Reason validateIPData(Packet packet) {
+        if (!Host.isValidIP(packet.getSourceHostIP())) {
+            return RejectedLines.Reason.INVALID_SOURCE_IP;
+        }
+        if (!Host.isValidIP(packet.getDestinationHostIP())) {
+            return RejectedLines.Reason.INVALID_DESTINATION_IP;
+        }
+        return null;
+    }
+
+    /**
+     * Checks a packet returned by {@link #parseLine(String, int, HostDictionary, RejectedLines)}, recording its line in
+     * this Simulator's rejected lines if it isn't a valid ip packet.
+     *
+     * @param packet the packet to check, or null if its line couldn't be parsed (and so has already been recorded)
+     * @return true if the packet is a valid ip packet
+     */
+    public boolean validate(Packet packet) {
+        if (packet == null) {
+            return false;
+        }
+        RejectedLines.Reason reason = validateIPData(packet);
+        if (reason != null) {
+            rejectedLines.add(reason, packet.getLineIndex());
+        }
+        return reason == null;
+    }
+
+    /**
+     * @param packet the packet to check
+     * @return true if both of the packet's hosts have a port number
+     */
+    public static boolean hasValidPortData(Packet packet) {
         return packet.getSourceHostPort() != null && packet.getDestinationHostPort() != null;
     }
 
     /**
-     * @return an ArrayList of valid Packet objects
+     * @return a list of valid Packet objects, in the order they were added
      */
-    public ArrayList<Packet> getValidIPPackets() {
+    public List<Packet> getValidIPPackets() {
         return validIPPackets;
     }
 
+    private Stream<Packet> getValidPortPackets() {
+        return validPortPackets != null ? validPortPackets.stream()
+                : validIPPackets.stream().filter(Simulator::hasValidPortData);
+    }
+
     /**
      * @return an array of unique hosts sorted by their ip address
      */
     private String[] getUniqueSortedHostIPs(boolean isSrcHost) {
 
         Function<Packet, String> getHost = isSrcHost ? Packet::getSourceHostIP : Packet::getDestinationHostIP;
-        ArrayList<String> hostIPs = new ArrayList<>();
-        validIPPackets.forEach(packet -> hostIPs.add(getHost.apply(packet)));
-
-        // Add all host ips to a HashSet to get the unique elements
-        Set<String> ipsSet = new HashSet<>(hostIPs);
 
-        // Create a host for each unique source host
-        ArrayList<Host> hostArrayList = new ArrayList<>();
-        ipsSet.forEach(ip -> hostArrayList.add(new Host(ip)));
+        // Add all host ips to a HashSet to get the unique elements, without first copying every packet's ip to a list
+        Set<String> ipsSet = new HashSet<>();
+        validIPPackets.forEach(packet -> ipsSet.add(getHost.apply(packet)));
+
+        // Sort by packed address rather than comparing Hosts, which splits both ips on every comparison. Each sort key
+        // holds an ip's address in its high half and its index in its low half. The address's sign bit is flipped, so
+        // that sorting the keys as signed longs orders addresses from 128.0.0.0 up after the rest.
+        String[] ips = ipsSet.toArray(new String[0]);
+        long[] sortKeys = new long[ips.length];
+        for (int i = 0; i < ips.length; i++) {
+            sortKeys[i] = (long) (Host.packIP(ips[i]) ^ Integer.MIN_VALUE) << 32 | i;
+        }
+        Arrays.sort(sortKeys);
 
-        Host[] uniqueHosts = hostArrayList.toArray(new Host[0]);
-        Arrays.sort(uniqueHosts);
-        return Arrays.stream(uniqueHosts).map(Host::getIp).toArray(String[]::new);
+        String[] sortedIPs = new String[ips.length];
+        for (int i = 0; i < sortKeys.length; i++) {
+            sortedIPs[i] = ips[(int) sortKeys[i]];
+        }
+        return sortedIPs;
     }
 
     /**
@@ -130,6 +358,25 @@ public class Simulator {
         return validIPPackets.stream().filter(predicate).toArray(Packet[]::new);
     }
 
+    /**
+     * Returns an array of valid Packet objects that belong to the flow between the given hosts, i.e. whose source and
+     * destination ip addresses and port numbers all match.
+     *
+     * @param srcIP    the source ip address
+     * @param srcPort  the source port number, or null to match packets with no source port
+     * @param destIP   the destination ip address
+     * @param destPort the destination port number, or null to match packets with no destination port
+     * @return an array of matching packet objects
+     * @see FlowTable
+     */
+    public Packet[] getFlowTableData(String srcIP, Integer srcPort, String destIP, Integer destPort) {
+        Predicate<Packet> predicate;
+        predicate = packet -> packet.getSourceHostIP().equals(srcIP) && packet.getDestinationHostIP().equals(destIP)
+                && Objects.equals(packet.getSourceHostPort(), srcPort)
+                && Objects.equals(packet.getDestinationHostPort(), destPort);
+        return validIPPackets.stream().filter(predicate).toArray(Packet[]::new);
+    }
+
     /**
      * @return an array of unique sorted port numbers
      */
@@ -138,7 +385,7 @@ public class Simulator {
         // Fix this so it only grabs packets with valid src and dest port values
         Function<Packet, Integer> getHost = isSrcHost ? Packet::getSourceHostPort : Packet::getDestinationHostPort;
         ArrayList<Integer> hostPorts = new ArrayList<>();
-        validPortPackets.forEach(packet -> hostPorts.add(getHost.apply(packet)));
+        getValidPortPackets().forEach(packet -> hostPorts.add(getHost.apply(packet)));
 
         // Add all host ports to a HashSet to get the unique elements
         Set<Integer> portsSet = new HashSet<>(hostPorts);
@@ -179,7 +426,7 @@ public class Simulator {
         } else {
             predicate = packet -> packet.getDestinationHostPort().equals(port);
         }
-        return validPortPackets.stream().filter(predicate).toArray(Packet[]::new);
+        return getValidPortPackets().filter(predicate).toArray(Packet[]::new);
     }
 
     /**
@@ -192,7 +439,7 @@ public class Simulator {
     public Packet[] getPacketFlowTableData(Integer srcPort, Integer destPort) {
         Predicate<Packet> predicate;
         predicate = packet -> packet.getSourceHostPort().equals(srcPort) && packet.getDestinationHostPort().equals(destPort);
-        return validPortPackets.stream().filter(predicate).toArray(Packet[]::new);
+        return getValidPortPackets().filter(predicate).toArray(Packet[]::new);
     }
 
 
@@ -0,0 +1,276 @@
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+
+/**
+ * A chart of the packets or bytes in each bucket of a trace's {@link ThroughputSeries}, with the series of the current
+ * selection drawn over it.
+ * <p>
+ * Series are downsampled to the chart's width before being drawn, keeping the minimum and maximum of the buckets that
+ * fall in each column of pixels so that short bursts are never lost. Drawing is then proportional to the chart's width
+ * rather than to the number of buckets.
+ * <p>
+ * Clicking the chart selects the time window of the clicked column, and fires a PropertyChangeEvent for the property
+ * "timeWindow" with a {@code long[]} of the window's start and end times in nanoseconds, or null when the window is
+ * cleared by clicking it again or right clicking.
+ */
+public class ThroughputChart extends JComponent {
+
+    private static final Color TRACE_COLOR = new Color(200, 200, 200);
+    private static final Color TRACE_RANGE_COLOR = new Color(150, 150, 150);
+    private static final Color SELECTION_COLOR = new Color(100, 150, 220);
+    private static final Color SELECTION_RANGE_COLOR = new Color(40, 90, 170);
+    private static final Color WINDOW_COLOR = new Color(255, 200, 0, 80);
+    private static final int PADDING = 4;
+
+    private ThroughputSeries traceSeries, selectionSeries;
+    private DistinctCounts distinctCounts;
+    private boolean isBytes = true;
+    private long[] timeWindow;
+
+    // The downsampled series, recalculated only when the series or the chart's width change
+    private long[] traceMins, traceMaxes, selectionMins, selectionMaxes;
+
+    /**
+     * Creates a new ThroughputChart with no data
+     */
+    public ThroughputChart() {
+        setPreferredSize(new Dimension(0, 140));
+        setToolTipText("");
+        MouseAdapter mouseAdapter = new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                long[] window = SwingUtilities.isRightMouseButton(e) ? null : getColumnWindow(e.getX());
+                if (window != null && timeWindow != null && window[0] == timeWindow[0] && window[1] == timeWindow[1]) {
+                    window = null;
+                }
+                setTimeWindow(window);
+            }
+        };
+        addMouseListener(mouseAdapter);
+    }
+
+    /**
+     * Sets the series for the whole trace, which determines the chart's time range.
+     *
+     * @param traceSeries the series of every packet in the trace, or null to clear the chart
+     */
+    public void setTraceSeries(ThroughputSeries traceSeries) {
+        this.traceSeries = traceSeries;
+        seriesChanged();
+    }
+
+    /**
+     * @param selectionSeries the series of the currently selected packets, or null if nothing is selected
+     */
+    public void setSelectionSeries(ThroughputSeries selectionSeries) {
+        this.selectionSeries = selectionSeries;
+        seriesChanged();
+    }
+
+    /**
+     * @param distinctCounts the trace's distinct value counts, used to show how many hosts are in each window, or
+     *                       null to not show them
+     */
+    public void setDistinctCounts(DistinctCounts distinctCounts) {
+        this.distinctCounts = distinctCounts;
+    }
+
+    /**
+     * Redraws the chart after packets were added to its series.
+     */
+    public void seriesChanged() {
+        traceMaxes = null;
+        repaint();
+    }
+
+    /**
+     * @param isBytes true to chart the bytes in each bucket, false to chart the number of packets
+     */
+    public void setBytes(boolean isBytes) {
+        this.isBytes = isBytes;
+        seriesChanged();
+    }
+
+    /**
+     * @return the selected time window's start and end times in nanoseconds, or null if no window is selected
+     */
+    public long[] getTimeWindow() {
+        return timeWindow;
+    }
+
+    /**
+     * Highlights the given time window and fires a PropertyChangeEvent for the property "timeWindow".
+     *
+     * @param timeWindow the window's start and end times in nanoseconds, or null to clear the window
+     */
+    public void setTimeWindow(long[] timeWindow) {
+        long[] oldTimeWindow = this.timeWindow;
+        this.timeWindow = timeWindow;
+        repaint();
+        firePropertyChange("timeWindow", oldTimeWindow, timeWindow);
+    }
+
+    private int getChartWidth() {
+        return Math.max(1, getWidth() - 2 * PADDING);
+    }
+
+    private double getX(double time) {
+        double start = traceSeries.getStartTime();
+        return PADDING + (time - start) * getChartWidth() / (traceSeries.getEndTime() - start);
+    }
+
+    /**
+     * @return the start and end times in nanoseconds of the buckets drawn in the given column of pixels, or null if
+     * it's outside the chart
+     */
+    private long[] getColumnWindow(int x) {
+        if (traceSeries == null || traceSeries.getBucketCount() == 0 || x < PADDING || x >= PADDING + getChartWidth()) {
+            return null;
+        }
+        long[] range = getBucketRange(traceSeries, x - PADDING);
+        return new long[]{traceSeries.getBucketStartNanos(range[0]), traceSeries.getBucketStartNanos(range[1])};
+    }
+
+    /**
+     * @return the first bucket of the given series drawn in the given column, and the bucket after the last one
+     */
+    private long[] getBucketRange(ThroughputSeries series, int column) {
+        double start = traceSeries.getStartTime();
+        double columnWidth = (traceSeries.getEndTime() - start) / getChartWidth();
+        double from = (start + column * columnWidth - series.getStartTime()) / series.getBucketWidth();
+        double to = (start + (column + 1) * columnWidth - series.getStartTime()) / series.getBucketWidth();
+        long first = (long) Math.floor(from + 1e-9);
+        long end = Math.max(first + 1, (long) Math.ceil(to - 1e-9));
+        return new long[]{first, end};
+    }
+
+    private void downsample() {
+        int width = getChartWidth();
+        traceMins = new long[width];
+        traceMaxes = new long[width];
+        downsample(traceSeries, traceMins, traceMaxes);
+        if (selectionSeries != null && selectionSeries.getBucketCount() > 0) {
+            selectionMins = new long[width];
+            selectionMaxes = new long[width];
+            downsample(selectionSeries, selectionMins, selectionMaxes);
+        } else {
+            selectionMins = null;
+            selectionMaxes = null;
+        }
+    }
+
+    private void downsample(ThroughputSeries series, long[] mins, long[] maxes) {
+        for (int column = 0; column < mins.length; column++) {
+            long[] range = getBucketRange(series, column);
+            int first = (int) Math.max(0, range[0]);
+            int end = (int) Math.min(series.getBucketCount(), range[1]);
+            long min = Long.MAX_VALUE, max = 0;
+            for (int i = first; i < end; i++) {
+                long value = series.getValue(i, isBytes);
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+            mins[column] = first < end ? min : 0;
+            maxes[column] = max;
+        }
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        super.paintComponent(g);
+        g.setColor(Color.white);
+        g.fillRect(0, 0, getWidth(), getHeight());
+        if (traceSeries == null || traceSeries.getBucketCount() == 0) {
+            return;
+        }
+
+        if (traceMaxes == null || traceMaxes.length != getChartWidth()) {
+            downsample();
+        }
+        long maxValue = Math.max(1, traceSeries.getMaxValue(isBytes));
+        FontMetrics metrics = g.getFontMetrics();
+        int top = PADDING + metrics.getHeight();
+        int bottom = getHeight() - PADDING - metrics.getHeight();
+        double scale = (double) (bottom - top) / maxValue;
+
+        drawSeries(g, traceMins, traceMaxes, bottom, scale, TRACE_COLOR, TRACE_RANGE_COLOR);
+        if (selectionMaxes != null) {
+            drawSeries(g, selectionMins, selectionMaxes, bottom, scale, SELECTION_COLOR, SELECTION_RANGE_COLOR);
+        }
+
+        if (timeWindow != null) {
+            int x1 = (int) Math.floor(getX(Timestamps.toSeconds(timeWindow[0])));
+            int x2 = (int) Math.ceil(getX(Timestamps.toSeconds(timeWindow[1])));
+            g.setColor(WINDOW_COLOR);
+            g.fillRect(x1, top, Math.max(1, x2 - x1), bottom - top);
+        }
+
+        // Label the axes with the largest bucket and the trace's time range
+        g.setColor(Color.darkGray);
+        g.drawLine(PADDING, bottom, PADDING + getChartWidth(), bottom);
+        g.drawString(String.format("%,d %s per %s bucket", maxValue, isBytes ? "bytes" : "packets",
+                formatDuration(traceSeries.getBucketWidth())), PADDING, PADDING + metrics.getAscent());
+        int labelY = bottom + metrics.getAscent();
+        g.drawString(String.format("%.3f s", traceSeries.getStartTime()), PADDING, labelY);
+        String endLabel = String.format("%.3f s", traceSeries.getEndTime());
+        g.drawString(endLabel, PADDING + getChartWidth() - metrics.stringWidth(endLabel), labelY);
+    }
+
+    private static void drawSeries(Graphics g, long[] mins, long[] maxes, int bottom, double scale, Color color,
+                                   Color rangeColor) {
+        for (int column = 0; column < maxes.length; column++) {
+            if (maxes[column] == 0) {
+                continue;
+            }
+            int x = PADDING + column;
+            int maxY = bottom - (int) Math.round(maxes[column] * scale);
+            int minY = bottom - (int) Math.round(mins[column] * scale);
+            g.setColor(color);
+            g.drawLine(x, bottom, x, minY);
+            // Show the spread of the buckets in the column where several were merged into it
+            g.setColor(rangeColor);
+            g.drawLine(x, minY, x, maxY);
+        }
+    }
+
+    @Override
+    public String getToolTipText(MouseEvent event) {
+        long[] window = getColumnWindow(event.getX());
+        if (window == null) {
+            return null;
+        }
+        long traceValue = sum(traceSeries, window), selectionValue = sum(selectionSeries, window);
+        String unit = isBytes ? "bytes" : "packets";
+        String hosts = "";
+        if (distinctCounts != null) {
+            hosts = String.format("<br>About %,d source and %,d destination ips",
+                    distinctCounts.getEstimate(TopTalkers.Dimension.SRC_IP, window[0], window[1]),
+                    distinctCounts.getEstimate(TopTalkers.Dimension.DEST_IP, window[0], window[1]));
+        }
+        return String.format("<html>%.3f s to %.3f s<br>Trace: %,d %s<br>Selection: %,d %s%s<br>Click to filter the "
+                + "table to this time</html>", Timestamps.toSeconds(window[0]), Timestamps.toSeconds(window[1]),
+                traceValue, unit, selectionValue, unit, hosts);
+    }
+
+    private long sum(ThroughputSeries series, long[] window) {
+        if (series == null) {
+            return 0;
+        }
+        // The window's end is exclusive, so the last bucket is the one holding the nanosecond before it
+        long first = Math.max(0, series.getBucketIndex(window[0]));
+        long last = series.getBucketIndex(window[1] - 1);
+        long end = Math.min(series.getBucketCount(), last + 1);
+        long sum = 0;
+        for (long i = first; i < end; i++) {
+            sum += series.getValue((int) i, isBytes);
+        }
+        return sum;
+    }
+
+    private static String formatDuration(double seconds) {
+        return seconds < 1 ? String.format("%.0f ms", seconds * 1000) : String.format("%.0f s", seconds);
+    }
+
+}
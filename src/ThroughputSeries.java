@@ -0,0 +1,215 @@
+import java.util.Arrays;
+
+/**
+ * The number of packets and bytes seen in each fixed width window of time (a bucket) over a trace.
+ * <p>
+ * Buckets are stored in primitive arrays that grow as packets outside the current range are added. So that very fine
+ * bucket widths can't use unbounded memory, the bucket width is doubled (merging neighbouring buckets) whenever the
+ * series would need more than {@value #MAX_BUCKETS} buckets.
+ */
+public class ThroughputSeries {
+
+    private static final int MAX_BUCKETS = 1 << 22;
+
+    private double bucketWidth;
+    // The same width in nanoseconds, so that packets are put in buckets exactly
+    private long bucketWidthNanos;
+    // The bucket index of packetCounts[0], i.e. the start of the series is firstBucket * bucketWidth
+    private long firstBucket;
+    private int bucketCount;
+    private long[] packetCounts = new long[0];
+    private long[] byteCounts = new long[0];
+    private long maxPacketCount, maxByteCount;
+
+    /**
+     * Creates a new empty ThroughputSeries
+     *
+     * @param bucketWidth the width of each bucket in the same units as packet timestamps (seconds)
+     */
+    public ThroughputSeries(double bucketWidth) {
+        this.bucketWidth = bucketWidth;
+        bucketWidthNanos = Math.max(1, Timestamps.toNanos(bucketWidth));
+    }
+
+    /**
+     * Creates a new ThroughputSeries of the given packets
+     *
+     * @param packets     the packets to count
+     * @param bucketWidth the width of each bucket in seconds
+     */
+    public ThroughputSeries(Iterable<Packet> packets, double bucketWidth) {
+        this(bucketWidth);
+        packets.forEach(this::add);
+    }
+
+    /**
+     * Adds a packet to the bucket its timestamp falls in. Packets with no timestamp are ignored.
+     *
+     * @param packet the packet to add
+     */
+    public void add(Packet packet) {
+        if (!packet.hasTimeStamp()) {
+            return;
+        }
+
+        long bucket = Math.floorDiv(packet.getTimeNanos(), bucketWidthNanos);
+        if (bucketCount == 0) {
+            firstBucket = bucket;
+        }
+        while (bucket < firstBucket || bucket >= firstBucket + bucketCount) {
+            if (!grow(bucket)) {
+                // The width has doubled, so the packet's bucket has changed
+                bucket = Math.floorDiv(packet.getTimeNanos(), bucketWidthNanos);
+            }
+        }
+
+        int index = (int) (bucket - firstBucket);
+        packetCounts[index]++;
+        if (packet.getIpPacketSize() != null) {
+            byteCounts[index] += packet.getIpPacketSize();
+        }
+        maxPacketCount = Math.max(maxPacketCount, packetCounts[index]);
+        maxByteCount = Math.max(maxByteCount, byteCounts[index]);
+    }
+
+    /**
+     * Moves the bytes of a packet that's already in this series from its previous size to its current one, which
+     * doesn't need the other packets to be counted again.
+     *
+     * @param packet       a packet that was added to this series and has since had its size edited
+     * @param previousSize the packet's ip packet size when it was added, or null if it had none
+     */
+    public void updateSize(Packet packet, Integer previousSize) {
+        if (!packet.hasTimeStamp()) {
+            return;
+        }
+        long index = Math.floorDiv(packet.getTimeNanos(), bucketWidthNanos) - firstBucket;
+        if (index < 0 || index >= bucketCount) {
+            return;
+        }
+        long previousBytes = byteCounts[(int) index];
+        byteCounts[(int) index] += (packet.getIpPacketSize() != null ? packet.getIpPacketSize() : 0)
+                - (previousSize != null ? previousSize : 0);
+        if (byteCounts[(int) index] >= maxByteCount) {
+            maxByteCount = byteCounts[(int) index];
+        } else if (previousBytes == maxByteCount) {
+            // The largest bucket may have shrunk, so find the largest again
+            maxByteCount = Arrays.stream(byteCounts).max().orElse(0);
+        }
+    }
+
+    /**
+     * Extends the series to include the given bucket, or doubles the bucket width if that would need too many buckets.
+     *
+     * @return true if the series was extended, or false if the bucket width was changed instead
+     */
+    private boolean grow(long bucket) {
+        long first = Math.min(firstBucket, bucket);
+        long end = Math.max(firstBucket + bucketCount, bucket + 1);
+        if (end - first > MAX_BUCKETS) {
+            doubleBucketWidth();
+            return false;
+        }
+
+        int shift = (int) (firstBucket - first);
+        int length = (int) (end - first);
+        if (shift > 0 || length > packetCounts.length) {
+            // Leave room to grow to the right, as packets are usually added in time order
+            int capacity = (int) Math.min(MAX_BUCKETS, Math.max(length, 2L * packetCounts.length));
+            long[] newPacketCounts = new long[capacity];
+            long[] newByteCounts = new long[capacity];
+            System.arraycopy(packetCounts, 0, newPacketCounts, shift, bucketCount);
+            System.arraycopy(byteCounts, 0, newByteCounts, shift, bucketCount);
+            packetCounts = newPacketCounts;
+            byteCounts = newByteCounts;
+        }
+        firstBucket = first;
+        bucketCount = length;
+        return true;
+    }
+
+    private void doubleBucketWidth() {
+        // Merge pairs of buckets that fall in the same bucket of twice the width
+        long newFirst = Math.floorDiv(firstBucket, 2);
+        long newEnd = Math.floorDiv(firstBucket + bucketCount - 1, 2) + 1;
+        int newCount = (int) (newEnd - newFirst);
+        long[] newPacketCounts = new long[Math.max(newCount, packetCounts.length / 2)];
+        long[] newByteCounts = new long[newPacketCounts.length];
+        for (int i = 0; i < bucketCount; i++) {
+            int index = (int) (Math.floorDiv(firstBucket + i, 2) - newFirst);
+            newPacketCounts[index] += packetCounts[i];
+            newByteCounts[index] += byteCounts[i];
+        }
+
+        packetCounts = newPacketCounts;
+        byteCounts = newByteCounts;
+        firstBucket = newFirst;
+        bucketCount = newCount;
+        bucketWidth *= 2;
+        bucketWidthNanos *= 2;
+        maxPacketCount = Arrays.stream(packetCounts).max().orElse(0);
+        maxByteCount = Arrays.stream(byteCounts).max().orElse(0);
+    }
+
+    /**
+     * @return the width of each bucket in seconds, which may be larger than the width this series was created with
+     */
+    public double getBucketWidth() {
+        return bucketWidth;
+    }
+
+    /**
+     * @return the number of buckets from the first packet's bucket to the last
+     */
+    public int getBucketCount() {
+        return bucketCount;
+    }
+
+    /**
+     * @return the time the first bucket starts at, or 0 if this series is empty
+     */
+    public double getStartTime() {
+        return firstBucket * bucketWidth;
+    }
+
+    /**
+     * @return the time the last bucket ends at, or 0 if this series is empty
+     */
+    public double getEndTime() {
+        return (firstBucket + bucketCount) * bucketWidth;
+    }
+
+    /**
+     * @param timeNanos a timestamp in nanoseconds
+     * @return the index of the bucket containing the given time, which may be outside of this series
+     */
+    public long getBucketIndex(long timeNanos) {
+        return Math.floorDiv(timeNanos, bucketWidthNanos) - firstBucket;
+    }
+
+    /**
+     * @param index the index of a bucket, from 0 to {@link #getBucketCount()} - 1
+     * @return the time the bucket starts at in nanoseconds, which is exactly where packets are put in buckets
+     */
+    public long getBucketStartNanos(long index) {
+        return (firstBucket + index) * bucketWidthNanos;
+    }
+
+    /**
+     * @param index   the index of a bucket
+     * @param isBytes true to get the bucket's byte count, false to get its packet count
+     * @return the number of bytes or packets in the bucket
+     */
+    public long getValue(int index, boolean isBytes) {
+        return isBytes ? byteCounts[index] : packetCounts[index];
+    }
+
+    /**
+     * @param isBytes true to get the largest byte count, false to get the largest packet count
+     * @return the largest value of any bucket
+     */
+    public long getMaxValue(boolean isBytes) {
+        return isBytes ? maxByteCount : maxPacketCount;
+    }
+
+}
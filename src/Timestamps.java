@@ -0,0 +1,169 @@
+/**
+ * Converts the timestamps of trace files, which are written as decimal seconds (e.g. "1.001451000"), to and from whole
+ * nanoseconds. Held as longs, timestamps keep every digit they were written with however long the capture is, and can
+ * be compared and bucketed with integer arithmetic.
+ */
+public final class Timestamps {
+
+    public static final long NANOS_PER_SECOND = 1_000_000_000L;
+    // Returned by tryParse for text that isn't a valid timestamp, which is outside the range parse can return
+    public static final long INVALID = Long.MIN_VALUE;
+    // Nanoseconds have nine decimal places
+    private static final int MAX_DIGITS = 9;
+    private static final long[] POWERS_OF_TEN = {1, 10, 100, 1_000, 10_000, 100_000, 1_000_000, 10_000_000,
+            100_000_000, NANOS_PER_SECOND};
+    // Larger numbers of seconds could overflow a long of nanoseconds
+    private static final long MAX_SECONDS = Long.MAX_VALUE / NANOS_PER_SECOND - 1;
+
+    private Timestamps() {
+    }
+
+    /**
+     * Parses a number of seconds into nanoseconds, without going through a double for plain decimals like
+     * "1.001451000". Decimal places after the ninth are rounded, and any other form of number (e.g. "1e-3") is parsed
+     * as a double. Whitespace around the number is ignored, as it is by {@link Double#parseDouble(String)}.
+     *
+     * @param text a number of seconds
+     * @return the number of nanoseconds
+     * @throws NumberFormatException text isn't a number, or has too many seconds to be held in nanoseconds
+     */
+    public static long parse(String text) throws NumberFormatException {
+        long nanos = tryParse(text);
+        if (nanos == INVALID) {
+            throw new NumberFormatException("Invalid timestamp: \"" + text + "\"");
+        }
+        return nanos;
+    }
+
+    /**
+     * Parses a number of seconds into nanoseconds as {@link #parse(String)} does, but without throwing an exception if
+     * it's invalid, as traces can have millions of invalid timestamps.
+     *
+     * @param text a number of seconds
+     * @return the number of nanoseconds, or {@link #INVALID} if text isn't a number or has too many seconds
+     */
+    public static long tryParse(String text) {
+        // Trimming only allocates for the rare timestamp that has whitespace around it
+        if (!text.isEmpty() && (text.charAt(0) <= ' ' || text.charAt(text.length() - 1) <= ' ')) {
+            text = text.trim();
+        }
+        int length = text.length();
+        int i = 0;
+        boolean isNegative = length > 0 && text.charAt(0) == '-';
+        if (isNegative || length > 0 && text.charAt(0) == '+') {
+            i++;
+        }
+
+        long seconds = 0, fraction = 0;
+        int digits = 0;
+        boolean hasDigits = false, isRoundedUp = false;
+        char c;
+        for (; i < length && (c = text.charAt(i)) >= '0' && c <= '9'; i++) {
+            if (seconds > MAX_SECONDS) {
+                return parseDouble(text);
+            }
+            seconds = seconds * 10 + (c - '0');
+            hasDigits = true;
+        }
+        if (i < length && text.charAt(i) == '.') {
+            for (i++; i < length && (c = text.charAt(i)) >= '0' && c <= '9'; i++) {
+                if (digits < MAX_DIGITS) {
+                    fraction = fraction * 10 + (c - '0');
+                } else if (digits == MAX_DIGITS) {
+                    isRoundedUp = c >= '5';
+                }
+                digits++;
+                hasDigits = true;
+            }
+        }
+        if (i < length || !hasDigits || seconds > MAX_SECONDS) {
+            return parseDouble(text);
+        }
+
+        long nanos = seconds * NANOS_PER_SECOND + fraction * POWERS_OF_TEN[MAX_DIGITS - Math.min(digits, MAX_DIGITS)]
+                + (isRoundedUp ? 1 : 0);
+        return isNegative ? -nanos : nanos;
+    }
+
+    private static long parseDouble(String text) {
+        // Only text that could be a number in another form (e.g. with an exponent) is parsed, so that a line of
+        // garbage doesn't cost an exception
+        for (int i = 0; i < text.length(); i++) {
+            if ("0123456789+-.eE".indexOf(text.charAt(i)) < 0) {
+                return INVALID;
+            }
+        }
+        double seconds;
+        try {
+            seconds = Double.parseDouble(text);
+        } catch (NumberFormatException e) {
+            return INVALID;
+        }
+        return Math.abs(seconds) <= MAX_SECONDS ? Math.round(seconds * NANOS_PER_SECOND) : INVALID;
+    }
+
+    /**
+     * @param text a number of seconds, as given to {@link #parse(String)}
+     * @return the number of decimal places it was written with, up to nine
+     */
+    public static int getDigits(String text) {
+        int point = text.indexOf('.');
+        if (point < 0) {
+            return 0;
+        }
+        int end = point + 1;
+        while (end < text.length() && text.charAt(end) >= '0' && text.charAt(end) <= '9') {
+            end++;
+        }
+        return Math.min(MAX_DIGITS, end - point - 1);
+    }
+
+    /**
+     * Formats nanoseconds as decimal seconds. At least the given number of decimal places are written, and more if
+     * they're needed to show every nanosecond, so parsing the result always gives back the same number.
+     *
+     * @param nanos  the number of nanoseconds
+     * @param digits the number of decimal places to write, e.g. the number the timestamp was originally written with
+     * @return the number of seconds, e.g. "1.001451000"
+     */
+    public static String format(long nanos, int digits) {
+        StringBuilder text = new StringBuilder(30);
+        if (nanos < 0) {
+            text.append('-');
+        }
+        long seconds = Math.abs(nanos / NANOS_PER_SECOND);
+        long fraction = Math.abs(nanos % NANOS_PER_SECOND);
+        text.append(seconds);
+
+        // Trailing zeros are only written if they were asked for
+        int places = MAX_DIGITS;
+        while (places > digits && fraction % POWERS_OF_TEN[MAX_DIGITS - places + 1] == 0) {
+            places--;
+        }
+        if (places > 0) {
+            text.append('.');
+            for (int i = MAX_DIGITS - 1; i >= MAX_DIGITS - places; i--) {
+                text.append((char) ('0' + fraction / POWERS_OF_TEN[i] % 10));
+            }
+        }
+        return text.toString();
+    }
+
+    /**
+     * @param nanos a number of nanoseconds
+     * @return the same time in seconds, as precisely as a double can hold it
+     */
+    public static double toSeconds(long nanos) {
+        // Converting the whole seconds separately keeps the fraction's precision for large timestamps
+        return nanos / NANOS_PER_SECOND + (double) (nanos % NANOS_PER_SECOND) / NANOS_PER_SECOND;
+    }
+
+    /**
+     * @param seconds a number of seconds
+     * @return the nearest whole number of nanoseconds
+     */
+    public static long toNanos(double seconds) {
+        return Math.round(seconds * NANOS_PER_SECOND);
+    }
+
+}
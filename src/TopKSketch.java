@@ -0,0 +1,283 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Finds the keys with the largest total weight in a stream of packed (long) keys.
+ * <p>
+ * Every key is counted exactly until there are more than a given number of distinct keys. After that only the largest
+ * keys are kept and counting continues with the Space-Saving algorithm: a new key replaces the key with the smallest
+ * count and inherits that count as its possible error, so counts may be overestimated but every key whose true total
+ * is more than {@code total / capacity} is guaranteed to be counted. Counters are kept in a min-heap so that each
+ * addition takes O(log capacity) time.
+ * <p>
+ * Keys are found with an open addressing hash table of primitive arrays, so counting never allocates unless the
+ * table has to grow.
+ */
+public class TopKSketch {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final int capacity, exactLimit;
+    private boolean isExact = true;
+    private long total;
+
+    // Each counter's key, count and possible error, indexed by counter
+    private int size;
+    private long[] keys = new long[INITIAL_CAPACITY];
+    private long[] counts = new long[INITIAL_CAPACITY];
+    private long[] errors;
+
+    // Each slot holds a counter's index plus one, or 0 if it's empty. The table is kept at most half full.
+    private int[] slots = new int[INITIAL_CAPACITY * 2];
+
+    // A min-heap of counters by count, and the position of each counter in it, once counts are no longer exact
+    private int[] heap, heapPositions;
+
+    /**
+     * Creates a new empty TopKSketch
+     *
+     * @param capacity   the maximum number of keys to count once they can't all be counted exactly
+     * @param exactLimit the maximum number of keys to count exactly, which should be at least the capacity
+     */
+    public TopKSketch(int capacity, int exactLimit) {
+        this.capacity = capacity;
+        this.exactLimit = Math.max(capacity, exactLimit);
+    }
+
+    /**
+     * Adds a weight to a key's total.
+     *
+     * @param key    the key to add to
+     * @param weight the weight to add, which must not be negative
+     */
+    public void add(long key, long weight) {
+        total += weight;
+        int slot = findSlot(key);
+        int counter = slots[slot] - 1;
+        if (counter >= 0) {
+            counts[counter] += weight;
+            if (!isExact) {
+                siftDown(heapPositions[counter]);
+            }
+            return;
+        }
+
+        if (isExact) {
+            if (size < exactLimit) {
+                addCounter(slot, key, weight);
+                return;
+            }
+            stopCountingExactly();
+        }
+
+        // Replace the smallest counter, whose count is an upper bound of the new key's previous total
+        counter = heap[0];
+        removeSlot(keys[counter]);
+        slots[findSlot(key)] = counter + 1;
+        keys[counter] = key;
+        errors[counter] = counts[counter];
+        counts[counter] += weight;
+        siftDown(0);
+    }
+
+    private void addCounter(int slot, long key, long weight) {
+        int counter = size++;
+        if (counter == keys.length) {
+            keys = Arrays.copyOf(keys, keys.length * 2);
+            counts = Arrays.copyOf(counts, counts.length * 2);
+        }
+        keys[counter] = key;
+        counts[counter] = weight;
+        slots[slot] = counter + 1;
+        if (size * 2 > slots.length) {
+            rehash(slots.length * 2);
+        }
+    }
+
+    private void stopCountingExactly() {
+        // Keep the largest keys. The smallest of them has a count at least as large as any dropped key's, so it's still
+        // a valid upper bound of the previous total of any key that replaces it.
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (counter1, counter2) -> Long.compare(counts[counter2], counts[counter1]));
+
+        long[] keptKeys = new long[capacity];
+        long[] keptCounts = new long[capacity];
+        for (int i = 0; i < capacity; i++) {
+            keptKeys[i] = keys[order[i]];
+            keptCounts[i] = counts[order[i]];
+        }
+        keys = keptKeys;
+        counts = keptCounts;
+        errors = new long[capacity];
+        size = capacity;
+        isExact = false;
+        rehash(Integer.highestOneBit(capacity) * 4);
+
+        heap = new int[capacity];
+        heapPositions = new int[capacity];
+        for (int i = 0; i < capacity; i++) {
+            heap[i] = i;
+            heapPositions[i] = i;
+        }
+        for (int i = capacity / 2 - 1; i >= 0; i--) {
+            siftDown(i);
+        }
+    }
+
+    private void siftDown(int position) {
+        int counter = heap[position];
+        while (true) {
+            int child = 2 * position + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && counts[heap[child + 1]] < counts[heap[child]]) {
+                child++;
+            }
+            if (counts[heap[child]] >= counts[counter]) {
+                break;
+            }
+            heap[position] = heap[child];
+            heapPositions[heap[position]] = position;
+            position = child;
+        }
+        heap[position] = counter;
+        heapPositions[counter] = position;
+    }
+
+    /**
+     * @return the slot holding the given key, or the empty slot it would be put in
+     */
+    private int findSlot(long key) {
+        int mask = slots.length - 1;
+        int slot = hash(key) & mask;
+        while (slots[slot] != 0 && keys[slots[slot] - 1] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void removeSlot(long key) {
+        int mask = slots.length - 1;
+        int empty = findSlot(key);
+        slots[empty] = 0;
+
+        // Move back any following keys that would no longer be found past the empty slot
+        for (int slot = (empty + 1) & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+            int home = hash(keys[slots[slot] - 1]) & mask;
+            boolean isBetween = empty <= slot ? empty < home && home <= slot : empty < home || home <= slot;
+            if (!isBetween) {
+                slots[empty] = slots[slot];
+                slots[slot] = 0;
+                empty = slot;
+            }
+        }
+    }
+
+    private void rehash(int slotCount) {
+        slots = new int[slotCount];
+        int mask = slotCount - 1;
+        for (int counter = 0; counter < size; counter++) {
+            int slot = hash(keys[counter]) & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = counter + 1;
+        }
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * @return the counted keys, largest first. While counts are exact, this includes every key.
+     */
+    public List<Entry> getTop() {
+        List<Entry> top = new ArrayList<>(size);
+        for (int counter = 0; counter < size; counter++) {
+            top.add(new Entry(keys[counter], counts[counter], isExact ? 0 : errors[counter]));
+        }
+        top.sort(Comparator.comparingLong(Entry::getCount).reversed());
+        return top;
+    }
+
+    /**
+     * @return true if no key has been dropped, so every count is exact
+     */
+    public boolean isExact() {
+        return isExact;
+    }
+
+    /**
+     * @return the total weight added for every key
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * @return an estimate of the memory used in bytes
+     */
+    public long getMemoryUsage() {
+        long counterBytes = 8L * (keys.length + counts.length + (errors != null ? errors.length : 0));
+        long heapBytes = heap != null ? 4L * (heap.length + heapPositions.length) : 0;
+        return counterBytes + 4L * slots.length + heapBytes;
+    }
+
+    /**
+     * Removes every key.
+     */
+    public void clear() {
+        isExact = true;
+        total = 0;
+        size = 0;
+        keys = new long[INITIAL_CAPACITY];
+        counts = new long[INITIAL_CAPACITY];
+        errors = null;
+        slots = new int[INITIAL_CAPACITY * 2];
+        heap = null;
+        heapPositions = null;
+    }
+
+    /**
+     * A counted key and its estimated total.
+     */
+    public static class Entry {
+        private final long key, count, error;
+
+        private Entry(long key, long count, long error) {
+            this.key = key;
+            this.count = count;
+            this.error = error;
+        }
+
+        /**
+         * @return the key
+         */
+        public long getKey() {
+            return key;
+        }
+
+        /**
+         * @return the key's estimated total, which is never less than its true total
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * @return the most the key's count may have been overestimated by
+         */
+        public long getError() {
+            return error;
+        }
+    }
+
+}
@@ -0,0 +1,222 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The busiest hosts, ports and pairs of them in a trace, by both packets and bytes.
+ * <p>
+ * Each is counted by a {@link TopKSketch}. Values are counted exactly unless there are more than {@value #EXACT_LIMIT}
+ * of them (enough for every port), after which only the busiest are kept, so the memory used is bounded however large
+ * the trace is. Values are packed into longs before being counted, so counting a packet doesn't allocate.
+ */
+public class TopTalkers {
+
+    private static final int EXACT_LIMIT = 1 << 16;
+    // The number of keys counted for each dimension once they can't all be counted exactly, which can be overridden
+    // with -Dpacketbrowser.topTalkers=<count>
+    private static final int CAPACITY = Integer.getInteger("packetbrowser.topTalkers", 1024);
+
+    /**
+     * The values packets can be counted by. Port dimensions only count packets with both a source and destination
+     * port, as the port views do.
+     */
+    public enum Dimension {
+        SRC_IP("Source IP"),
+        DEST_IP("Destination IP"),
+        SRC_PORT("Source Port"),
+        DEST_PORT("Destination Port"),
+        IP_PAIR("Source and Destination IP"),
+        PORT_PAIR("Source and Destination Port");
+
+        private final String name;
+
+        Dimension(String name) {
+            this.name = name;
+        }
+
+        /**
+         * @return true if this dimension counts ports rather than ips
+         */
+        public boolean isPort() {
+            return this == SRC_PORT || this == DEST_PORT || this == PORT_PAIR;
+        }
+
+        /**
+         * @return true if this dimension's values are lists of a source and a destination
+         */
+        public boolean isPair() {
+            return this == IP_PAIR || this == PORT_PAIR;
+        }
+
+        /**
+         * Packs a value of this dimension into a long, so it can be counted without allocating.
+         *
+         * @param srcIP    the source ip packed by {@link Host#packIP(String)}
+         * @param destIP   the destination ip packed by {@link Host#packIP(String)}
+         * @param srcPort  the source port, which is ignored by ip dimensions
+         * @param destPort the destination port, which is ignored by ip dimensions
+         * @return the packed value
+         */
+        long getKey(int srcIP, int destIP, int srcPort, int destPort) {
+            switch (this) {
+                case SRC_IP:
+                    return srcIP & 0xFFFFFFFFL;
+                case DEST_IP:
+                    return destIP & 0xFFFFFFFFL;
+                case SRC_PORT:
+                    return srcPort;
+                case DEST_PORT:
+                    return destPort;
+                case IP_PAIR:
+                    return ((long) srcIP << 32) | (destIP & 0xFFFFFFFFL);
+                default:
+                    return ((long) srcPort << 32) | destPort;
+            }
+        }
+
+        /**
+         * @param key a key packed by this dimension
+         * @return the ip String, port Integer, or list of source and destination the key was packed from
+         */
+        private Object getValue(long key) {
+            switch (this) {
+                case SRC_IP:
+                case DEST_IP:
+                    return Host.formatIP((int) key);
+                case SRC_PORT:
+                case DEST_PORT:
+                    return (int) key;
+                case IP_PAIR:
+                    return Arrays.asList(Host.formatIP((int) (key >>> 32)), Host.formatIP((int) key));
+                default:
+                    return Arrays.asList((int) (key >>> 32), (int) key);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    /**
+     * A value and its estimated count of packets or bytes.
+     */
+    public static class Entry {
+        private final Object value;
+        private final long count, error;
+
+        private Entry(Object value, long count, long error) {
+            this.value = value;
+            this.count = count;
+            this.error = error;
+        }
+
+        /**
+         * @return the ip String or port Integer, or a list of the source and destination for pairs
+         */
+        public Object getValue() {
+            return value;
+        }
+
+        /**
+         * @return the estimated count, which is never less than the true count
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * @return the most the count may have been overestimated by
+         */
+        public long getError() {
+            return error;
+        }
+    }
+
+    private static final Dimension[] DIMENSIONS = Dimension.values();
+
+    // The sketches counting packets and bytes, indexed by dimension ordinal
+    private final TopKSketch[] packetSketches = new TopKSketch[DIMENSIONS.length];
+    private final TopKSketch[] byteSketches = new TopKSketch[DIMENSIONS.length];
+
+    /**
+     * Creates a new TopTalkers with no packets
+     */
+    public TopTalkers() {
+        for (int i = 0; i < DIMENSIONS.length; i++) {
+            packetSketches[i] = new TopKSketch(CAPACITY, EXACT_LIMIT);
+            byteSketches[i] = new TopKSketch(CAPACITY, EXACT_LIMIT);
+        }
+    }
+
+    /**
+     * Counts a packet with valid ip data.
+     *
+     * @param packet the packet to count
+     */
+    public void add(Packet packet) {
+        boolean hasPorts = Simulator.hasValidPortData(packet);
+        long size = packet.getIpPacketSize() != null ? packet.getIpPacketSize() : 0;
+        int srcIP = Host.packIP(packet.getSourceHostIP());
+        int destIP = Host.packIP(packet.getDestinationHostIP());
+        int srcPort = hasPorts ? packet.getSourceHostPort() : 0;
+        int destPort = hasPorts ? packet.getDestinationHostPort() : 0;
+        for (int i = 0; i < DIMENSIONS.length; i++) {
+            if (hasPorts || !DIMENSIONS[i].isPort()) {
+                long key = DIMENSIONS[i].getKey(srcIP, destIP, srcPort, destPort);
+                packetSketches[i].add(key, 1);
+                byteSketches[i].add(key, size);
+            }
+        }
+    }
+
+    /**
+     * @param dimension the values to get
+     * @param isBytes   true to rank values by bytes, false to rank them by packets
+     * @return the busiest values, largest first. Pairs are lists of their source and destination.
+     */
+    public List<Entry> getTop(Dimension dimension, boolean isBytes) {
+        List<TopKSketch.Entry> top = getSketch(dimension, isBytes).getTop();
+        List<Entry> entries = new ArrayList<>(top.size());
+        for (TopKSketch.Entry entry : top) {
+            entries.add(new Entry(dimension.getValue(entry.getKey()), entry.getCount(), entry.getError()));
+        }
+        return entries;
+    }
+
+    /**
+     * @param dimension the values to check
+     * @param isBytes   true to check the counts of bytes, false to check the counts of packets
+     * @return true if the counts of the given values are exact
+     */
+    public boolean isExact(Dimension dimension, boolean isBytes) {
+        return getSketch(dimension, isBytes).isExact();
+    }
+
+    private TopKSketch getSketch(Dimension dimension, boolean isBytes) {
+        return isBytes ? byteSketches[dimension.ordinal()] : packetSketches[dimension.ordinal()];
+    }
+
+    /**
+     * Removes every packet.
+     */
+    public void clear() {
+        for (int i = 0; i < DIMENSIONS.length; i++) {
+            packetSketches[i].clear();
+            byteSketches[i].clear();
+        }
+    }
+
+    /**
+     * @return an estimate of the memory used in bytes, which is at most a fixed amount
+     */
+    public long getMemoryUsage() {
+        long bytes = 0;
+        for (int i = 0; i < DIMENSIONS.length; i++) {
+            bytes += packetSketches[i].getMemoryUsage() + byteSketches[i].getMemoryUsage();
+        }
+        return bytes;
+    }
+
+}
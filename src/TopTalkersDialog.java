@@ -0,0 +1,143 @@
+import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
+import java.awt.*;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+/**
+ * A window listing the busiest hosts, ports and pairs of them in a trace, by bytes or packets.
+ */
+public class TopTalkersDialog extends JDialog {
+
+    private final Simulator simulator;
+    private final JComboBox<TopTalkers.Dimension> dimensionComboBox = new JComboBox<>(TopTalkers.Dimension.values());
+    private final JComboBox<String> unitComboBox = new JComboBox<>(new String[]{"Bytes", "Packets"});
+    private final JLabel accuracyLabel = new JLabel();
+    private final TalkersTableModel model = new TalkersTableModel();
+
+    /**
+     * Creates a new TopTalkersDialog
+     *
+     * @param owner     the window to show this dialog over
+     * @param title     the title of this dialog
+     * @param simulator the simulator whose packets should be ranked
+     * @param onShow    called with a dimension and one of its values when the user asks to see a value's packets
+     */
+    public TopTalkersDialog(Window owner, String title, Simulator simulator,
+                            BiConsumer<TopTalkers.Dimension, Object> onShow) {
+        super(owner, title);
+        this.simulator = simulator;
+
+        JPanel controlPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        controlPanel.add(new JLabel("Busiest"));
+        controlPanel.add(dimensionComboBox);
+        controlPanel.add(new JLabel("by"));
+        controlPanel.add(unitComboBox);
+        dimensionComboBox.addActionListener(e -> refresh());
+        unitComboBox.addActionListener(e -> refresh());
+
+        JTable table = new JTable(model);
+        table.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        table.setToolTipText("Double click a row to show its packets");
+        table.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                int row = table.getSelectedRow();
+                if (e.getClickCount() == 2 && row >= 0) {
+                    onShow.accept((TopTalkers.Dimension) dimensionComboBox.getSelectedItem(),
+                            model.entries.get(row).getValue());
+                }
+            }
+        });
+
+        accuracyLabel.setBorder(BorderFactory.createEmptyBorder(4, 8, 4, 8));
+        add(controlPanel, BorderLayout.NORTH);
+        add(new JScrollPane(table));
+        add(accuracyLabel, BorderLayout.SOUTH);
+
+        refresh();
+        setSize(520, 400);
+        setLocationRelativeTo(owner);
+    }
+
+    /**
+     * Ranks the packets again, e.g. after they were edited or packets were appended.
+     */
+    public void refresh() {
+        TopTalkers.Dimension dimension = (TopTalkers.Dimension) dimensionComboBox.getSelectedItem();
+        boolean isBytes = unitComboBox.getSelectedIndex() == 0;
+        TopTalkers topTalkers = simulator.getTopTalkers();
+        model.setEntries(topTalkers.getTop(dimension, isBytes), isBytes);
+
+        if (topTalkers.isExact(dimension, isBytes)) {
+            accuracyLabel.setText("Counts are exact");
+        } else {
+            accuracyLabel.setText("There are too many values to count exactly, so counts may be overestimated by up to "
+                    + "the error shown");
+        }
+    }
+
+    private static class TalkersTableModel extends AbstractTableModel {
+        private List<TopTalkers.Entry> entries = new ArrayList<>();
+        private boolean isBytes;
+
+        private void setEntries(List<TopTalkers.Entry> entries, boolean isBytes) {
+            this.entries = entries;
+            this.isBytes = isBytes;
+            fireTableStructureChanged();
+        }
+
+        @Override
+        public int getRowCount() {
+            return entries.size();
+        }
+
+        @Override
+        public int getColumnCount() {
+            return 4;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            switch (column) {
+                case 0:
+                    return "Rank";
+                case 1:
+                    return "Value";
+                case 2:
+                    return isBytes ? "Bytes" : "Packets";
+                default:
+                    return "Error";
+            }
+        }
+
+        @Override
+        public Class<?> getColumnClass(int columnIndex) {
+            return columnIndex == 1 ? String.class : Long.class;
+        }
+
+        @Override
+        public Object getValueAt(int rowIndex, int columnIndex) {
+            TopTalkers.Entry entry = entries.get(rowIndex);
+            switch (columnIndex) {
+                case 0:
+                    return (long) rowIndex + 1;
+                case 1:
+                    // Pairs are lists of a source and a destination
+                    if (entry.getValue() instanceof List) {
+                        List<?> pair = (List<?>) entry.getValue();
+                        return pair.get(0) + " to " + pair.get(1);
+                    }
+                    return String.valueOf(entry.getValue());
+                case 2:
+                    return entry.getCount();
+                default:
+                    return entry.getError();
+            }
+        }
+    }
+
+}
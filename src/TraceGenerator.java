@@ -0,0 +1,588 @@
+import java.io.*;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes synthetic trace files in the tab delimited format read by {@link Packet#Packet(String)}, for testing and
+ * benchmarking with traces of any size and shape.
+ * <p>
+ * The same seed and options always give the same trace. Hosts and destination ports are chosen with a Zipf
+ * distribution, so a few talkers send most of the packets as in real captures, and packets arrive as a Poisson process
+ * with an optional jitter that puts timestamps slightly out of order, as in traces merged from several taps. A share
+ * of packets can be left without ports (e.g. ICMP) and a share of lines can be made invalid in the ways seen in real
+ * captures: non-ip frames, IPv6 addresses, lines cut short and corrupt numbers.
+ * <p>
+ * Lines are generated in blocks on every core and streamed to the output in order, using a fixed amount of memory
+ * however many are written. They're encoded straight into bytes rather than through formatted Strings, so that
+ * generation keeps up with the disk.
+ */
+public class TraceGenerator {
+
+    private static final String USAGE = String.join(System.lineSeparator(),
+            "Usage: java TraceGenerator [options]",
+            "",
+            "Writes a synthetic trace file. The same seed and options always give the same trace.",
+            "",
+            "Options:",
+            "  --lines <count>       number of lines to write, e.g. up to 100000000 (default 1000000)",
+            "  --seed <number>       seed for the random choices (default 1)",
+            "  --src-hosts <count>   number of distinct source ips (default 10000)",
+            "  --dest-hosts <count>  number of distinct destination ips (default 1000)",
+            "  --src-ports <count>   number of distinct source ports (default 64512)",
+            "  --dest-ports <count>  number of distinct destination ports (default 16)",
+            "  --skew <exponent>     Zipf exponent of the hosts and destination ports, 0 for uniform (default 1)",
+            "  --no-ports <ratio>    share of packets without ports, e.g. ICMP (default 0.05)",
+            "  --invalid <ratio>     share of lines that aren't valid ip packets (default 0)",
+            "  --rate <packets>      mean number of packets per second (default 10000)",
+            "  --jitter <seconds>    move each timestamp up to this far either way, out of order (default 0)",
+            "  --output <file>       write to the given file instead of standard output, gzip compressed if its",
+            "                        name ends with .gz",
+            "  --help                print this message");
+
+    // Destination ports in order of popularity, followed by arbitrary ports if more are asked for
+    private static final int[] COMMON_PORTS = {443, 80, 53, 22, 123, 25, 8080, 993, 3306, 5432, 445, 3389, 587, 110,
+            143, 8443};
+    private static final int MAX_SRC_HOSTS = 1 << 24, MAX_DEST_HOSTS = 1 << 20, MAX_SRC_PORTS = 65536 - 1024;
+    private static final int ETHERNET_HEADER_SIZE = 14;
+    private static final int BLOCK_LINES = 64 * 1024;
+
+    private long seed = 1;
+    private int srcHosts = 10_000, destHosts = 1_000, srcPorts = MAX_SRC_PORTS, destPorts = 16;
+    private double skew = 1, noPortsRatio = 0.05, invalidRatio, rate = 10_000, jitter;
+
+    /**
+     * Creates a new TraceGenerator with a seed of 1 and the default shape
+     */
+    public TraceGenerator() {
+    }
+
+    /**
+     * Writes a trace and exits. The exit status is 0 if the trace was written, 1 if it couldn't be written, or 2 if
+     * the arguments were invalid.
+     *
+     * @param args the command line arguments, see {@link #USAGE}
+     */
+    public static void main(String[] args) {
+        TraceGenerator generator = new TraceGenerator();
+        long lineCount = 1_000_000;
+        File output = null;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--help":
+                    case "-h":
+                        System.out.println(USAGE);
+                        System.exit(0);
+                        break;
+                    case "--lines":
+                        lineCount = parseLong(args, ++i);
+                        break;
+                    case "--seed":
+                        generator.setSeed(parseLong(args, ++i));
+                        break;
+                    case "--src-hosts":
+                        generator.setHosts((int) parseLong(args, ++i), generator.destHosts);
+                        break;
+                    case "--dest-hosts":
+                        generator.setHosts(generator.srcHosts, (int) parseLong(args, ++i));
+                        break;
+                    case "--src-ports":
+                        generator.setPorts((int) parseLong(args, ++i), generator.destPorts);
+                        break;
+                    case "--dest-ports":
+                        generator.setPorts(generator.srcPorts, (int) parseLong(args, ++i));
+                        break;
+                    case "--skew":
+                        generator.setSkew(parseDouble(args, ++i));
+                        break;
+                    case "--no-ports":
+                        generator.setNoPortsRatio(parseDouble(args, ++i));
+                        break;
+                    case "--invalid":
+                        generator.setInvalidRatio(parseDouble(args, ++i));
+                        break;
+                    case "--rate":
+                        generator.setRate(parseDouble(args, ++i));
+                        break;
+                    case "--jitter":
+                        generator.setJitter(parseDouble(args, ++i));
+                        break;
+                    case "--output":
+                    case "-o":
+                        output = new File(getValue(args, ++i));
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option: " + args[i]);
+                }
+            }
+            if (lineCount < 0) {
+                throw new IllegalArgumentException("The number of lines can't be negative");
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+
+        try {
+            if (output != null) {
+                generator.write(output, lineCount);
+            } else {
+                generator.write(new FileOutputStream(FileDescriptor.out), lineCount);
+            }
+        } catch (IOException e) {
+            System.err.println(e);
+            System.exit(1);
+        }
+        System.exit(0);
+    }
+
+    private static String getValue(String[] args, int index) throws IllegalArgumentException {
+        if (index >= args.length) {
+            throw new IllegalArgumentException(args[index - 1] + " needs a value");
+        }
+        return args[index];
+    }
+
+    private static long parseLong(String[] args, int index) throws IllegalArgumentException {
+        String value = getValue(args, index);
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(args[index - 1] + " needs a whole number, not " + value);
+        }
+    }
+
+    private static double parseDouble(String[] args, int index) throws IllegalArgumentException {
+        String value = getValue(args, index);
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(args[index - 1] + " needs a number, not " + value);
+        }
+    }
+
+    /**
+     * @param seed the seed for the random choices
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * @param srcHosts  the number of distinct source ips, at most 2^24
+     * @param destHosts the number of distinct destination ips, at most 2^20
+     * @throws IllegalArgumentException a count is out of range
+     */
+    public void setHosts(int srcHosts, int destHosts) throws IllegalArgumentException {
+        if (srcHosts < 1 || srcHosts > MAX_SRC_HOSTS || destHosts < 1 || destHosts > MAX_DEST_HOSTS) {
+            throw new IllegalArgumentException("There must be 1 to " + MAX_SRC_HOSTS + " source hosts and 1 to "
+                    + MAX_DEST_HOSTS + " destination hosts");
+        }
+        this.srcHosts = srcHosts;
+        this.destHosts = destHosts;
+    }
+
+    /**
+     * @param srcPorts  the number of distinct source ports, at most 64512
+     * @param destPorts the number of distinct destination ports, at most 65536
+     * @throws IllegalArgumentException a count is out of range
+     */
+    public void setPorts(int srcPorts, int destPorts) throws IllegalArgumentException {
+        if (srcPorts < 1 || srcPorts > MAX_SRC_PORTS || destPorts < 1 || destPorts > 65536) {
+            throw new IllegalArgumentException("There must be 1 to " + MAX_SRC_PORTS + " source ports and 1 to "
+                    + "65536 destination ports");
+        }
+        this.srcPorts = srcPorts;
+        this.destPorts = destPorts;
+    }
+
+    /**
+     * @param skew the exponent of the Zipf distribution hosts and destination ports are chosen with, where 0 chooses
+     *             them uniformly and larger values give the busiest ones more of the packets
+     */
+    public void setSkew(double skew) throws IllegalArgumentException {
+        if (skew < 0) {
+            throw new IllegalArgumentException("The skew can't be negative");
+        }
+        this.skew = skew;
+    }
+
+    /**
+     * @param noPortsRatio the share of valid packets without ports, from 0 to 1
+     */
+    public void setNoPortsRatio(double noPortsRatio) throws IllegalArgumentException {
+        this.noPortsRatio = checkRatio(noPortsRatio);
+    }
+
+    /**
+     * @param invalidRatio the share of lines that aren't valid ip packets, from 0 to 1
+     */
+    public void setInvalidRatio(double invalidRatio) throws IllegalArgumentException {
+        this.invalidRatio = checkRatio(invalidRatio);
+    }
+
+    private static double checkRatio(double ratio) throws IllegalArgumentException {
+        if (!(ratio >= 0 && ratio <= 1)) {
+            throw new IllegalArgumentException("Ratios must be from 0 to 1, not " + ratio);
+        }
+        return ratio;
+    }
+
+    /**
+     * @param rate the mean number of packets per second
+     */
+    public void setRate(double rate) throws IllegalArgumentException {
+        if (!(rate > 0)) {
+            throw new IllegalArgumentException("The rate must be positive");
+        }
+        this.rate = rate;
+    }
+
+    /**
+     * @param jitter the furthest in seconds each timestamp is moved either way, leaving timestamps out of order where
+     *               it's more than the time between packets, or 0 to keep them in order
+     */
+    public void setJitter(double jitter) throws IllegalArgumentException {
+        if (!(jitter >= 0)) {
+            throw new IllegalArgumentException("The jitter can't be negative");
+        }
+        this.jitter = jitter;
+    }
+
+    /**
+     * Writes a trace to a file, gzip compressed if the file's name ends with .gz.
+     *
+     * @param file      the file to write
+     * @param lineCount the number of lines to write
+     * @throws IOException the file could not be written
+     */
+    public void write(File file, long lineCount) throws IOException {
+        OutputStream stream = new FileOutputStream(file);
+        if (file.getName().endsWith(".gz")) {
+            stream = new GZIPOutputStream(stream, 256 * 1024);
+        }
+        write(stream, lineCount);
+    }
+
+    /**
+     * Writes a trace to a stream, which is closed afterwards.
+     *
+     * @param stream    the stream to write to
+     * @param lineCount the number of lines to write
+     * @throws IOException the stream could not be written
+     */
+    public void write(OutputStream stream, long lineCount) throws IOException {
+        SplittableRandom random = new SplittableRandom(seed);
+        ZipfSampler srcSampler = new ZipfSampler(srcHosts, skew, true, random);
+        ZipfSampler destSampler = new ZipfSampler(destHosts, skew, true, random);
+        // Ports aren't shuffled, so that the common ports are the busiest
+        ZipfSampler portSampler = new ZipfSampler(destPorts, skew, false, random);
+
+        // Blocks are generated in parallel but written in order, keeping a few blocks ahead of the writer
+        int threadCount = Runtime.getRuntime().availableProcessors();
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount, runnable -> {
+            Thread thread = new Thread(runnable, "trace-generator");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Deque<Future<Block>> pending = new ArrayDeque<>();
+        long blockCount = (lineCount + BLOCK_LINES - 1) / BLOCK_LINES;
+        try {
+            long next = 0;
+            while (next < blockCount || !pending.isEmpty()) {
+                while (next < blockCount && pending.size() < threadCount * 2) {
+                    Block block = new Block(next++, lineCount);
+                    pending.add(executor.submit(() -> block.generate(srcSampler, destSampler, portSampler)));
+                }
+                Block block = pending.remove().get();
+                stream.write(block.bytes, 0, block.length);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Writing the trace was interrupted");
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+            stream.close();
+        }
+    }
+
+    /**
+     * @return an ip packet size from a mix of acknowledgements, full size packets and everything in between
+     */
+    private static int nextIpSize(SplittableRandom random) {
+        double kind = random.nextDouble();
+        if (kind < 0.4) {
+            return 40 + random.nextInt(21);
+        } else if (kind < 0.8) {
+            return 1400 + random.nextInt(101);
+        }
+        return 40 + random.nextInt(1461);
+    }
+
+    private static int getDestPort(int rank) {
+        // Ports past the common ones are spread over the registered port range
+        return rank < COMMON_PORTS.length ? COMMON_PORTS[rank] : 1024 + (rank * 7919) % (65536 - 1024);
+    }
+
+    /**
+     * A run of {@value #BLOCK_LINES} consecutive lines, generated from its own seed so that blocks can be generated in
+     * any order and still give the same trace.
+     * <p>
+     * Each block covers a fixed share of the trace's time, and its packets' arrival times within it are spread the
+     * way a Poisson process spreads a known number of arrivals: as the normalised sums of exponential gaps.
+     */
+    private class Block {
+        final long index, firstId;
+        final int lineCount;
+        byte[] bytes;
+        int length;
+
+        Block(long index, long totalLineCount) {
+            this.index = index;
+            firstId = index * BLOCK_LINES + 1;
+            lineCount = (int) Math.min(BLOCK_LINES, totalLineCount - index * BLOCK_LINES);
+        }
+
+        Block generate(ZipfSampler srcSampler, ZipfSampler destSampler, ZipfSampler portSampler) {
+            SplittableRandom random = new SplittableRandom(seed ^ (index + 1) * 0x9E3779B97F4A7C15L);
+            bytes = new byte[lineCount * 96 + 256];
+
+            double[] times = new double[lineCount + 1];
+            double total = 0;
+            for (int i = 0; i <= lineCount; i++) {
+                total += -Math.log(1 - random.nextDouble());
+                times[i] = total;
+            }
+            double start = (firstId - 1) / rate, scale = lineCount / rate / total;
+
+            for (int i = 0; i < lineCount; i++) {
+                double time = start + times[i] * scale;
+                double timestamp = jitter > 0 ? Math.max(0, time + (random.nextDouble() * 2 - 1) * jitter) : time;
+                int srcHost = srcSampler.next(random), destHost = destSampler.next(random);
+                int ipSize = nextIpSize(random);
+
+                if (length > bytes.length - 256) {
+                    bytes = Arrays.copyOf(bytes, bytes.length * 2);
+                }
+                putLong(firstId + i);
+                put('\t');
+                putTimestamp(timestamp);
+                put('\t');
+                if (invalidRatio > 0 && random.nextDouble() < invalidRatio) {
+                    putInvalidRest(random, srcHost, destHost, ipSize);
+                } else if (noPortsRatio > 0 && random.nextDouble() < noPortsRatio) {
+                    putSrcIP(srcHost);
+                    put('\t');
+                    put('\t');
+                    putDestIP(destHost);
+                    put('\t');
+                    put('\t');
+                    putSizes(ipSize);
+                } else {
+                    putSrcIP(srcHost);
+                    put('\t');
+                    putLong(1024 + random.nextInt(srcPorts));
+                    put('\t');
+                    putDestIP(destHost);
+                    put('\t');
+                    putLong(getDestPort(portSampler.next(random)));
+                    put('\t');
+                    putSizes(ipSize);
+                }
+                put('\n');
+            }
+            return this;
+        }
+
+        private void putInvalidRest(SplittableRandom random, int srcHost, int destHost, int ipSize) {
+            switch (random.nextInt(4)) {
+                case 0:
+                    // A non-ip frame such as ARP, which only has a frame size
+                    put('\t');
+                    put('\t');
+                    put('\t');
+                    put('\t');
+                    putLong(60);
+                    put('\t');
+                    break;
+                case 1:
+                    // An IPv6 packet
+                    putString("fe80::");
+                    putLong(srcHost);
+                    put('\t');
+                    put('\t');
+                    putString("fe80::");
+                    putLong(destHost);
+                    put('\t');
+                    put('\t');
+                    putSizes(ipSize);
+                    break;
+                case 2:
+                    // A line cut short, e.g. by a capture that was stopped mid write
+                    putSrcIP(srcHost);
+                    put('\t');
+                    putLong(1024 + random.nextInt(srcPorts));
+                    put('\t');
+                    putString("192.16");
+                    break;
+                default:
+                    // A corrupted size
+                    putSrcIP(srcHost);
+                    put('\t');
+                    put('\t');
+                    putDestIP(destHost);
+                    put('\t');
+                    put('\t');
+                    putLong(ipSize + ETHERNET_HEADER_SIZE);
+                    put('\t');
+                    putString("0x");
+                    putLong(ipSize);
+                    break;
+            }
+        }
+
+        private void putSrcIP(int host) {
+            // Source hosts are spread over 10.0.0.0/8
+            putIP(10 << 24 | host);
+        }
+
+        private void putDestIP(int host) {
+            // Destination hosts are spread over 172.16.0.0/12
+            putIP(172 << 24 | 16 << 16 | host);
+        }
+
+        private void putIP(int ip) {
+            putLong(ip >>> 24);
+            put('.');
+            putLong(ip >>> 16 & 0xFF);
+            put('.');
+            putLong(ip >>> 8 & 0xFF);
+            put('.');
+            putLong(ip & 0xFF);
+        }
+
+        private void putSizes(int ipSize) {
+            // The frame size, the ip packet size, then the trailing columns of a real trace
+            putLong(ipSize + ETHERNET_HEADER_SIZE);
+            put('\t');
+            putLong(ipSize);
+            putString("\t\t\t\t\t\t\t\t1");
+        }
+
+        private void putTimestamp(double seconds) {
+            // Written with nine decimal places, as captures are
+            long nanos = Math.round(seconds * 1e9);
+            putLong(nanos / 1_000_000_000);
+            put('.');
+            long fraction = nanos % 1_000_000_000;
+            for (int i = 8; i >= 0; i--) {
+                bytes[length + i] = (byte) ('0' + fraction % 10);
+                fraction /= 10;
+            }
+            length += 9;
+        }
+
+        private void putLong(long value) {
+            if (value == 0) {
+                put('0');
+                return;
+            }
+            int end = length + 20;
+            int start = end;
+            while (value > 0) {
+                bytes[--start] = (byte) ('0' + value % 10);
+                value /= 10;
+            }
+            System.arraycopy(bytes, start, bytes, length, end - start);
+            length += end - start;
+        }
+
+        private void putString(String value) {
+            for (int i = 0; i < value.length(); i++) {
+                put(value.charAt(i));
+            }
+        }
+
+        private void put(char c) {
+            bytes[length++] = (byte) c;
+        }
+    }
+
+    /**
+     * Chooses ranks from 0 to count - 1 with a Zipf distribution in constant time, using Vose's alias method. Ranks can
+     * be mapped to values by a seeded shuffle, so that the busiest hosts are scattered over the address range rather
+     * than being the first addresses in it.
+     */
+    private static class ZipfSampler {
+        private final float[] probabilities;
+        private final int[] aliases;
+        private final int[] values;
+
+        ZipfSampler(int count, double exponent, boolean isShuffled, SplittableRandom random) {
+            double[] weights = new double[count];
+            double total = 0;
+            for (int i = 0; i < count; i++) {
+                weights[i] = 1 / Math.pow(i + 1, exponent);
+                total += weights[i];
+            }
+
+            // Split the weights into count columns of equal height, each holding at most two ranks
+            probabilities = new float[count];
+            aliases = new int[count];
+            int[] small = new int[count], large = new int[count];
+            int smallCount = 0, largeCount = 0;
+            for (int i = 0; i < count; i++) {
+                weights[i] = weights[i] * count / total;
+                if (weights[i] < 1) {
+                    small[smallCount++] = i;
+                } else {
+                    large[largeCount++] = i;
+                }
+            }
+            while (smallCount > 0 && largeCount > 0) {
+                int less = small[--smallCount], more = large[--largeCount];
+                probabilities[less] = (float) weights[less];
+                aliases[less] = more;
+                weights[more] -= 1 - weights[less];
+                if (weights[more] < 1) {
+                    small[smallCount++] = more;
+                } else {
+                    large[largeCount++] = more;
+                }
+            }
+            // Whatever is left over is only short of 1 through rounding
+            while (largeCount > 0) {
+                probabilities[large[--largeCount]] = 1;
+            }
+            while (smallCount > 0) {
+                probabilities[small[--smallCount]] = 1;
+            }
+
+            values = new int[count];
+            Arrays.setAll(values, i -> i);
+            for (int i = count - 1; isShuffled && i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                int value = values[i];
+                values[i] = values[j];
+                values[j] = value;
+            }
+        }
+
+        int next(SplittableRandom random) {
+            int column = random.nextInt(probabilities.length);
+            int rank = random.nextDouble() < probabilities[column] ? column : aliases[column];
+            return values[rank];
+        }
+    }
+
+}
@@ -0,0 +1,160 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/**
+ * Reads UTF-8 lines from a stream of bytes while keeping track of the byte offset of each line, so that a file can
+ * later be read again from (or written to) the exact position a line was found at.
+ * <p>
+ * Lines may be terminated by either "\n" or "\r\n".
+ */
+public class TraceLineReader implements Closeable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final InputStream in;
+    private byte[] buffer = new byte[BUFFER_SIZE];
+    private int position, limit;
+
+    // The offset in the stream of buffer[0]
+    private long bufferOffset;
+    private long lineOffset, offset;
+    private boolean isLineTerminated;
+
+    /**
+     * Creates a new TraceLineReader that reads from the start of a stream
+     *
+     * @param in the stream to read from
+     */
+    public TraceLineReader(InputStream in) {
+        this(in, 0);
+    }
+
+    /**
+     * Creates a new TraceLineReader for a stream that has already been positioned part way through a file
+     *
+     * @param in          the stream to read from
+     * @param startOffset the offset in the file of the first byte that will be read from the stream
+     */
+    public TraceLineReader(InputStream in, long startOffset) {
+        this.in = in;
+        bufferOffset = startOffset;
+        lineOffset = startOffset;
+        offset = startOffset;
+    }
+
+    /**
+     * Opens a trace file for reading, decompressing it on a separate thread if it's gzip compressed. Offsets are
+     * always offsets into the decompressed data.
+     *
+     * @param file the file to read
+     * @return a TraceLineReader for the file
+     * @throws IOException the file could not be opened
+     * @see PipelinedGzipInputStream
+     */
+    public static TraceLineReader open(File file) throws IOException {
+        InputStream in = Files.newInputStream(file.toPath());
+        if (isCompressed(file)) {
+            in = new PipelinedGzipInputStream(in);
+        }
+        return new TraceLineReader(in);
+    }
+
+    /**
+     * @param file the file to check
+     * @return true if the file starts with the gzip magic number
+     * @throws IOException the file could not be read
+     */
+    public static boolean isCompressed(File file) throws IOException {
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            return in.read() == 0x1F && in.read() == 0x8B;
+        }
+    }
+
+    /**
+     * Reads the next line, without its terminator.
+     *
+     * @return the next line, or null if the end of the stream has been reached
+     * @throws IOException the stream could not be read
+     */
+    public String readLine() throws IOException {
+        int start = position;
+        int scan = position;
+        while (true) {
+            for (; scan < limit; scan++) {
+                if (buffer[scan] == '\n') {
+                    return takeLine(start, scan, scan + 1, true);
+                }
+            }
+
+            // Make room for more data by moving the partial line to the start of the buffer, or by growing the buffer
+            // if the line already fills it
+            if (limit == buffer.length) {
+                if (start > 0) {
+                    System.arraycopy(buffer, start, buffer, 0, limit - start);
+                    bufferOffset += start;
+                    limit -= start;
+                    scan -= start;
+                    start = 0;
+                } else {
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
+            }
+
+            int read = in.read(buffer, limit, buffer.length - limit);
+            if (read < 0) {
+                if (start == limit) {
+                    position = limit;
+                    return null;
+                }
+                // The last line in the stream has no terminator
+                return takeLine(start, limit, limit, false);
+            }
+            limit += read;
+        }
+    }
+
+    private String takeLine(int start, int end, int next, boolean isTerminated) {
+        int length = end - start;
+        if (isTerminated && length > 0 && buffer[end - 1] == '\r') {
+            length--;
+        }
+        lineOffset = bufferOffset + start;
+        offset = bufferOffset + next;
+        position = next;
+        isLineTerminated = isTerminated;
+        return new String(buffer, start, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the offset of the first byte of the line last returned by {@link #readLine()}
+     */
+    public long getLineOffset() {
+        return lineOffset;
+    }
+
+    /**
+     * @return the offset of the first byte after the line last returned by {@link #readLine()} and its terminator
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return true if the line last returned by {@link #readLine()} ended with a line terminator, or false if it was
+     * cut short by the end of the stream (e.g. because it's still being written)
+     */
+    public boolean isLineTerminated() {
+        return isLineTerminated;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+}
@@ -0,0 +1,221 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Merges the packets of several trace files (plain text, gzip compressed or pcap) into a single timeline ordered by
+ * timestamp, e.g. to combine captures taken on several taps.
+ * <p>
+ * Each file is read by its own streaming reader and only the next packet of each file is held in memory, so the
+ * memory used depends on the number of files rather than their size. A heap of the files ordered by their next
+ * packet's timestamp gives the next packet of the merged timeline in O(log files) time. Each file is assumed to be in
+ * time order already; packets with no timestamp keep their place after the packet before them in their file, and
+ * packets with equal timestamps are taken from the files in the order they were given.
+ * <p>
+ * Only lines with valid ip data are merged, as with any other view of a trace.
+ */
+public class TraceMerger implements Closeable {
+
+    private final List<Source> sources = new ArrayList<>();
+    private final PriorityQueue<Source> heap = new PriorityQueue<>(
+            Comparator.comparingLong((Source source) -> source.time).thenComparingInt(source -> source.index));
+    private final Simulator simulator = new Simulator();
+    private Source current;
+
+    /**
+     * Opens every file and reads its first packet.
+     *
+     * @param files the files to merge
+     * @throws IOException one of the files could not be read, in which case every file is closed
+     */
+    public TraceMerger(List<File> files) throws IOException {
+        try {
+            for (File file : files) {
+                Source source = new Source(file, sources.size());
+                sources.add(source);
+                if (source.advance()) {
+                    heap.add(source);
+                }
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads the next packet of the merged timeline.
+     *
+     * @return the packet with the earliest timestamp of those not yet read, or null if every file has been read
+     * @throws IOException one of the files could not be read
+     */
+    public Packet next() throws IOException {
+        // The previous packet's file is only read again now, so that its packet stays valid until this is called
+        if (current != null && current.advance()) {
+            heap.add(current);
+        }
+        current = heap.poll();
+        return current != null ? current.packet : null;
+    }
+
+    /**
+     * @return the index in the list of files of the file the last packet returned by {@link #next()} was read from
+     */
+    public int getSourceIndex() {
+        return current.index;
+    }
+
+    /**
+     * @return the file the last packet returned by {@link #next()} was read from
+     */
+    public File getSourceFile() {
+        return current.file;
+    }
+
+    /**
+     * @return the last packet's line index (or record index for pcap files) in the file it was read from
+     */
+    public int getSourceLineIndex() {
+        return current.packet.getLineIndex();
+    }
+
+    /**
+     * @return the last packet's line exactly as it was read, or null if it was read from a pcap file
+     */
+    public String getSourceLine() {
+        return current.line;
+    }
+
+    /**
+     * Merges trace files into a new tab delimited trace file. The first column of each line is replaced by its line
+     * number in the merged file, and two columns are added to the end of each line with the name of the file it came
+     * from and its line number in that file, so every packet can be traced back to the file it was captured in. Lines
+     * with fewer than the trace format's columns are padded with empty columns first, so the added columns always come
+     * after the known ones.
+     *
+     * @param files  the files to merge
+     * @param output the file to write the merged trace to
+     * @return the number of packets written
+     * @throws IOException           a file could not be read or the output could not be written
+     * @throws CancellationException the thread merging the files was interrupted
+     */
+    public static long merge(List<File> files, File output) throws IOException, CancellationException {
+        long count = 0;
+        try (TraceMerger merger = new TraceMerger(files);
+             Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(output),
+                     StandardCharsets.UTF_8), 64 * 1024)) {
+            Packet packet;
+            while ((packet = merger.next()) != null) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new CancellationException("Merging into " + output + " was cancelled");
+                }
+                String line = merger.getSourceLine() != null ? merger.getSourceLine() : packet.getTabDelimitedData();
+                int idEnd = line.indexOf('\t');
+                writer.write(String.valueOf(++count));
+                writer.write(idEnd >= 0 ? line.substring(idEnd) : "");
+                // Lines may have fewer than the trace format's columns, so they're padded out to all of them before
+                // the source columns are added, which would otherwise be read as e.g. the packet's size
+                for (int columns = countColumns(line); columns <= TraceFileConstants.MAX_COL; columns++) {
+                    writer.write('\t');
+                }
+                writer.write('\t');
+                writer.write(merger.getSourceFile().getName());
+                writer.write('\t');
+                writer.write(String.valueOf(merger.getSourceLineIndex() + 1));
+                writer.write('\n');
+            }
+        }
+        return count;
+    }
+
+    private static int countColumns(String line) {
+        int columns = 1;
+        for (int tab = line.indexOf('\t'); tab >= 0; tab = line.indexOf('\t', tab + 1)) {
+            columns++;
+        }
+        return columns;
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException exception = null;
+        for (Source source : sources) {
+            try {
+                source.close();
+            } catch (IOException e) {
+                exception = e;
+            }
+        }
+        if (exception != null) {
+            throw exception;
+        }
+    }
+
+    /**
+     * One of the files being merged, and the next packet read from it.
+     */
+    private class Source implements Closeable {
+        final File file;
+        final int index;
+        final PcapReader pcapReader;
+        final TraceLineReader lineReader;
+        int nextLineIndex;
+        Packet packet;
+        String line;
+        // The timestamp of the packet in nanoseconds, or of the last one with a timestamp if it has none
+        long time = Long.MIN_VALUE;
+
+        Source(File file, int index) throws IOException {
+            this.file = file;
+            this.index = index;
+            if (PcapReader.isPcap(file)) {
+                pcapReader = new PcapReader(file);
+                lineReader = null;
+            } else {
+                pcapReader = null;
+                lineReader = TraceLineReader.open(file);
+            }
+        }
+
+        /**
+         * Reads this file's next packet.
+         *
+         * @return false if there are no more packets
+         */
+        boolean advance() throws IOException {
+            packet = null;
+            if (pcapReader != null) {
+                packet = pcapReader.readPacket();
+            } else {
+                while (packet == null && (line = lineReader.readLine()) != null) {
+                    // Each packet is only held until it's merged, so its hosts aren't shared through the simulator's
+                    // host dictionary, which would keep every distinct host of every file until the merge finishes
+                    packet = Simulator.parseLine(line, nextLineIndex, null, simulator.getRejectedLines());
+                    packet = simulator.validate(packet) ? packet : null;
+                    nextLineIndex++;
+                }
+            }
+            if (packet == null) {
+                return false;
+            }
+            if (packet.hasTimeStamp()) {
+                time = packet.getTimeNanos();
+            }
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (pcapReader != null) {
+                pcapReader.close();
+            } else {
+                lineReader.close();
+            }
+        }
+    }
+
+}